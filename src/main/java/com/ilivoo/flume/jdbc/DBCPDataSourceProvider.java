@@ -1,6 +1,7 @@
 package com.ilivoo.flume.jdbc;
 
 import org.apache.commons.dbcp.BasicDataSourceFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
 
 import javax.sql.DataSource;
 import java.util.Properties;
@@ -19,6 +20,16 @@ public class DBCPDataSourceProvider implements DataSourceProvider {
         return properties.getProperty("url");
     }
 
+    @Override
+    public int getMaximumPoolSize() {
+        String maxActive = properties.getProperty("maxActive");
+        if (maxActive == null) {
+            return GenericObjectPool.DEFAULT_MAX_ACTIVE;
+        }
+        int result = Integer.parseInt(maxActive);
+        return result <= 0 ? Integer.MAX_VALUE : result;
+    }
+
     @Override
     public DataSource createDataSource() throws Exception {
         return BasicDataSourceFactory.createDataSource(properties);
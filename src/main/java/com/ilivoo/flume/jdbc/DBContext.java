@@ -1,30 +1,33 @@
 package com.ilivoo.flume.jdbc;
 
 import com.google.common.collect.Lists;
+import org.jooq.ConnectionProvider;
 import org.jooq.DSLContext;
-import org.jooq.Name;
 import org.jooq.Table;
+import org.jooq.impl.DataSourceConnectionProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DBContext<T extends JDBCTable> {
 
     private static final Logger log = LoggerFactory.getLogger(DBContext.class);
+    public static final long DEFAULT_META_REFRESH = 10 * 60 * 1000;
     private final DSLContext dslContext;
     private String positionPath;
     private String catalog;
 
-    private Map<String, Table> tableMap = new HashMap<>();
+    private Map<String, T> jdbcTableMap = new ConcurrentHashMap<>();
 
-    private Map<String, T> jdbcTableMap = new HashMap<>();
-
-    private Map<String, T> jdbcAliasTableMap = new HashMap<>();
+    private Map<String, T> jdbcAliasTableMap = new ConcurrentHashMap<>();
 
     private Set<String> accessTableSet = new HashSet<>();
 
@@ -36,6 +39,18 @@ public class DBContext<T extends JDBCTable> {
 
     private boolean ignorePosition;
 
+    private int maximumPoolSize = Integer.MAX_VALUE;
+
+    private StatementCache statementCache = new StatementCache();
+
+    //meta refresh interval, 0 never refresh
+    private long metaRefresh = DEFAULT_META_REFRESH;
+
+    //keep table meta snapshot in position path
+    private boolean metaSnapshot = true;
+
+    private TableMetaCache metaCache;
+
     //限制表和表的列， 这样在sink和source中都可以使用到
     public DBContext(DSLContext dslContext, String catalog, List<T> accessTables, String positionPath) {
         this.dslContext = dslContext;
@@ -53,6 +68,19 @@ public class DBContext<T extends JDBCTable> {
     }
 
     void init() {
+        metaCache = new TableMetaCache(dslContext, catalog,
+                metaSnapshot ? TableMetaCache.snapshotPath(positionPath) : null, metaRefresh,
+                new TableMetaCache.Listener() {
+                    @Override
+                    public void tableChanged(String tableName, Table table) {
+                        for (T t : jdbcTableMap.values()) {
+                            if (t.getName().equalsIgnoreCase(tableName)) {
+                                t.refreshTable(table);
+                                statementCache.invalidate(t.getName() + ":");
+                            }
+                        }
+                    }
+                });
         for (T t : jdbcTableMap.values()) {
             t.initTable(this);
         }
@@ -68,18 +96,7 @@ public class DBContext<T extends JDBCTable> {
         if (!accessTableSet.isEmpty() && !accessTableSet.contains(tableName)) {
             throw new JDBCException("table sink limit: " + tableName);
         }
-        Table result = tableMap.get(tableName);
-        if (result == null) {
-            for (Table table : dslContext.meta().getTables()) {
-                Name tableQN = table.getQualifiedName();
-                if (tableQN.first().equalsIgnoreCase(catalog)
-                        && tableQN.last().equalsIgnoreCase(tableName)) {
-                    result = table;
-                    tableMap.put(tableName, table);
-                    break;
-                }
-            }
-        }
+        Table result = metaCache.get(tableName);
         if (result == null) {
             throw new JDBCException(String.format("%s database no table %s find", catalog, tableName));
         }
@@ -97,6 +114,10 @@ public class DBContext<T extends JDBCTable> {
         return dslContext;
     }
 
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
     public List<T> getTables() {
         return Lists.newArrayList(jdbcTableMap.values());
     }
@@ -125,6 +146,37 @@ public class DBContext<T extends JDBCTable> {
         this.positionPath = positionPath;
     }
 
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        this.maximumPoolSize = maximumPoolSize;
+    }
+
+    /**
+     * replace the statement cache by one of the max size, called before the tables are read.
+     */
+    public void setStatementCacheSize(long statementCacheSize) {
+        this.statementCache = new StatementCache(statementCacheSize);
+    }
+
+    public long getMetaRefresh() {
+        return metaRefresh;
+    }
+
+    public void setMetaRefresh(long metaRefresh) {
+        this.metaRefresh = metaRefresh;
+    }
+
+    public boolean isMetaSnapshot() {
+        return metaSnapshot;
+    }
+
+    public void setMetaSnapshot(boolean metaSnapshot) {
+        this.metaSnapshot = metaSnapshot;
+    }
+
     public boolean isIgnorePosition() {
         return ignorePosition;
     }
@@ -132,4 +184,21 @@ public class DBContext<T extends JDBCTable> {
     public void setIgnorePosition(boolean ignorePosition) {
         this.ignorePosition = ignorePosition;
     }
+
+    /**
+     * close the connection pool of the context.
+     */
+    public void close() {
+        ConnectionProvider provider = dslContext.configuration().connectionProvider();
+        if (provider instanceof DataSourceConnectionProvider) {
+            DataSource dataSource = ((DataSourceConnectionProvider) provider).dataSource();
+            if (dataSource instanceof Closeable) {
+                try {
+                    ((Closeable) dataSource).close();
+                } catch (IOException e) {
+                    log.warn("close data source of " + catalog + " failed", e);
+                }
+            }
+        }
+    }
 }
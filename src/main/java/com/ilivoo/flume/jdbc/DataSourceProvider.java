@@ -9,5 +9,7 @@ public interface DataSourceProvider {
 
     public String getUrl();
 
+    public int getMaximumPoolSize();
+
     public DataSource createDataSource() throws Exception;
 }
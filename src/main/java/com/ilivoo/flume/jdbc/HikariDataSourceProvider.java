@@ -23,6 +23,11 @@ public class HikariDataSourceProvider implements DataSourceProvider {
         return config.getJdbcUrl();
     }
 
+    @Override
+    public int getMaximumPoolSize() {
+        return config.getMaximumPoolSize();
+    }
+
     @Override
     public DataSource createDataSource() throws Exception {
         return new HikariDataSource(config);
@@ -2,7 +2,12 @@ package com.ilivoo.flume.jdbc;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.ilivoo.flume.source.jdbc.BaseSourceTable;
+import com.ilivoo.flume.source.jdbc.CDCSourceTable;
+import com.ilivoo.flume.source.jdbc.FilePositionStore;
 import com.ilivoo.flume.source.jdbc.JDBCSourceTable;
+import com.ilivoo.flume.source.jdbc.LogPositionStore;
+import com.ilivoo.flume.source.jdbc.PositionStore;
 import org.apache.commons.lang.mutable.MutableObject;
 import org.apache.flume.Context;
 import org.jooq.ConnectionRunnable;
@@ -52,6 +57,9 @@ public class JDBCHelper {
     public static final String TABLE_INCREMENT_DEFAULT_START = "defaultStart";
     public static final String TABLE_INCREMENT_STARTS = "starts";
     public static final String TABLE_INCREMENT_STARTS_PREFIX = TABLE_INCREMENT_STARTS + SEPARATOR;
+    public static final String TABLE_INCREMENT_BATCH_IDENTIFY = "batchIdentify";
+    public static final int DEFAULT_TABLE_INCREMENT_BATCH_IDENTIFY = 1;
+    public static final String TABLE_INCREMENT_BATCH_IDENTIFY_MODE = "batchIdentifyMode";
     public static final String TABLE_INCREMENT_STRICT = "strict";
     public static final boolean DEFAULT_TABLE_INCREMENT_STRICT = true;
     public static final String TABLE_COLUMN_CONVERT = "convert";
@@ -59,6 +67,24 @@ public class JDBCHelper {
     public static final String TABLE_IDLE_INTERVAL = "idleInterval";
     public static final long DEFAULT_TABLE_IDLE_MAX = 60 * 60 * 1000;
     public static final long DEFAULT_TABLE_IDLE_INTERVAL = 60 * 1000;
+    public static final String TABLE_FETCH_SIZE = "fetchSize";
+    public static final int DEFAULT_TABLE_FETCH_SIZE = 0;
+    public static final String TABLE_STREAM_PAGE_SIZE = "streamPageSize";
+    public static final long DEFAULT_TABLE_STREAM_PAGE_SIZE = 0;
+    public static final String TABLE_SNAPSHOT_CHUNKS = "snapshotChunks";
+    public static final int DEFAULT_TABLE_SNAPSHOT_CHUNKS = 0;
+    public static final String POSITION_STORE = "positionStore";
+    public static final String POSITION_STORE_FILE = "file";
+    public static final String POSITION_STORE_LOG = "log";
+    public static final String DEFAULT_POSITION_STORE = POSITION_STORE_FILE;
+    public static final String TABLE_CDC = "cdc";
+    public static final String TABLE_CDC_PREFIX = TABLE_CDC + SEPARATOR;
+    public static final String TABLE_CDC_CAPTURE_INSTANCE = "captureInstance";
+    public static final String TABLE_CDC_START = "start";
+    public static final String META_REFRESH = "metaRefresh";
+    public static final String META_SNAPSHOT = "metaSnapshot";
+    public static final boolean DEFAULT_META_SNAPSHOT = true;
+    public static final String STATEMENT_CACHE_SIZE = "statementCacheSize";
     public static final String POSITION_DIR = "positionDir";
     public static final String DEFAULT_POSITION_DIR = "/.flume";
 
@@ -69,10 +95,12 @@ public class JDBCHelper {
         connProps.putAll(context.getSubProperties(CONN));
         connProps.remove(CONN_PROVIDER);
         DSLContext create;
+        int maximumPoolSize;
         try {
             DataSourceProvider provider = (DataSourceProvider) Thread.currentThread().getContextClassLoader()
                     .loadClass(providerClass).newInstance();
             provider.configProps(connProps);
+            maximumPoolSize = provider.getMaximumPoolSize();
             create = DSL.using(provider.createDataSource(), JDBCUtils.dialect(provider.getUrl()));
             log.info("Server Type: " + create.dialect().name());
         } catch (Exception e) {
@@ -100,11 +128,17 @@ public class JDBCHelper {
             throw new JDBCException("Error creating positionFile parent directories", e);
         }
         DBContext<T> dbContext = new DBContext<>(create, catalog, parseTable(context, clz), positionPath);
+        dbContext.setMaximumPoolSize(maximumPoolSize);
+        long metaRefresh = context.getLong(META_REFRESH, DBContext.DEFAULT_META_REFRESH);
+        Preconditions.checkArgument(metaRefresh >= 0, "metaRefresh must not be negative");
+        dbContext.setMetaRefresh(metaRefresh);
+        dbContext.setMetaSnapshot(context.getBoolean(META_SNAPSHOT, DEFAULT_META_SNAPSHOT));
+        dbContext.setStatementCacheSize(context.getLong(STATEMENT_CACHE_SIZE, StatementCache.DEFAULT_MAX_SIZE));
         if (clz == JDBCTable.class) {
             Integer readBatchSize = context.getInteger(BATCH_SIZE, DEFAULT_READ_BATCH_SIZE);
             Preconditions.checkArgument(readBatchSize > 0);
             dbContext.setReadBatchSize(readBatchSize);
-        } else if (clz == JDBCSourceTable.class) {
+        } else if (BaseSourceTable.class.isAssignableFrom(clz)) {
             Integer writeBatchSize = context.getInteger(BATCH_SIZE, DEFAULT_WRITE_BATCH_SIZE);
             Preconditions.checkArgument(writeBatchSize > 0);
             dbContext.setWriteBatchSize(writeBatchSize);
@@ -115,12 +149,30 @@ public class JDBCHelper {
         return dbContext;
     }
 
+    private static PositionStore createPositionStore(String type) {
+        if (POSITION_STORE_FILE.equals(type)) {
+            return new FilePositionStore();
+        } else if (POSITION_STORE_LOG.equals(type)) {
+            return new LogPositionStore();
+        }
+        try {
+            return (PositionStore) Thread.currentThread().getContextClassLoader()
+                    .loadClass(type).newInstance();
+        } catch (Exception e) {
+            throw new JDBCException("position store create error: " + type, e);
+        }
+    }
+
     private static <T extends JDBCTable> List<T> parseTable(Context context, Class<T> clz) {
         List<T> result = new ArrayList<>();
         String[] limitTables = new String[0];
         String tables = context.getString(TABLES);
         long idleMax = context.getLong(TABLE_IDLE_MAX, DEFAULT_TABLE_IDLE_MAX);
         long idleInterval = context.getLong(TABLE_IDLE_INTERVAL, DEFAULT_TABLE_IDLE_INTERVAL);
+        int fetchSize = context.getInteger(TABLE_FETCH_SIZE, DEFAULT_TABLE_FETCH_SIZE);
+        long streamPageSize = context.getLong(TABLE_STREAM_PAGE_SIZE, DEFAULT_TABLE_STREAM_PAGE_SIZE);
+        int snapshotChunks = context.getInteger(TABLE_SNAPSHOT_CHUNKS, DEFAULT_TABLE_SNAPSHOT_CHUNKS);
+        String positionStore = context.getString(POSITION_STORE, DEFAULT_POSITION_STORE);
         if (!Strings.isNullOrEmpty(tables) && !tables.equals(DEFAULT_ACCESS_TABLE_AND_COLUMNS)) {
             limitTables = tables.split("\\s+");
         }
@@ -159,12 +211,31 @@ public class JDBCHelper {
             t.setAlias(alias);
             t.getAccessColumnSet().addAll(Arrays.asList(accessColumns));
             t.getColumnAliasMap().putAll(columnAliasMap);
-            if (clz == JDBCSourceTable.class) {
-                JDBCSourceTable jst = (JDBCSourceTable) t;
+            if (BaseSourceTable.class.isAssignableFrom(clz)) {
+                BaseSourceTable bst = (BaseSourceTable) t;
                 long tableIdleMax = tableContext.getLong(TABLE_IDLE_MAX, idleMax);
-                jst.setIdleMax(tableIdleMax);
+                bst.setIdleMax(tableIdleMax);
                 long tableIdleInterval = tableContext.getLong(TABLE_IDLE_INTERVAL, idleInterval);
-                jst.setIdleInterval(tableIdleInterval);
+                bst.setIdleInterval(tableIdleInterval);
+                bst.setFetchSize(tableContext.getInteger(TABLE_FETCH_SIZE, fetchSize));
+                bst.setPositionStore(createPositionStore(positionStore));
+            }
+            if (clz == CDCSourceTable.class) {
+                CDCSourceTable cst = (CDCSourceTable) t;
+                Context cdcContext = new Context(tableContext.getSubProperties(TABLE_CDC_PREFIX));
+                cst.setCaptureInstance(cdcContext.getString(TABLE_CDC_CAPTURE_INSTANCE));
+                String cdcStart = cdcContext.getString(TABLE_CDC_START, CDCSourceTable.START_EARLIEST);
+                Preconditions.checkArgument(Arrays.asList(CDCSourceTable.START_EARLIEST, CDCSourceTable.START_LATEST)
+                        .contains(cdcStart), cst.getName() + " cdc start config error: " + cdcStart);
+                cst.setCdcStart(cdcStart);
+            } else if (clz == JDBCSourceTable.class) {
+                JDBCSourceTable jst = (JDBCSourceTable) t;
+                long tableStreamPageSize = tableContext.getLong(TABLE_STREAM_PAGE_SIZE, streamPageSize);
+                Preconditions.checkArgument(tableStreamPageSize >= 0, jst.getName() + " streamPageSize config error");
+                jst.setStreamPageSize(tableStreamPageSize);
+                int tableSnapshotChunks = tableContext.getInteger(TABLE_SNAPSHOT_CHUNKS, snapshotChunks);
+                Preconditions.checkArgument(tableSnapshotChunks >= 0, jst.getName() + " snapshotChunks config error");
+                jst.setSnapshotChunks(tableSnapshotChunks);
                 String tableWhere = tableContext.getString(TABLE_WHERE);
                 jst.setWhere(tableWhere);
                 String incrementStr = tableContext.getString(TABLE_INCREMENT);
@@ -202,6 +273,15 @@ public class JDBCHelper {
                 Map<String, String> start = incrementContext.getSubProperties(TABLE_INCREMENT_STARTS_PREFIX);
                 jst.getStart().putAll(start);
                 jst.setStrict(incrementContext.getBoolean(TABLE_INCREMENT_STRICT, DEFAULT_TABLE_INCREMENT_STRICT));
+                int batchIdentify = incrementContext.getInteger(TABLE_INCREMENT_BATCH_IDENTIFY, DEFAULT_TABLE_INCREMENT_BATCH_IDENTIFY);
+                Preconditions.checkArgument(batchIdentify >= 1, jst.getName() + " batchIdentify config error");
+                jst.setBatchIdentify(batchIdentify);
+                String batchIdentifyMode = incrementContext.getString(TABLE_INCREMENT_BATCH_IDENTIFY_MODE,
+                        JDBCSourceTable.BATCH_IDENTIFY_AUTO);
+                Preconditions.checkArgument(Arrays.asList(JDBCSourceTable.BATCH_IDENTIFY_AUTO,
+                        JDBCSourceTable.BATCH_IDENTIFY_WINDOW, JDBCSourceTable.BATCH_IDENTIFY_UNION).contains(batchIdentifyMode),
+                        jst.getName() + " batchIdentifyMode config error: " + batchIdentifyMode);
+                jst.setBatchIdentifyMode(batchIdentifyMode);
                 if (increments.length == 1) {
                     Preconditions.checkArgument(excludes.length == 0 && start.size() == 0);
                 }
@@ -4,14 +4,20 @@ import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import org.jooq.Field;
 import org.jooq.Table;
+import org.jooq.impl.DSL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JDBCTable {
     protected static Logger log = LoggerFactory.getLogger(JDBCTable.class);
+    private static final Field NO_FIELD = DSL.field(DSL.name("flume_no_field"));
+    //unknown aliases kept, so random keys of events can not grow the map without bound
+    private static final int MAX_NO_FIELD_ALIASES = 4096;
     protected DBContext<?> dbContext;
     /**
      * table name, always real table name
@@ -19,8 +25,8 @@ public class JDBCTable {
      * sink receive alias from channel, and send to named db table
      */
     protected String name;
-    //db table
-    protected Table table;
+    //db table, replaced when the table meta changes
+    protected volatile Table table;
     //table alias
     protected String alias;
     //table fields
@@ -33,10 +39,16 @@ public class JDBCTable {
      * sink receive alias from channel, and send to named table column
      */
     protected BiMap<String, String> columnAliasMap = HashBiMap.create();
+    /**
+     * sink resolution of column alias to table field, computed once for every alias received,
+     * {@link #NO_FIELD} if the alias is not an accessible column of the table
+     */
+    private final Map<String, Field> aliasFieldMap = new ConcurrentHashMap<>();
 
     protected void initTable(DBContext<?> dbContext) {
         this.dbContext = dbContext;
         table = dbContext.getDBTable(name);
+        aliasFieldMap.clear();
         for (Field field : table.fields()) {
             tableFields.add(field.getName());
         }
@@ -64,6 +76,24 @@ public class JDBCTable {
         this.alias = alias;
     }
 
+    /**
+     * use the changed db table, called by the meta refresh of {@link DBContext}.
+     */
+    protected void refreshTable(Table table) {
+        Set<String> fields = new HashSet<>();
+        for (Field field : table.fields()) {
+            fields.add(field.getName());
+        }
+        for (String column : accessColumnSet) {
+            if (!fields.contains(column)) {
+                log.warn("{} table has no column exists after meta changed: {}", name, column);
+            }
+        }
+        this.tableFields = fields;
+        this.table = table;
+        clearAliasFields();
+    }
+
     public BiMap<String, String> getColumnAliasMap() {
         return columnAliasMap;
     }
@@ -84,6 +114,36 @@ public class JDBCTable {
         return alias;
     }
 
+    /**
+     * @return the accessible table field of the column alias, null if no such field
+     */
+    public Field getAliasField(String alias) {
+        Field result = aliasFieldMap.get(alias);
+        if (result == null) {
+            result = NO_FIELD;
+            String columnName = getAliasColumn(alias);
+            if (isColumnAccess(columnName)) {
+                for (Field f : table.fields()) {
+                    if (f.getName().equalsIgnoreCase(columnName)) {
+                        result = f;
+                        break;
+                    }
+                }
+            }
+            if (result != NO_FIELD || aliasFieldMap.size() < MAX_NO_FIELD_ALIASES) {
+                aliasFieldMap.put(alias, result);
+            }
+        }
+        return result == NO_FIELD ? null : result;
+    }
+
+    /**
+     * forget the resolved fields, call when the table schema or column config changes.
+     */
+    public void clearAliasFields() {
+        aliasFieldMap.clear();
+    }
+
     public Set<String> getAccessColumnSet() {
         return accessColumnSet;
     }
@@ -0,0 +1,123 @@
+package com.ilivoo.flume.jdbc;
+
+import org.jooq.DataType;
+import org.jooq.Param;
+import org.jooq.Query;
+import org.jooq.conf.ParamType;
+import org.jooq.impl.DSL;
+import org.jooq.types.ULong;
+import org.jooq.types.UNumber;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * sql rendered once from a jooq query, the values are bound by position at execute time.
+ * the query should declare its values with {@link #param(int, DataType)}, other values are inlined.
+ */
+public class SqlTemplate {
+
+    private static final String PARAM_PREFIX = "flume_p";
+
+    private static final Pattern PARAM_PATTERN = Pattern.compile(":" + PARAM_PREFIX + "(\\d+)");
+
+    private final String sql;
+    //parameter index of every placeholder in sql
+    private final int[] bindIndexes;
+    //sql type of every parameter, use for null value
+    private final int[] sqlTypes;
+
+    private SqlTemplate(String sql, int[] bindIndexes, int[] sqlTypes) {
+        this.sql = sql;
+        this.bindIndexes = bindIndexes;
+        this.sqlTypes = sqlTypes;
+    }
+
+    public static <T> Param<T> param(int index, DataType<T> dataType) {
+        return DSL.param(PARAM_PREFIX + index, dataType);
+    }
+
+    public static SqlTemplate compile(Query query) {
+        String namedSql = query.getSQL(ParamType.NAMED_OR_INLINED);
+        Matcher matcher = PARAM_PATTERN.matcher(namedSql);
+        StringBuffer sql = new StringBuffer();
+        List<Integer> bindIndexList = new ArrayList<>();
+        int paramCount = 0;
+        while (matcher.find()) {
+            int index = Integer.parseInt(matcher.group(1));
+            bindIndexList.add(index);
+            paramCount = Math.max(paramCount, index + 1);
+            matcher.appendReplacement(sql, "?");
+        }
+        matcher.appendTail(sql);
+        int[] bindIndexes = new int[bindIndexList.size()];
+        for (int i = 0; i < bindIndexes.length; i++) {
+            bindIndexes[i] = bindIndexList.get(i);
+        }
+        int[] sqlTypes = new int[paramCount];
+        Arrays.fill(sqlTypes, Types.NULL);
+        for (Map.Entry<String, Param<?>> entry : query.getParams().entrySet()) {
+            String name = entry.getKey();
+            if (name.startsWith(PARAM_PREFIX)) {
+                int index = Integer.parseInt(name.substring(PARAM_PREFIX.length()));
+                if (index < paramCount) {
+                    sqlTypes[index] = entry.getValue().getDataType().getSQLType();
+                }
+            }
+        }
+        return new SqlTemplate(sql.toString(), bindIndexes, sqlTypes);
+    }
+
+    /**
+     * template of a jdbc sql, the i-th placeholder is bound to the i-th value.
+     *
+     * @param sqlTypes sql type of every placeholder, use for null value
+     */
+    public static SqlTemplate of(String sql, int[] sqlTypes) {
+        int[] bindIndexes = new int[sqlTypes.length];
+        for (int i = 0; i < bindIndexes.length; i++) {
+            bindIndexes[i] = i;
+        }
+        return new SqlTemplate(sql, bindIndexes, sqlTypes.clone());
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public PreparedStatement prepare(Connection connection) throws SQLException {
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * @param values parameter values, indexed as declared by {@link #param(int, DataType)}
+     */
+    public void bind(PreparedStatement ps, Object... values) throws SQLException {
+        for (int i = 0; i < bindIndexes.length; i++) {
+            int index = bindIndexes[i];
+            Object value = values[index];
+            if (value == null) {
+                ps.setNull(i + 1, sqlTypes[index]);
+            } else if (value instanceof ULong) {
+                ps.setObject(i + 1, ((ULong) value).toBigInteger());
+            } else if (value instanceof UNumber) {
+                ps.setLong(i + 1, ((UNumber) value).longValue());
+            } else {
+                ps.setObject(i + 1, value);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
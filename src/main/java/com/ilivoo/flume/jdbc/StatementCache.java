@@ -0,0 +1,72 @@
+package com.ilivoo.flume.jdbc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * parameterized sql of every query shape, the same sql text is sent for every execute,
+ * so the server plan cache and the driver statement cache
+ * (MySQL cachePrepStmts, DBCP poolPreparedStatements) can be used.
+ * the shapes of sparse bodies are many, the least recently used are evicted over the max size.
+ */
+public class StatementCache {
+
+    public static final long DEFAULT_MAX_SIZE = 1000;
+
+    private final Cache<String, SqlTemplate> templates;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    public StatementCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public StatementCache(long maxSize) {
+        Preconditions.checkArgument(maxSize > 0, "statement cache size must be positive");
+        templates = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+    }
+
+    public SqlTemplate get(String key) {
+        SqlTemplate template = templates.getIfPresent(key);
+        if (template == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return template;
+    }
+
+    public SqlTemplate put(String key, SqlTemplate template) {
+        SqlTemplate old = templates.asMap().putIfAbsent(key, template);
+        return old == null ? template : old;
+    }
+
+    public void invalidate(String keyPrefix) {
+        for (String key : templates.asMap().keySet()) {
+            if (key.startsWith(keyPrefix)) {
+                templates.invalidate(key);
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return templates.stats().evictionCount();
+    }
+
+    public int size() {
+        return (int) templates.size();
+    }
+}
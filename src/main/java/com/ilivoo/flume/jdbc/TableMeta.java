@@ -0,0 +1,259 @@
+package com.ilivoo.flume.jdbc;
+
+import com.google.common.base.Objects;
+import org.jooq.DataType;
+import org.jooq.Record;
+import org.jooq.SQLDialect;
+import org.jooq.Schema;
+import org.jooq.Table;
+import org.jooq.TableField;
+import org.jooq.UniqueKey;
+import org.jooq.exception.SQLDialectNotSupportedException;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultDataType;
+import org.jooq.impl.Internal;
+import org.jooq.impl.SQLDataType;
+import org.jooq.impl.TableImpl;
+import org.jooq.tools.jdbc.JDBCUtils;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * columns, primary key and unique keys of one table read by DatabaseMetaData with the table name filter,
+ * instead of reading every table of the database by jooq meta. kept as json in the meta snapshot.
+ */
+class TableMeta {
+    //table catalog and schema as returned by DatabaseMetaData
+    String catalog;
+    String schema;
+    String name;
+    List<ColumnMeta> columns = new ArrayList<>();
+    String primaryKeyName;
+    List<String> primaryKey = new ArrayList<>();
+    //unique index:columns, primary key index excluded
+    Map<String, List<String>> uniqueKeys = new LinkedHashMap<>();
+    //time the meta is read from database
+    volatile long loadTime;
+
+    static class ColumnMeta {
+        String name;
+        String typeName;
+        int precision;
+        int scale;
+        boolean nullable;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ColumnMeta)) {
+                return false;
+            }
+            ColumnMeta that = (ColumnMeta) o;
+            return precision == that.precision && scale == that.scale && nullable == that.nullable
+                    && Objects.equal(name, that.name) && Objects.equal(typeName, that.typeName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(name, typeName, precision, scale, nullable);
+        }
+    }
+
+    /**
+     * read the table of database, the database is matched with the catalog or the schema ignoring case,
+     * like the first part of the table qualified name.
+     *
+     * @return null if no such table
+     */
+    static TableMeta load(DatabaseMetaData metaData, String database, String tableName) throws SQLException {
+        Set<String> names = new LinkedHashSet<>(Arrays.asList(tableName,
+                tableName.toUpperCase(Locale.ENGLISH), tableName.toLowerCase(Locale.ENGLISH)));
+        String[][] scopes = {{database, null}, {null, database}, {null, database.toUpperCase(Locale.ENGLISH)}};
+        for (String[] scope : scopes) {
+            for (String name : names) {
+                TableMeta result = loadColumns(metaData, scope[0], scope[1], name, database, tableName);
+                if (result != null) {
+                    result.loadKeys(metaData);
+                    result.loadTime = System.currentTimeMillis();
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the table name is a pattern, rows of other tables and databases are skipped.
+     */
+    private static TableMeta loadColumns(DatabaseMetaData metaData, String catalog, String schema, String name,
+                                         String database, String tableName) throws SQLException {
+        TableMeta result = null;
+        ResultSet rs = null;
+        try {
+            rs = metaData.getColumns(catalog, schema, name, "%");
+            while (rs.next()) {
+                String tableCat = rs.getString("TABLE_CAT");
+                String tableSchem = rs.getString("TABLE_SCHEM");
+                String table = rs.getString("TABLE_NAME");
+                if (!tableName.equalsIgnoreCase(table)
+                        || !(database.equalsIgnoreCase(tableCat) || database.equalsIgnoreCase(tableSchem))) {
+                    continue;
+                }
+                if (result == null) {
+                    result = new TableMeta();
+                    result.catalog = tableCat;
+                    result.schema = tableSchem;
+                    result.name = table;
+                } else if (!Objects.equal(result.catalog, tableCat) || !Objects.equal(result.schema, tableSchem)
+                        || !result.name.equals(table)) {
+                    continue;
+                }
+                ColumnMeta column = new ColumnMeta();
+                column.name = rs.getString("COLUMN_NAME");
+                column.typeName = rs.getString("TYPE_NAME");
+                column.precision = rs.getInt("COLUMN_SIZE");
+                column.scale = rs.getInt("DECIMAL_DIGITS");
+                column.nullable = rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls;
+                result.columns.add(column);
+            }
+        } finally {
+            JDBCUtils.safeClose(rs);
+        }
+        return result;
+    }
+
+    private void loadKeys(DatabaseMetaData metaData) throws SQLException {
+        //key sequence:column
+        Map<Integer, String> keyColumns = new TreeMap<>();
+        ResultSet rs = null;
+        try {
+            rs = metaData.getPrimaryKeys(catalog, schema, name);
+            while (rs.next()) {
+                primaryKeyName = rs.getString("PK_NAME");
+                keyColumns.put(rs.getInt("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+            }
+        } finally {
+            JDBCUtils.safeClose(rs);
+        }
+        primaryKey.addAll(keyColumns.values());
+        //index:ordinal:column
+        Map<String, Map<Integer, String>> indexColumns = new LinkedHashMap<>();
+        try {
+            rs = metaData.getIndexInfo(catalog, schema, name, true, true);
+            while (rs.next()) {
+                String indexName = rs.getString("INDEX_NAME");
+                if (indexName == null || rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic
+                        || rs.getBoolean("NON_UNIQUE")) {
+                    continue;
+                }
+                Map<Integer, String> columns = indexColumns.get(indexName);
+                if (columns == null) {
+                    columns = new TreeMap<>();
+                    indexColumns.put(indexName, columns);
+                }
+                columns.put((int) rs.getShort("ORDINAL_POSITION"), rs.getString("COLUMN_NAME"));
+            }
+        } finally {
+            JDBCUtils.safeClose(rs);
+        }
+        for (Map.Entry<String, Map<Integer, String>> entry : indexColumns.entrySet()) {
+            List<String> columns = new ArrayList<>(entry.getValue().values());
+            if (!columns.equals(primaryKey)) {
+                uniqueKeys.put(entry.getKey(), columns);
+            }
+        }
+    }
+
+    /**
+     * @return true if columns and keys are the same, the load time is not compared
+     */
+    boolean sameSchema(TableMeta other) {
+        return Objects.equal(catalog, other.catalog) && Objects.equal(schema, other.schema)
+                && Objects.equal(name, other.name) && columns.equals(other.columns)
+                && Objects.equal(primaryKeyName, other.primaryKeyName) && primaryKey.equals(other.primaryKey)
+                && uniqueKeys.equals(other.uniqueKeys);
+    }
+
+    Table toTable(SQLDialect dialect) {
+        return new MetaTable(this, dialect);
+    }
+
+    /**
+     * data type of the column the same as jooq meta.
+     */
+    private static DataType<?> dataType(SQLDialect dialect, ColumnMeta column) {
+        DataType<?> type;
+        try {
+            type = DefaultDataType.getDataType(dialect.family(), column.typeName, column.precision, column.scale);
+            if (type.hasPrecision()) {
+                type = type.precision(column.precision);
+            }
+            if (type.hasScale()) {
+                type = type.scale(column.scale);
+            }
+            if (type.hasLength()) {
+                type = type.length(column.precision);
+            }
+        } catch (SQLDialectNotSupportedException e) {
+            type = SQLDataType.OTHER;
+        }
+        return type.nullable(column.nullable);
+    }
+
+    private static class MetaTable extends TableImpl<Record> {
+        private static final long serialVersionUID = 1L;
+        private final UniqueKey<Record> primaryKey;
+        private final List<UniqueKey<Record>> keys = new ArrayList<>();
+
+        MetaTable(TableMeta meta, SQLDialect dialect) {
+            super(DSL.name(meta.name), schema(meta));
+            for (ColumnMeta column : meta.columns) {
+                createField(DSL.name(column.name), dataType(dialect, column), this, "");
+            }
+            primaryKey = meta.primaryKey.isEmpty() ? null : key(meta.primaryKeyName, meta.primaryKey);
+            if (primaryKey != null) {
+                keys.add(primaryKey);
+            }
+            for (Map.Entry<String, List<String>> entry : meta.uniqueKeys.entrySet()) {
+                keys.add(key(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        /**
+         * the schema, or the catalog for databases without schema like mysql.
+         */
+        private static Schema schema(TableMeta meta) {
+            String schema = meta.schema != null ? meta.schema : meta.catalog;
+            return schema == null ? null : DSL.schema(DSL.name(schema));
+        }
+
+        @SuppressWarnings("unchecked")
+        private UniqueKey<Record> key(String keyName, List<String> columns) {
+            TableField<Record, ?>[] fields = new TableField[columns.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = (TableField<Record, ?>) field(columns.get(i));
+            }
+            return Internal.createUniqueKey(this, keyName, fields);
+        }
+
+        @Override
+        public UniqueKey<Record> getPrimaryKey() {
+            return primaryKey;
+        }
+
+        @Override
+        public List<UniqueKey<Record>> getKeys() {
+            return keys;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.ilivoo.flume.jdbc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.ilivoo.flume.utils.JsonUtil;
+import org.apache.commons.lang.mutable.MutableObject;
+import org.jooq.ConnectionRunnable;
+import org.jooq.DSLContext;
+import org.jooq.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * db table of every accessed table name, read alone from DatabaseMetaData when first accessed.
+ * the meta is kept in a json snapshot file per table, a restart reads the snapshot instead of the database.
+ * a meta older than refresh is read again in background, the listener is called when columns or keys changed.
+ */
+class TableMetaCache {
+
+    private static final Logger log = LoggerFactory.getLogger(TableMetaCache.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ExecutorService REFRESH_SERVICE = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("tableMetaRefresh").setDaemon(true).build());
+
+    interface Listener {
+        void tableChanged(String tableName, Table table);
+    }
+
+    private final DSLContext dslContext;
+
+    private final String database;
+
+    //snapshot directory, null if no snapshot
+    private final Path snapshotPath;
+
+    //meta refresh interval, 0 never refresh
+    private final long refresh;
+
+    private final Listener listener;
+
+    //lower table name:entry
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    TableMetaCache(DSLContext dslContext, String database, Path snapshotPath, long refresh, Listener listener) {
+        this.dslContext = dslContext;
+        this.database = database;
+        this.snapshotPath = snapshotPath;
+        this.refresh = refresh;
+        this.listener = listener;
+    }
+
+    /**
+     * @return null if the database has no such table
+     */
+    Table get(String tableName) {
+        String key = tableName.toLowerCase(Locale.ENGLISH);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            TableMeta meta = readSnapshot(key);
+            if (meta == null) {
+                meta = load(tableName);
+                if (meta == null) {
+                    return null;
+                }
+                writeSnapshot(key, meta);
+            }
+            entry = new Entry(meta, meta.toTable(dslContext.dialect()));
+            Entry old = entries.putIfAbsent(key, entry);
+            if (old != null) {
+                entry = old;
+            }
+        }
+        if (refresh > 0 && System.currentTimeMillis() - entry.meta.loadTime > refresh
+                && entry.refreshing.compareAndSet(false, true)) {
+            scheduleRefresh(tableName, key, entry);
+        }
+        return entry.table;
+    }
+
+    private void scheduleRefresh(final String tableName, final String key, final Entry entry) {
+        REFRESH_SERVICE.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TableMeta meta = load(tableName);
+                    if (meta == null) {
+                        log.warn("table {} not found when refreshing meta, keep the former meta", tableName);
+                        return;
+                    }
+                    if (meta.sameSchema(entry.meta)) {
+                        entry.meta.loadTime = meta.loadTime;
+                    } else {
+                        Entry changed = new Entry(meta, meta.toTable(dslContext.dialect()));
+                        entries.put(key, changed);
+                        log.info("table {} meta changed", tableName);
+                        listener.tableChanged(tableName, changed.table);
+                    }
+                    writeSnapshot(key, meta);
+                } catch (Throwable t) {
+                    log.warn("Failed refreshing meta of table " + tableName, t);
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private TableMeta load(final String tableName) {
+        final MutableObject result = new MutableObject();
+        dslContext.connection(new ConnectionRunnable() {
+            @Override
+            public void run(Connection connection) throws Exception {
+                result.setValue(TableMeta.load(connection.getMetaData(), database, tableName));
+            }
+        });
+        return (TableMeta) result.getValue();
+    }
+
+    private TableMeta readSnapshot(String key) {
+        if (snapshotPath == null) {
+            return null;
+        }
+        Path file = snapshotPath.resolve(key + ".json");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return JsonUtil.gson.fromJson(new String(Files.readAllBytes(file), UTF_8), TableMeta.class);
+        } catch (Exception e) {
+            log.warn("Failed reading meta snapshot " + file + ", read from database", e);
+            return null;
+        }
+    }
+
+    private void writeSnapshot(String key, TableMeta meta) {
+        if (snapshotPath == null) {
+            return;
+        }
+        Path file = snapshotPath.resolve(key + ".json");
+        Path temp = snapshotPath.resolve(key + ".json.tmp");
+        try {
+            Files.createDirectories(snapshotPath);
+            Files.write(temp, JsonUtil.toJson(meta).getBytes(UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed writing meta snapshot " + file, e);
+        }
+    }
+
+    static Path snapshotPath(String positionPath) {
+        return Paths.get(positionPath, "meta");
+    }
+
+    private static class Entry {
+        final TableMeta meta;
+        final Table table;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(TableMeta meta, Table table) {
+            this.meta = meta;
+            this.table = table;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.ilivoo.flume.sink.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public abstract class AbstractFlumeCache implements FlumeCache {
+
+    private static final Logger log = LoggerFactory.getLogger(AbstractFlumeCache.class);
+
+    private final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void addListener(CacheListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(CacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * call every listener after the value is put, a failed listener does not fail the put.
+     */
+    protected void firePut(String name, String key, Map<String, String> value) {
+        for (CacheListener listener : listeners) {
+            try {
+                listener.cachePut(name, key, value);
+            } catch (RuntimeException e) {
+                log.warn("cache listener failed, name " + name + ", key " + key, e);
+            }
+        }
+    }
+}
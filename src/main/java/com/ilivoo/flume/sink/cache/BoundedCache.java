@@ -0,0 +1,367 @@
+package com.ilivoo.flume.sink.cache;
+
+import org.apache.flume.Context;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * cache with the size and expiry policy of every cache name.
+ * a new entry enters a small lru window of 1% of the capacity, an entry leaving the window is admitted to the
+ * main lru only when the frequency sketch estimates it is accessed more often than the main entry it evicts,
+ * so a burst of new keys does not flush the frequently accessed keys (w-tinylfu). the main lru is split into
+ * probation and protected (80%), an entry accessed again in probation is protected.
+ * expired entries are removed when accessed, and from the head of the write order and access order queues
+ * on every get and put, at most {@link #CLEAN_UP_MAX} entries at a time, so no scan holds the segment lock.
+ */
+public class BoundedCache extends AbstractFlumeCache {
+
+    //expired entries removed by one get or put
+    static final int CLEAN_UP_MAX = 64;
+
+    private final Context context;
+
+    //cache name:segment
+    private final ConcurrentHashMap<String, Segment> segments = new ConcurrentHashMap<>();
+
+    /**
+     * @param context the cache properties, limits are read for every cache name by {@link CachePolicy#parse}
+     */
+    public BoundedCache(Context context) {
+        this.context = context;
+        //check the default limits
+        CachePolicy.parse(context, "");
+    }
+
+    @Override
+    public void put(String name, String key, Map<String, String> value) {
+        CacheRecord record = CacheRecord.of(value);
+        segment(name).put(key, record);
+        firePut(name, key, record);
+    }
+
+    @Override
+    public CacheRecord get(String name, String key) {
+        return segment(name).get(key);
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments.values()) {
+            segment.counter.stop();
+        }
+    }
+
+    private Segment segment(String name) {
+        Segment segment = segments.get(name);
+        if (segment == null) {
+            CacheCounter counter = new CacheCounter(name);
+            segment = new Segment(CachePolicy.parse(context, name), counter);
+            Segment old = segments.putIfAbsent(name, segment);
+            if (old != null) {
+                segment = old;
+            } else {
+                counter.start();
+            }
+        }
+        return segment;
+    }
+
+    static long weigh(String key, Map<String, String> value) {
+        long weight = key.length();
+        for (Map.Entry<String, String> entry : value.entrySet()) {
+            weight += length(entry.getKey()) + length(entry.getValue());
+        }
+        return Math.max(1, weight);
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private enum Region {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    private static class Node {
+        final String key;
+        CacheRecord value;
+        long weight;
+        long writeTime;
+        long accessTime;
+        Region region;
+
+        Node(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * entries of one cache name, every operation holds the segment lock.
+     */
+    static class Segment {
+
+        private final CachePolicy policy;
+
+        private final CacheCounter counter;
+
+        private final FrequencySketch sketch;
+
+        private final Map<String, Node> data = new HashMap<>();
+
+        //lru first, most recent last
+        private final LinkedHashMap<String, Node> window = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Node> protect = new LinkedHashMap<>();
+
+        private final long windowMax;
+        private final long mainMax;
+        private final long protectedMax;
+
+        private long windowWeight;
+        private long probationWeight;
+        private long protectedWeight;
+
+        //oldest first, kept only when the entries expire after write or after access
+        private final LinkedHashMap<String, Node> writeOrder = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Node> accessOrder = new LinkedHashMap<>();
+
+        Segment(CachePolicy policy, CacheCounter counter) {
+            this.policy = policy;
+            this.counter = counter;
+            long capacity = policy.capacity();
+            if (capacity > 0) {
+                windowMax = Math.max(1, capacity / 100);
+                mainMax = capacity - windowMax;
+                protectedMax = mainMax * 8 / 10;
+                //about 64 chars every entry when limited by weight
+                sketch = new FrequencySketch(policy.maxEntries > 0 ? capacity : capacity / 64);
+            } else {
+                windowMax = Long.MAX_VALUE;
+                mainMax = Long.MAX_VALUE;
+                protectedMax = Long.MAX_VALUE;
+                sketch = null;
+            }
+        }
+
+        synchronized CacheRecord get(String key) {
+            long now = System.currentTimeMillis();
+            if (sketch != null) {
+                sketch.increment(key);
+            }
+            cleanUp(now);
+            Node node = data.get(key);
+            if (node != null && expired(node, now)) {
+                remove(node);
+                counter.incrementExpirationCount();
+                node = null;
+            }
+            if (node == null) {
+                counter.incrementMissCount();
+                updateSize();
+                return null;
+            }
+            node.accessTime = now;
+            touch(node);
+            if (policy.expireAfterAccess > 0) {
+                accessOrder.put(key, accessOrder.remove(key));
+            }
+            counter.incrementHitCount();
+            return node.value;
+        }
+
+        synchronized void put(String key, Map<String, String> value) {
+            long now = System.currentTimeMillis();
+            if (sketch != null) {
+                sketch.increment(key);
+            }
+            long weight = policy.maxWeight > 0 ? weigh(key, value) : 1;
+            Node node = data.get(key);
+            if (node == null) {
+                node = new Node(key);
+                node.region = Region.WINDOW;
+                node.weight = weight;
+                data.put(key, node);
+                window.put(key, node);
+                windowWeight += weight;
+            } else {
+                addWeight(node.region, weight - node.weight);
+                node.weight = weight;
+                touch(node);
+            }
+            node.value = CacheRecord.of(value);
+            node.writeTime = now;
+            node.accessTime = now;
+            if (policy.expireAfterWrite > 0) {
+                writeOrder.remove(key);
+                writeOrder.put(key, node);
+            }
+            if (policy.expireAfterAccess > 0) {
+                accessOrder.remove(key);
+                accessOrder.put(key, node);
+            }
+            counter.incrementLoadCount();
+            evict();
+            cleanUp(now);
+            updateSize();
+        }
+
+        /**
+         * move the node to the most recent of its region, a probation node is protected.
+         */
+        private void touch(Node node) {
+            switch (node.region) {
+                case WINDOW:
+                    window.put(node.key, window.remove(node.key));
+                    break;
+                case PROBATION:
+                    probation.remove(node.key);
+                    probationWeight -= node.weight;
+                    node.region = Region.PROTECTED;
+                    protect.put(node.key, node);
+                    protectedWeight += node.weight;
+                    //the least recent protected nodes go back to probation
+                    while (protectedWeight > protectedMax && protect.size() > 1) {
+                        Node demoted = first(protect);
+                        protect.remove(demoted.key);
+                        protectedWeight -= demoted.weight;
+                        demoted.region = Region.PROBATION;
+                        probation.put(demoted.key, demoted);
+                        probationWeight += demoted.weight;
+                    }
+                    break;
+                default:
+                    protect.put(node.key, protect.remove(node.key));
+                    break;
+            }
+        }
+
+        /**
+         * move the least recent window nodes to the main lru, evict by admission when main is full.
+         */
+        private void evict() {
+            if (sketch == null) {
+                return;
+            }
+            while (windowWeight > windowMax && !window.isEmpty()) {
+                Node candidate = first(window);
+                window.remove(candidate.key);
+                windowWeight -= candidate.weight;
+                admit(candidate);
+            }
+            //an updated value may be heavier than before
+            while (probationWeight + protectedWeight > mainMax) {
+                Node victim = victim();
+                if (victim == null) {
+                    break;
+                }
+                remove(victim);
+                counter.incrementEvictionCount();
+            }
+        }
+
+        private void admit(Node candidate) {
+            while (probationWeight + protectedWeight + candidate.weight > mainMax) {
+                Node victim = victim();
+                if (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                    data.remove(candidate.key);
+                    writeOrder.remove(candidate.key);
+                    accessOrder.remove(candidate.key);
+                    counter.incrementEvictionCount();
+                    return;
+                }
+                remove(victim);
+                counter.incrementEvictionCount();
+            }
+            candidate.region = Region.PROBATION;
+            probation.put(candidate.key, candidate);
+            probationWeight += candidate.weight;
+        }
+
+        private Node victim() {
+            if (!probation.isEmpty()) {
+                return first(probation);
+            }
+            return protect.isEmpty() ? null : first(protect);
+        }
+
+        /**
+         * remove the expired entries at the head of the write order and access order queues,
+         * the first entry not expired ends the queue.
+         */
+        private void cleanUp(long now) {
+            int removed = cleanUp(writeOrder, now, 0);
+            cleanUp(accessOrder, now, removed);
+        }
+
+        private int cleanUp(LinkedHashMap<String, Node> order, long now, int removed) {
+            while (removed < CLEAN_UP_MAX && !order.isEmpty()) {
+                Node node = first(order);
+                if (!expired(node, now)) {
+                    break;
+                }
+                remove(node);
+                counter.incrementExpirationCount();
+                removed++;
+            }
+            return removed;
+        }
+
+        private boolean expired(Node node, long now) {
+            return policy.expireAfterWrite > 0 && now - node.writeTime >= policy.expireAfterWrite
+                    || policy.expireAfterAccess > 0 && now - node.accessTime >= policy.expireAfterAccess;
+        }
+
+        private void remove(Node node) {
+            data.remove(node.key);
+            writeOrder.remove(node.key);
+            accessOrder.remove(node.key);
+            regionMap(node.region).remove(node.key);
+            addWeight(node.region, -node.weight);
+        }
+
+        private LinkedHashMap<String, Node> regionMap(Region region) {
+            switch (region) {
+                case WINDOW:
+                    return window;
+                case PROBATION:
+                    return probation;
+                default:
+                    return protect;
+            }
+        }
+
+        private void addWeight(Region region, long weight) {
+            switch (region) {
+                case WINDOW:
+                    windowWeight += weight;
+                    break;
+                case PROBATION:
+                    probationWeight += weight;
+                    break;
+                default:
+                    protectedWeight += weight;
+                    break;
+            }
+        }
+
+        private void updateSize() {
+            counter.setSize(data.size());
+            counter.setWeight(windowWeight + probationWeight + protectedWeight);
+        }
+
+        synchronized int size() {
+            return data.size();
+        }
+
+        synchronized boolean contains(String key) {
+            return data.containsKey(key);
+        }
+
+        private static Node first(LinkedHashMap<String, Node> region) {
+            return region.values().iterator().next();
+        }
+    }
+}
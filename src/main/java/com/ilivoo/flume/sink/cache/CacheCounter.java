@@ -0,0 +1,87 @@
+package com.ilivoo.flume.sink.cache;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * jmx counters of one cache name, registered as org.apache.flume.other:type=cache.name.
+ * load counts the values put by the cache sink.
+ */
+public class CacheCounter extends MonitoredCounterGroup implements CacheCounterMBean {
+
+    private static final String HIT = "cache.hit";
+    private static final String MISS = "cache.miss";
+    private static final String LOAD = "cache.load";
+    private static final String EVICTION = "cache.eviction";
+    private static final String EXPIRATION = "cache.expiration";
+    private static final String SIZE = "cache.size";
+    private static final String WEIGHT = "cache.weight";
+
+    private static final String[] ATTRIBUTES = {HIT, MISS, LOAD, EVICTION, EXPIRATION, SIZE, WEIGHT};
+
+    public CacheCounter(String cacheName) {
+        super(Type.OTHER, "cache." + cacheName.replaceAll("[,=:*?\"\\s]", "_"), ATTRIBUTES);
+    }
+
+    public long incrementHitCount() {
+        return increment(HIT);
+    }
+
+    public long incrementMissCount() {
+        return increment(MISS);
+    }
+
+    public long incrementLoadCount() {
+        return increment(LOAD);
+    }
+
+    public long incrementEvictionCount() {
+        return increment(EVICTION);
+    }
+
+    public long incrementExpirationCount() {
+        return increment(EXPIRATION);
+    }
+
+    public void setSize(long size) {
+        set(SIZE, size);
+    }
+
+    public void setWeight(long weight) {
+        set(WEIGHT, weight);
+    }
+
+    @Override
+    public long getHitCount() {
+        return get(HIT);
+    }
+
+    @Override
+    public long getMissCount() {
+        return get(MISS);
+    }
+
+    @Override
+    public long getLoadCount() {
+        return get(LOAD);
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return get(EVICTION);
+    }
+
+    @Override
+    public long getExpirationCount() {
+        return get(EXPIRATION);
+    }
+
+    @Override
+    public long getSize() {
+        return get(SIZE);
+    }
+
+    @Override
+    public long getWeight() {
+        return get(WEIGHT);
+    }
+}
@@ -0,0 +1,24 @@
+package com.ilivoo.flume.sink.cache;
+
+public interface CacheCounterMBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getLoadCount();
+
+    long getEvictionCount();
+
+    long getExpirationCount();
+
+    long getSize();
+
+    long getWeight();
+
+    long getStartTime();
+
+    long getStopTime();
+
+    String getType();
+}
@@ -1,19 +1,176 @@
 package com.ilivoo.flume.sink.cache;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.apache.flume.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public final class CacheHelper {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheHelper.class);
+
+    public static final String CACHE_TYPE = "type";
+    public static final String CACHE_TYPE_MEMORY = "memory";
+    public static final String CACHE_TYPE_BOUNDED = "bounded";
+    public static final String CACHE_TYPE_MAPPED = "mapped";
+    //directory of the mapped cache file
+    public static final String CACHE_DIR = "dir";
+    public static final String DEFAULT_CACHE_DIR = "/.flume/cache";
+    public static final String DEFAULT_CACHE_TYPE = CACHE_TYPE_MEMORY;
+    //names of the caches read through a jdbc table, loaders.name.* configures the loader of the name
+    public static final String CACHE_LOADERS = "loaders";
+    //seconds, 0 never refresh
+    public static final String LOADER_REFRESH_AFTER_WRITE = "refreshAfterWrite";
+    public static final long DEFAULT_LOADER_REFRESH_AFTER_WRITE = 0;
+    public static final String LOADER_MISS_EXPIRE = "missExpire";
+    public static final long DEFAULT_LOADER_MISS_EXPIRE = 60;
+
     private CacheHelper() {
 
     }
 
-    private static FlumeCache flumeCache = new MemoryCache();
+    private static volatile FlumeCache flumeCache = new MemoryCache();
+
+    //sorted properties of the configured cache, null if not configured
+    private static String configuration;
+
+    //listeners kept when the cache is replaced
+    private static final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * create the cache of the type, the cache is kept if configured again with the same properties,
+     * so the values are not lost when the sink is configured again.
+     *
+     * @param context cache properties: type, for the bounded cache the limits of {@link CachePolicy},
+     *                and the loaders of {@link JDBCCacheLoader}
+     */
+    public static synchronized void configure(Context context) {
+        String newConfiguration = new TreeMap<>(context.getParameters()).toString();
+        if (newConfiguration.equals(configuration)) {
+            return;
+        }
+        String type = context.getString(CACHE_TYPE, DEFAULT_CACHE_TYPE);
+        FlumeCache former = flumeCache;
+        //the former cache of the same file, the file is locked by it and released before the new cache opens it
+        MappedCache formerMapped = null;
+        String dir = null;
+        if (CACHE_TYPE_MAPPED.equals(type)) {
+            String homePath = System.getProperty("user.home").replace('\\', '/');
+            dir = context.getString(CACHE_DIR, homePath + DEFAULT_CACHE_DIR);
+            formerMapped = mappedCache(former);
+            if (formerMapped != null && !sameFile(formerMapped.getFile(), new File(dir, MappedCache.FILE_NAME))) {
+                formerMapped = null;
+            }
+        }
+        FlumeCache cache;
+        if (formerMapped != null) {
+            formerMapped.closeFile();
+        }
+        try {
+            cache = create(context, type, dir);
+        } catch (RuntimeException e) {
+            if (formerMapped != null) {
+                //the former cache is still used
+                try {
+                    formerMapped.reopen();
+                } catch (RuntimeException reopenException) {
+                    e.addSuppressed(reopenException);
+                }
+            }
+            throw e;
+        }
+        if (configuration != null) {
+            log.warn("cache configuration changed from {} to {}, the cache is replaced",
+                    configuration, newConfiguration);
+        }
+        for (CacheListener listener : listeners) {
+            cache.addListener(listener);
+        }
+        flumeCache = cache;
+        former.close();
+        configuration = newConfiguration;
+        log.info("cache configured: {}", newConfiguration);
+    }
+
+    private static FlumeCache create(Context context, String type, String dir) {
+        FlumeCache cache;
+        if (CACHE_TYPE_MAPPED.equals(type)) {
+            cache = new MappedCache(dir);
+        } else if (CACHE_TYPE_MEMORY.equals(type)) {
+            cache = new MemoryCache();
+        } else {
+            Preconditions.checkArgument(CACHE_TYPE_BOUNDED.equals(type), "cache type not exist: " + type);
+            cache = new BoundedCache(context);
+        }
+        String loaderNames = context.getString(CACHE_LOADERS);
+        if (Strings.isNullOrEmpty(loaderNames)) {
+            return cache;
+        }
+        LoadingCache loadingCache = new LoadingCache(cache);
+        try {
+            Context loaderContexts = new Context(context.getSubProperties(CACHE_LOADERS + "."));
+            for (String name : loaderNames.split("\\s+")) {
+                Context loaderContext = new Context(loaderContexts.getSubProperties(name + "."));
+                long refreshAfterWrite = loaderContext.getLong(LOADER_REFRESH_AFTER_WRITE,
+                        DEFAULT_LOADER_REFRESH_AFTER_WRITE);
+                Preconditions.checkArgument(refreshAfterWrite >= 0, "refreshAfterWrite must not be negative");
+                long missExpire = loaderContext.getLong(LOADER_MISS_EXPIRE, DEFAULT_LOADER_MISS_EXPIRE);
+                Preconditions.checkArgument(missExpire >= 0, "missExpire must not be negative");
+                loadingCache.addLoader(name, new JDBCCacheLoader(loaderContext), refreshAfterWrite * 1000,
+                        missExpire * 1000);
+            }
+        } catch (RuntimeException e) {
+            //release the file and the loaders added
+            loadingCache.close();
+            throw e;
+        }
+        return loadingCache;
+    }
+
+    /**
+     * @return the mapped cache of the cache or of the loading cache, null if not mapped
+     */
+    private static MappedCache mappedCache(FlumeCache cache) {
+        if (cache instanceof LoadingCache) {
+            cache = ((LoadingCache) cache).getDelegate();
+        }
+        return cache instanceof MappedCache ? (MappedCache) cache : null;
+    }
+
+    private static boolean sameFile(File file, File other) {
+        return file.getAbsoluteFile().toPath().normalize().equals(other.getAbsoluteFile().toPath().normalize());
+    }
 
     public static void put(String name, String key, Map<String, String> value) {
         flumeCache.put(name, key, value);
     }
 
-    public static Map<String, String> get(String name, String key) {
+    public static CacheRecord get(String name, String key) {
         return flumeCache.get(name, key);
     }
+
+    /**
+     * read without waiting for a loader, the missing key of a loader is loaded in the background and put.
+     */
+    public static CacheRecord getIfPresent(String name, String key) {
+        FlumeCache cache = flumeCache;
+        return cache instanceof LoadingCache ? ((LoadingCache) cache).getIfPresent(name, key) : cache.get(name, key);
+    }
+
+    public static synchronized void addListener(CacheListener listener) {
+        listeners.add(listener);
+        flumeCache.addListener(listener);
+    }
+
+    public static synchronized void removeListener(CacheListener listener) {
+        listeners.remove(listener);
+        flumeCache.removeListener(listener);
+    }
 }
@@ -0,0 +1,11 @@
+package com.ilivoo.flume.sink.cache;
+
+import java.util.Map;
+
+/**
+ * notified after a value is put into the cache, on the thread of the put.
+ */
+public interface CacheListener {
+
+    void cachePut(String name, String key, Map<String, String> value);
+}
@@ -0,0 +1,25 @@
+package com.ilivoo.flume.sink.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * loads the values of a cache name from outside, like a lookup table.
+ */
+public interface CacheLoader {
+
+    /**
+     * @return key:value of the keys found, keys not found are left out
+     */
+    Map<String, Map<String, String>> loadAll(Collection<String> keys);
+
+    /**
+     * @return max keys of one load
+     */
+    int batchSize();
+
+    /**
+     * release the connections of the loader, called when the cache is replaced.
+     */
+    void close();
+}
@@ -0,0 +1,61 @@
+package com.ilivoo.flume.sink.cache;
+
+import com.google.common.base.Preconditions;
+import org.apache.flume.Context;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * size and expiry of one cache name, 0 means no limit.
+ * the weight of a value is the chars of the key and of every key and value in the map.
+ */
+class CachePolicy {
+
+    static final String MAX_ENTRIES = "maxEntries";
+    static final String MAX_WEIGHT = "maxWeight";
+    //seconds
+    static final String EXPIRE_AFTER_WRITE = "expireAfterWrite";
+    static final String EXPIRE_AFTER_ACCESS = "expireAfterAccess";
+
+    final long maxEntries;
+
+    final long maxWeight;
+
+    //millis
+    final long expireAfterWrite;
+
+    final long expireAfterAccess;
+
+    CachePolicy(long maxEntries, long maxWeight, long expireAfterWrite, long expireAfterAccess) {
+        Preconditions.checkArgument(maxEntries >= 0 && maxWeight >= 0 && expireAfterWrite >= 0
+                && expireAfterAccess >= 0, "cache limits must not be negative");
+        Preconditions.checkArgument(maxEntries == 0 || maxWeight == 0,
+                "maxEntries and maxWeight can not be used together");
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.expireAfterWrite = expireAfterWrite;
+        this.expireAfterAccess = expireAfterAccess;
+    }
+
+    /**
+     * policy of the cache name, every limit of the name is the one of cacheName.limit, else limit.
+     */
+    static CachePolicy parse(Context context, String cacheName) {
+        return new CachePolicy(
+                limit(context, cacheName, MAX_ENTRIES),
+                limit(context, cacheName, MAX_WEIGHT),
+                TimeUnit.SECONDS.toMillis(limit(context, cacheName, EXPIRE_AFTER_WRITE)),
+                TimeUnit.SECONDS.toMillis(limit(context, cacheName, EXPIRE_AFTER_ACCESS)));
+    }
+
+    private static long limit(Context context, String cacheName, String key) {
+        return context.getLong(cacheName + "." + key, context.getLong(key, 0L));
+    }
+
+    /**
+     * @return max weight of the cache, the entry count if limited by entries, 0 if not limited
+     */
+    long capacity() {
+        return maxEntries > 0 ? maxEntries : maxWeight;
+    }
+}
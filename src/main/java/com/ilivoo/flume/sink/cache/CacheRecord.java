@@ -0,0 +1,178 @@
+package com.ilivoo.flume.sink.cache;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * immutable value of a cache key: the column names shared by all records with the same columns,
+ * the values in a flat array, and a version stamped when the record is created, a newer record has a
+ * higher version. a reader always sees one whole value, a put replaces the record instead of changing it.
+ * a record read from the mapped cache file is created again by every read.
+ */
+public final class CacheRecord extends AbstractMap<String, String> {
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private static final Interner<Columns> COLUMNS = Interners.newWeakInterner();
+
+    private final Columns columns;
+
+    private final String[] values;
+
+    private final long version;
+
+    private CacheRecord(Columns columns, String[] values) {
+        this.columns = columns;
+        this.values = values;
+        this.version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * @return the value itself if it is a record
+     */
+    public static CacheRecord of(Map<String, String> value) {
+        if (value instanceof CacheRecord) {
+            return (CacheRecord) value;
+        }
+        String[] names = new String[value.size()];
+        String[] values = new String[value.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : value.entrySet()) {
+            names[i] = entry.getKey();
+            values[i++] = entry.getValue();
+        }
+        return of(names, values);
+    }
+
+    /**
+     * @param names  distinct column names, not copied
+     * @param values value of every name, not copied
+     */
+    static CacheRecord of(String[] names, String[] values) {
+        return new CacheRecord(COLUMNS.intern(new Columns(names)), values);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public String get(Object key) {
+        Integer i = columns.index().get(key);
+        return i == null ? null : values[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return columns.index().containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * put every column into the map, without the entries of {@link #entrySet()}.
+     */
+    public void copyTo(Map<String, String> target) {
+        String[] names = columns.names;
+        for (int i = 0; i < names.length; i++) {
+            target.put(names[i], values[i]);
+        }
+    }
+
+    /**
+     * put the columns with a non empty value into the map.
+     */
+    public void copyTo(Map<String, String> target, String[] includes) {
+        for (String name : includes) {
+            String value = get(name);
+            if (value != null && !value.isEmpty()) {
+                target.put(name, value);
+            }
+        }
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int i;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (i >= values.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(columns.names[i], values[i]);
+                        i++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    /**
+     * column names in the order of the first value, and the index of every name.
+     */
+    private static final class Columns {
+        final String[] names;
+        //created by the first read, only the interned columns are read
+        private volatile Map<String, Integer> index;
+
+        Columns(String[] names) {
+            this.names = names;
+        }
+
+        Map<String, Integer> index() {
+            Map<String, Integer> result = index;
+            if (result == null) {
+                result = new HashMap<>(names.length * 2);
+                for (int i = 0; i < names.length; i++) {
+                    result.put(names[i], i);
+                }
+                index = result;
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Columns && Arrays.equals(names, ((Columns) o).names);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(names);
+        }
+    }
+}
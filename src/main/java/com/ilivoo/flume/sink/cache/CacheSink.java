@@ -27,6 +27,9 @@ public class CacheSink extends AbstractSink implements Configurable, BatchSizeSu
 
     private static final String BATCH_SIZE = "batchSize";
 
+    //properties of the cache, like cache.type = bounded
+    private static final String CACHE_PREFIX = "cache.";
+
     public static final long DEFAULT_BATCH_SIZE = 100;
 
     private final CounterGroup counterGroup = new CounterGroup();
@@ -57,6 +60,8 @@ public class CacheSink extends AbstractSink implements Configurable, BatchSizeSu
         this.cacheKey = context.getString(CACHE_KEY);
         Preconditions.checkArgument(!Strings.isNullOrEmpty(cacheKey));
 
+        CacheHelper.configure(new Context(context.getSubProperties(CACHE_PREFIX)));
+
         this.sinkCounter = new SinkCounter(this.getName());
     }
 
@@ -6,5 +6,17 @@ public interface FlumeCache {
 
     void put(String name, String key, Map<String, String> value);
 
-    Map<String, String> get(String name, String key);
-}
\ No newline at end of file
+    /**
+     * @return the immutable value put last, null if not found
+     */
+    CacheRecord get(String name, String key);
+
+    void addListener(CacheListener listener);
+
+    void removeListener(CacheListener listener);
+
+    /**
+     * release the files and counters of the cache, called when the cache is replaced.
+     */
+    void close();
+}
@@ -0,0 +1,85 @@
+package com.ilivoo.flume.sink.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.ilivoo.flume.jdbc.DBContext;
+import com.ilivoo.flume.jdbc.JDBCHelper;
+import com.ilivoo.flume.jdbc.JDBCTable;
+import org.apache.flume.Context;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Table;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * loads the rows of one table by the key column, the value is column alias:column value.
+ * the connection, table, columns and batchSize are configured as the jdbc sink.
+ */
+public class JDBCCacheLoader implements CacheLoader {
+
+    static final String KEY_COLUMN = "keyColumn";
+
+    private final DBContext<JDBCTable> dbContext;
+
+    private final JDBCTable table;
+
+    private final String keyColumn;
+
+    public JDBCCacheLoader(Context context) {
+        this.keyColumn = context.getString(KEY_COLUMN);
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(keyColumn), "keyColumn not exist");
+        this.dbContext = JDBCHelper.create(context, JDBCTable.class);
+        List<JDBCTable> tables = dbContext.getTables();
+        Preconditions.checkArgument(tables.size() == 1, "cache loader needs one table");
+        this.table = tables.get(0);
+        Preconditions.checkArgument(field(table.getTable(), keyColumn) != null,
+                table.getName() + " table has no column " + keyColumn);
+    }
+
+    @Override
+    public int batchSize() {
+        return dbContext.getReadBatchSize();
+    }
+
+    @Override
+    public Map<String, Map<String, String>> loadAll(Collection<String> keys) {
+        //the table is replaced by the meta refresh
+        Table dbTable = table.getTable();
+        Field keyField = field(dbTable, keyColumn);
+        List<Field> fields = new ArrayList<>();
+        for (Field field : dbTable.fields()) {
+            if (table.isColumnAccess(field.getName())) {
+                fields.add(field);
+            }
+        }
+        Map<String, Map<String, String>> result = new HashMap<>();
+        for (Record record : dbContext.dslContext().select(fields).from(dbTable).where(keyField.in(keys)).fetch()) {
+            Map<String, String> value = new HashMap<>();
+            for (Field field : fields) {
+                Object fieldValue = record.get(field);
+                value.put(table.getColumnAlias(field.getName()), fieldValue == null ? null : fieldValue.toString());
+            }
+            result.put(String.valueOf(record.get(keyField)), value);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        dbContext.close();
+    }
+
+    private static Field field(Table table, String column) {
+        for (Field field : table.fields()) {
+            if (field.getName().equalsIgnoreCase(column)) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,328 @@
+package com.ilivoo.flume.sink.cache;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * reads through the loader of the cache name when a key is missing, and reloads a value in the background
+ * when it is older than refreshAfterWrite, the former value is returned until reloaded.
+ * misses of a cache name are loaded together: the thread holding the load lock loads all keys missed
+ * meanwhile in one query, and a key waiting or being loaded is not loaded again.
+ * a key not found is not loaded again for missExpire, and after a failed load nothing is loaded for a backoff
+ * doubling from 1 second up to 1 minute.
+ * values are kept by the delegate cache, values put by the cache sink are used as loaded.
+ */
+public class LoadingCache extends AbstractFlumeCache {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadingCache.class);
+
+    private static final long MIN_BACKOFF = 1000;
+
+    private static final long MAX_BACKOFF = 60 * 1000;
+
+    //misses kept per cache name, the expired are dropped first
+    private static final int MAX_MISSES = 100000;
+
+    //load times kept before the keys no longer in the delegate are dropped
+    private static final int MIN_PRUNE_LOAD_TIMES = 1024;
+
+    private final FlumeCache delegate;
+
+    //cache name:loader, names without loader are read from the delegate only
+    private final Map<String, NameLoader> loaders = new ConcurrentHashMap<>();
+
+    private final ExecutorService refreshService = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("cacheRefresh").setDaemon(true).build());
+
+    public LoadingCache(FlumeCache delegate) {
+        this.delegate = delegate;
+    }
+
+    FlumeCache getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @param refreshAfterWrite millis, 0 never refresh
+     * @param missExpire        millis a key not found is not loaded again, 0 always load
+     */
+    public void addLoader(String name, CacheLoader loader, long refreshAfterWrite, long missExpire) {
+        loaders.put(name, new NameLoader(name, loader, refreshAfterWrite, missExpire));
+    }
+
+    @Override
+    public void put(String name, String key, Map<String, String> value) {
+        CacheRecord record = CacheRecord.of(value);
+        delegate.put(name, key, record);
+        NameLoader loader = loaders.get(name);
+        if (loader != null) {
+            loader.misses.remove(key);
+            if (loader.refreshAfterWrite > 0) {
+                loader.loadTimes.put(key, System.currentTimeMillis());
+                loader.pruneLoadTimes();
+            }
+        }
+        firePut(name, key, record);
+    }
+
+    @Override
+    public CacheRecord get(String name, String key) {
+        return get(name, key, true);
+    }
+
+    /**
+     * read without waiting for the loader, a missing key is loaded in the background and put,
+     * the listeners are called by the put.
+     *
+     * @return the value, null if missing
+     */
+    public CacheRecord getIfPresent(String name, String key) {
+        return get(name, key, false);
+    }
+
+    private CacheRecord get(String name, String key, boolean wait) {
+        CacheRecord value = delegate.get(name, key);
+        NameLoader loader = loaders.get(name);
+        if (loader == null) {
+            return value;
+        }
+        long now = System.currentTimeMillis();
+        if (value == null) {
+            //evicted by the delegate
+            loader.loadTimes.remove(key);
+            if (loader.skipLoad(key, now)) {
+                return null;
+            }
+            if (wait) {
+                return loader.load(key);
+            }
+            loader.loadLater(key);
+            return null;
+        }
+        if (loader.refreshAfterWrite > 0 && now >= loader.failedUntil) {
+            //values of the mapped cache read from the file have no load time
+            Long loadTime = loader.loadTimes.get(key);
+            if (loadTime == null || now - loadTime >= loader.refreshAfterWrite) {
+                loader.loadLater(key);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void close() {
+        refreshService.shutdownNow();
+        for (NameLoader loader : loaders.values()) {
+            loader.loader.close();
+        }
+        delegate.close();
+    }
+
+    private static class Load {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile CacheRecord value;
+    }
+
+    private class NameLoader {
+
+        final String name;
+
+        final CacheLoader loader;
+
+        final long refreshAfterWrite;
+
+        final long missExpire;
+
+        //key:load time of the keys loaded or put, only kept to refresh
+        final Map<String, Long> loadTimes = new ConcurrentHashMap<>();
+
+        //key:expire time of the keys not found
+        final Map<String, Long> misses = new ConcurrentHashMap<>();
+
+        //key:load of the keys waiting or being loaded
+        final ConcurrentHashMap<String, Load> loads = new ConcurrentHashMap<>();
+
+        //keys waiting, in the order of request
+        final Queue<String> pending = new ConcurrentLinkedQueue<>();
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        final AtomicBoolean pruning = new AtomicBoolean();
+
+        volatile int pruneLoadTimesAt = MIN_PRUNE_LOAD_TIMES;
+
+        //failed loads in a row, changed with the lock
+        int failures;
+
+        //nothing is loaded before, after a failed load
+        volatile long failedUntil;
+
+        NameLoader(String name, CacheLoader loader, long refreshAfterWrite, long missExpire) {
+            this.name = name;
+            this.loader = loader;
+            this.refreshAfterWrite = refreshAfterWrite;
+            this.missExpire = missExpire;
+        }
+
+        boolean skipLoad(String key, long now) {
+            Long expire = misses.get(key);
+            if (expire != null) {
+                if (now < expire) {
+                    return true;
+                }
+                misses.remove(key, expire);
+            }
+            return now < failedUntil;
+        }
+
+        /**
+         * @return the loaded value, null if not found or the load failed
+         */
+        CacheRecord load(String key) {
+            Load load = loads.get(key);
+            if (load == null) {
+                Load newLoad = new Load();
+                load = loads.putIfAbsent(key, newLoad);
+                if (load == null) {
+                    load = newLoad;
+                    pending.add(key);
+                }
+            }
+            //the lock holder loads the waiting keys, ours in this batch or in a later one
+            while (load.done.getCount() > 0) {
+                lock.lock();
+                try {
+                    if (load.done.getCount() > 0) {
+                        loadPending();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return load.value;
+        }
+
+        /**
+         * load the key in the background, unless it is waiting or being loaded.
+         */
+        void loadLater(String key) {
+            if (loads.putIfAbsent(key, new Load()) != null) {
+                return;
+            }
+            pending.add(key);
+            refreshService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    lock.lock();
+                    try {
+                        loadPending();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+
+        /**
+         * drop the load times of the keys the delegate no longer has, in the background,
+         * when the load times doubled since the last prune.
+         */
+        void pruneLoadTimes() {
+            if (loadTimes.size() < pruneLoadTimesAt || !pruning.compareAndSet(false, true)) {
+                return;
+            }
+            refreshService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Iterator<String> it = loadTimes.keySet().iterator(); it.hasNext(); ) {
+                            if (delegate.get(name, it.next()) == null) {
+                                it.remove();
+                            }
+                        }
+                        pruneLoadTimesAt = Math.max(MIN_PRUNE_LOAD_TIMES, loadTimes.size() * 2);
+                    } finally {
+                        pruning.set(false);
+                    }
+                }
+            });
+        }
+
+        /**
+         * load at most batch size waiting keys, called with the lock.
+         */
+        private void loadPending() {
+            List<String> keys = new ArrayList<>();
+            String key;
+            while (keys.size() < loader.batchSize() && (key = pending.poll()) != null) {
+                keys.add(key);
+            }
+            if (keys.isEmpty()) {
+                return;
+            }
+            Map<String, Map<String, String>> values = null;
+            long now = System.currentTimeMillis();
+            if (now >= failedUntil) {
+                try {
+                    values = loader.loadAll(keys);
+                    failures = 0;
+                    log.debug("cache name {} loaded {} of {} keys", name, values.size(), keys.size());
+                } catch (RuntimeException e) {
+                    failures++;
+                    long backoff = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(failures - 1, 16));
+                    failedUntil = now + backoff;
+                    log.warn("cache name " + name + " load failed, keys " + keys + ", no load for "
+                            + backoff + " ms", e);
+                }
+            }
+            now = System.currentTimeMillis();
+            for (String k : keys) {
+                Map<String, String> loaded = values == null ? null : values.get(k);
+                CacheRecord value = loaded == null ? null : CacheRecord.of(loaded);
+                if (value != null) {
+                    put(name, k, value);
+                } else {
+                    if (values != null && missExpire > 0) {
+                        misses.put(k, now + missExpire);
+                    }
+                    if (loadTimes.containsKey(k)) {
+                        //deleted or failed, the former value is kept until the next refresh
+                        loadTimes.put(k, now);
+                    }
+                }
+                //removed after the put, a miss meanwhile waits for this load
+                Load load = loads.remove(k);
+                load.value = value;
+                load.done.countDown();
+            }
+            if (misses.size() > MAX_MISSES) {
+                pruneMisses(now);
+            }
+        }
+
+        private void pruneMisses(long now) {
+            for (Iterator<Long> it = misses.values().iterator(); it.hasNext(); ) {
+                if (it.next() <= now) {
+                    it.remove();
+                }
+            }
+            if (misses.size() > MAX_MISSES) {
+                misses.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,682 @@
+package com.ilivoo.flume.sink.cache;
+
+import com.google.common.base.Charsets;
+import org.apache.flume.FlumeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * cache kept in a memory mapped append only file, so the values are there again right after a restart and
+ * are not on the java heap. every put appends a record, a hash index in a direct buffer maps the hash of
+ * cache name and key to the offset of the latest record.
+ * <p>
+ * file format: magic, version, 8 reserved bytes, then records of payload length, crc32 of payload and payload.
+ * payload: cache name, key, entry count, then key and value of every entry, strings are utf-8 with an int length,
+ * -1 for null. when opened the records are read until the first record with a bad length or crc, which is the
+ * end of a crash, the bytes after it are cleared. the file is compacted into a new file replacing it atomically
+ * when the replaced records are more than the live records, the cache keeps the former file if the compaction
+ * fails. when the file reaches the max size of a mapping, 2g, it is compacted if that makes room, otherwise
+ * the put is rejected with a warning and the former value of the key, if any, is kept.
+ */
+public class MappedCache extends AbstractFlumeCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedCache.class);
+
+    static final String FILE_NAME = "flume-cache.data";
+
+    private static final int MAGIC = 0x46434d31;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    //payload length and crc
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final long INITIAL_SIZE = 1 << 20;
+    private static final long MIN_COMPACT_SIZE = 8 << 20;
+
+    //index slot: hash, record offset, offset 0 is an empty slot
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_SLOTS = 1024;
+
+    //min millis between the warnings of rejected puts
+    private static final long REJECT_WARN_INTERVAL = 60 * 1000;
+    //millis without compaction after a compaction failed
+    private static final long COMPACT_RETRY_INTERVAL = 60 * 1000;
+
+    private final File file;
+
+    private final long maxSize;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private RandomAccessFile raf;
+
+    private FileLock fileLock;
+
+    private MappedByteBuffer data;
+
+    //end of the last record
+    private int end;
+
+    private ByteBuffer index;
+
+    private int slots;
+
+    private int entries;
+
+    //bytes of the records replaced by a later record of the same key
+    private long deadBytes;
+
+    //no compaction before, after a compaction failed
+    private long compactRetryTime;
+
+    private long rejected;
+
+    private long rejectWarnTime;
+
+    //cache name:live entries
+    private Map<String, Integer> nameEntries = new HashMap<>();
+
+    private final ConcurrentHashMap<String, CacheCounter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * @param dir directory of the cache file, the file is locked by this process
+     */
+    public MappedCache(String dir) {
+        this(dir, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSize max bytes of the file, at most 2g
+     */
+    MappedCache(String dir, long maxSize) {
+        this.file = new File(dir, FILE_NAME);
+        this.maxSize = Math.min(maxSize, Integer.MAX_VALUE);
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            Files.deleteIfExists(compactFile().toPath());
+            open(file);
+        } catch (IOException e) {
+            throw new FlumeException("Failed opening cache file " + file, e);
+        }
+        log.info("cache file {} opened, {} entries, {} bytes", file, entries, end);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private File compactFile() {
+        return new File(file.getPath() + ".compact");
+    }
+
+    /**
+     * lock and map the file, read the records, the file is closed if it fails.
+     */
+    private void open(File openFile) throws IOException {
+        raf = new RandomAccessFile(openFile, "rw");
+        try {
+            try {
+                fileLock = raf.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                fileLock = null;
+            }
+            if (fileLock == null) {
+                throw new IOException("cache file is used by another process");
+            }
+            if (raf.length() < HEADER_SIZE) {
+                raf.setLength(Math.min(INITIAL_SIZE, maxSize));
+            }
+            data = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            if (data.getInt(0) == 0) {
+                data.putInt(0, MAGIC);
+                data.putInt(4, VERSION);
+            } else if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                throw new IOException("not a cache file of version " + VERSION);
+            }
+            load();
+        } catch (IOException | RuntimeException e) {
+            //the lock is released by the close
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * read every valid record into the index, clear the bytes after the last valid record.
+     */
+    private void load() {
+        slots = INITIAL_SLOTS;
+        index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+        entries = 0;
+        deadBytes = 0;
+        nameEntries = new HashMap<>();
+        int pos = HEADER_SIZE;
+        while (true) {
+            Record record = readRecord(pos, true);
+            if (record == null) {
+                break;
+            }
+            indexRecord(record, pos);
+            pos = record.next;
+        }
+        end = pos;
+        if (!zero(end)) {
+            log.warn("cache file {} broken at {}, clear the bytes after it", file, end);
+            byte[] zeros = new byte[8192];
+            ByteBuffer view = data.duplicate();
+            view.position(end);
+            while (view.hasRemaining()) {
+                view.put(zeros, 0, Math.min(zeros.length, view.remaining()));
+            }
+            data.force();
+        }
+    }
+
+    /**
+     * @return true if every byte from pos is 0, so no record of a former crash is found after later records
+     */
+    private boolean zero(int pos) {
+        int i = pos;
+        for (; i < data.capacity() && (i & 7) != 0; i++) {
+            if (data.get(i) != 0) {
+                return false;
+            }
+        }
+        for (; i + 8 <= data.capacity(); i += 8) {
+            if (data.getLong(i) != 0) {
+                return false;
+            }
+        }
+        for (; i < data.capacity(); i++) {
+            if (data.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param verify check the crc, the records of the index are checked when the file is opened
+     * @return null if no valid record at pos
+     */
+    private Record readRecord(int pos, boolean verify) {
+        if (pos + RECORD_HEADER_SIZE > data.capacity()) {
+            return null;
+        }
+        int length = data.getInt(pos);
+        if (length <= 0 || length > data.capacity() - pos - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer view = data.duplicate();
+        view.position(pos + RECORD_HEADER_SIZE);
+        view.get(payload);
+        if (verify) {
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != data.getInt(pos + 4)) {
+                return null;
+            }
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            Record record = new Record(readString(in), readString(in));
+            record.next = pos + RECORD_HEADER_SIZE + length;
+            record.payload = in;
+            return record;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void indexRecord(Record record, int pos) {
+        long hash = hash(record.name, record.key);
+        int slot = findSlot(hash, record.name, record.key);
+        long old = index.getLong(slot * SLOT_SIZE + 8);
+        if (old == 0) {
+            index.putLong(slot * SLOT_SIZE, hash);
+            entries++;
+            Integer count = nameEntries.get(record.name);
+            nameEntries.put(record.name, count == null ? 1 : count + 1);
+        } else {
+            deadBytes += data.getInt((int) old) + RECORD_HEADER_SIZE;
+        }
+        index.putLong(slot * SLOT_SIZE + 8, pos);
+        if (entries * 2 > slots) {
+            resizeIndex();
+        }
+    }
+
+    /**
+     * @return slot of the key, or the empty slot the key should be put in
+     */
+    private int findSlot(long hash, String name, String key) {
+        int slot = (int) (hash & (slots - 1));
+        while (true) {
+            long offset = index.getLong(slot * SLOT_SIZE + 8);
+            if (offset == 0) {
+                return slot;
+            }
+            if (index.getLong(slot * SLOT_SIZE) == hash) {
+                Record record = readRecord((int) offset, false);
+                if (record != null && record.name.equals(name) && record.key.equals(key)) {
+                    return slot;
+                }
+            }
+            slot = (slot + 1) & (slots - 1);
+        }
+    }
+
+    /**
+     * @return the latest record of the key, null if not found
+     */
+    private Record find(String name, String key) {
+        long hash = hash(name, key);
+        int slot = (int) (hash & (slots - 1));
+        while (true) {
+            long offset = index.getLong(slot * SLOT_SIZE + 8);
+            if (offset == 0) {
+                return null;
+            }
+            if (index.getLong(slot * SLOT_SIZE) == hash) {
+                Record record = readRecord((int) offset, false);
+                if (record != null && record.name.equals(name) && record.key.equals(key)) {
+                    return record;
+                }
+            }
+            slot = (slot + 1) & (slots - 1);
+        }
+    }
+
+    private void resizeIndex() {
+        ByteBuffer old = index;
+        int oldSlots = slots;
+        slots = oldSlots * 2;
+        index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+        for (int i = 0; i < oldSlots; i++) {
+            long offset = old.getLong(i * SLOT_SIZE + 8);
+            if (offset == 0) {
+                continue;
+            }
+            long hash = old.getLong(i * SLOT_SIZE);
+            int slot = (int) (hash & (slots - 1));
+            while (index.getLong(slot * SLOT_SIZE + 8) != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            index.putLong(slot * SLOT_SIZE, hash);
+            index.putLong(slot * SLOT_SIZE + 8, offset);
+        }
+    }
+
+    @Override
+    public void put(String name, String key, Map<String, String> value) {
+        byte[] payload = encode(name, key, value);
+        lock.writeLock().lock();
+        try {
+            //the mapping is still valid after the close, the file may be opened by the next cache
+            if (!raf.getChannel().isOpen()) {
+                throw new FlumeException("cache file " + file + " closed");
+            }
+            if (!ensureCapacity(RECORD_HEADER_SIZE + payload.length)) {
+                reject(name, key);
+                return;
+            }
+            int pos = end;
+            ByteBuffer view = data.duplicate();
+            view.position(pos + RECORD_HEADER_SIZE);
+            view.put(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            data.putInt(pos + 4, (int) crc.getValue());
+            data.putInt(pos, payload.length);
+            end = pos + RECORD_HEADER_SIZE + payload.length;
+            indexRecord(new Record(name, key), pos);
+            if (end > MIN_COMPACT_SIZE && deadBytes > end - deadBytes) {
+                tryCompact();
+            }
+        } catch (IOException e) {
+            throw new FlumeException("Failed writing cache file " + file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        CacheCounter counter = counter(name);
+        counter.incrementLoadCount();
+        counter.setSize(nameSize(name));
+        firePut(name, key, CacheRecord.of(value));
+    }
+
+    @Override
+    public CacheRecord get(String name, String key) {
+        CacheRecord value = null;
+        lock.readLock().lock();
+        try {
+            Record record = find(name, key);
+            if (record != null) {
+                value = readValue(record.payload);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (value == null) {
+            counter(name).incrementMissCount();
+        } else {
+            counter(name).incrementHitCount();
+        }
+        return value;
+    }
+
+    private int nameSize(String name) {
+        lock.readLock().lock();
+        try {
+            Integer count = nameEntries.get(name);
+            return count == null ? 0 : count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * grow the file to twice the size and map it again, compact the file when it reached the max size.
+     *
+     * @return false if there is no room for the record
+     */
+    private boolean ensureCapacity(int length) throws IOException {
+        long required = (long) end + length + 4;
+        if (required <= data.capacity()) {
+            return true;
+        }
+        if (required > maxSize) {
+            //only the replaced records make room
+            if (required - deadBytes > maxSize || !tryCompact()) {
+                return false;
+            }
+            required = (long) end + length + 4;
+            if (required <= data.capacity()) {
+                return true;
+            }
+        }
+        long size = data.capacity();
+        while (size < required) {
+            size *= 2;
+        }
+        size = Math.min(size, maxSize);
+        data.force();
+        raf.setLength(size);
+        data = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return true;
+    }
+
+    private void reject(String name, String key) {
+        rejected++;
+        long now = System.currentTimeMillis();
+        if (now - rejectWarnTime >= REJECT_WARN_INTERVAL) {
+            rejectWarnTime = now;
+            log.warn("cache file {} is full at {} bytes, {} puts rejected, the last of name {}, key {}",
+                    file, end, rejected, name, key);
+        }
+    }
+
+    /**
+     * @return false if the compaction failed or a failed compaction is not retried yet,
+     * the cache keeps the former file
+     */
+    private boolean tryCompact() {
+        if (System.currentTimeMillis() < compactRetryTime) {
+            return false;
+        }
+        try {
+            compact();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            compactRetryTime = System.currentTimeMillis() + COMPACT_RETRY_INTERVAL;
+            log.warn("Failed compacting cache file " + file + ", the former file is kept", e);
+            return false;
+        }
+    }
+
+    /**
+     * write the latest record of every key into a new file and open it, then replace the cache file by it.
+     * the former file stays open until the new file replaced it, and is mapped again if anything fails.
+     */
+    private void compact() throws IOException {
+        long start = System.currentTimeMillis();
+        File compactFile = compactFile();
+        RandomAccessFile out = new RandomAccessFile(compactFile, "rw");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+            FileChannel channel = out.getChannel();
+            channel.write(header);
+            for (int slot = 0; slot < slots; slot++) {
+                long offset = index.getLong(slot * SLOT_SIZE + 8);
+                if (offset == 0) {
+                    continue;
+                }
+                ByteBuffer record = data.duplicate();
+                record.position((int) offset);
+                record.limit((int) offset + RECORD_HEADER_SIZE + data.getInt((int) offset));
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            out.setLength(Math.min(maxSize, Math.max(INITIAL_SIZE, channel.position() * 2)));
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            Files.deleteIfExists(compactFile.toPath());
+            throw e;
+        }
+        out.close();
+        data.force();
+        RandomAccessFile oldRaf = raf;
+        FileLock oldFileLock = fileLock;
+        MappedByteBuffer oldData = data;
+        int oldEnd = end;
+        ByteBuffer oldIndex = index;
+        int oldSlots = slots;
+        int oldEntries = entries;
+        long oldDeadBytes = deadBytes;
+        Map<String, Integer> oldNameEntries = nameEntries;
+        boolean opened = false;
+        try {
+            open(compactFile);
+            opened = true;
+            Files.move(compactFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            if (opened) {
+                raf.close();
+            }
+            raf = oldRaf;
+            fileLock = oldFileLock;
+            data = oldData;
+            end = oldEnd;
+            index = oldIndex;
+            slots = oldSlots;
+            entries = oldEntries;
+            deadBytes = oldDeadBytes;
+            nameEntries = oldNameEntries;
+            Files.deleteIfExists(compactFile.toPath());
+            throw e;
+        }
+        try {
+            oldFileLock.release();
+            oldRaf.close();
+        } catch (IOException e) {
+            log.warn("Failed closing the former cache file " + file, e);
+        }
+        log.info("cache file {} compacted from {} to {} bytes in {} ms", file, oldEnd, end,
+                System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void close() {
+        closeFile();
+        for (CacheCounter counter : counters.values()) {
+            counter.stop();
+        }
+    }
+
+    /**
+     * release the file only, so the file can be opened by the next cache and opened again by {@link #reopen()}.
+     */
+    void closeFile() {
+        lock.writeLock().lock();
+        try {
+            if (!raf.getChannel().isOpen()) {
+                return;
+            }
+            data.force();
+            fileLock.release();
+            raf.close();
+        } catch (IOException e) {
+            log.warn("Failed closing cache file " + file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * open the file released by {@link #closeFile()} again, nothing if it is open.
+     */
+    void reopen() {
+        lock.writeLock().lock();
+        try {
+            if (!raf.getChannel().isOpen()) {
+                open(file);
+            }
+        } catch (IOException e) {
+            throw new FlumeException("Failed opening cache file " + file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private CacheCounter counter(String name) {
+        CacheCounter counter = counters.get(name);
+        if (counter == null) {
+            counter = new CacheCounter(name);
+            CacheCounter old = counters.putIfAbsent(name, counter);
+            if (old != null) {
+                counter = old;
+            } else {
+                counter.start();
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * fnv-1a 64 of the name, a 0 char and the key.
+     */
+    static long hash(String name, String key) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, name);
+        hash = (hash ^ 0) * 0x100000001b3L;
+        return hash(hash, key);
+    }
+
+    private static long hash(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static byte[] encode(String name, String key, Map<String, String> value) {
+        //entry count and every string
+        int size = 4;
+        byte[][] strings = new byte[2 + value.size() * 2][];
+        strings[0] = name.getBytes(Charsets.UTF_8);
+        strings[1] = key.getBytes(Charsets.UTF_8);
+        int i = 2;
+        for (Map.Entry<String, String> entry : value.entrySet()) {
+            strings[i++] = entry.getKey() == null ? null : entry.getKey().getBytes(Charsets.UTF_8);
+            strings[i++] = entry.getValue() == null ? null : entry.getValue().getBytes(Charsets.UTF_8);
+        }
+        for (byte[] s : strings) {
+            size += 4 + (s == null ? 0 : s.length);
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        writeString(out, strings[0]);
+        writeString(out, strings[1]);
+        out.putInt(value.size());
+        for (i = 2; i < strings.length; i++) {
+            writeString(out, strings[i]);
+        }
+        return out.array();
+    }
+
+    private static void writeString(ByteBuffer out, byte[] s) {
+        if (s == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(s.length);
+            out.put(s);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(in.array(), in.position(), length, Charsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /**
+     * @param in payload after the name and key
+     */
+    static CacheRecord readValue(ByteBuffer in) {
+        int count = in.getInt();
+        String[] names = new String[count];
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = readString(in);
+            values[i] = readString(in);
+        }
+        return CacheRecord.of(names, values);
+    }
+
+    private static class Record {
+        final String name;
+        final String key;
+        //payload after the name and key
+        ByteBuffer payload;
+        //offset of the next record
+        int next;
+
+        Record(String name, String key) {
+            this.name = name;
+            this.key = key;
+        }
+    }
+}
@@ -3,30 +3,60 @@ package com.ilivoo.flume.sink.cache;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class MemoryCache implements FlumeCache {
+public class MemoryCache extends AbstractFlumeCache {
 
-    private Map<String, Map<String, Map<String, String>>> nameCache = new ConcurrentHashMap<>();
+    private Map<String, Map<String, CacheRecord>> nameCache = new ConcurrentHashMap<>();
+
+    private ConcurrentHashMap<String, CacheCounter> counters = new ConcurrentHashMap<>();
 
     @Override
     public void put(String name, String key, Map<String, String> value) {
-        Map<String, Map<String, String>> keyCache = nameCache.get(name);
+        CacheRecord record = CacheRecord.of(value);
+        Map<String, CacheRecord> keyCache = nameCache.get(name);
         if (keyCache == null) {
             keyCache = new ConcurrentHashMap<>();
-            Map<String, Map<String, String>> oldKeyCache = nameCache.put(name, keyCache);
+            Map<String, CacheRecord> oldKeyCache = nameCache.put(name, keyCache);
             if (oldKeyCache != null) {
                 keyCache = oldKeyCache;
             }
         }
-        keyCache.put(key, value);
+        keyCache.put(key, record);
+        CacheCounter counter = counter(name);
+        counter.incrementLoadCount();
+        counter.setSize(keyCache.size());
+        firePut(name, key, record);
     }
 
     @Override
-    public Map<String, String> get(String name, String key) {
-        Map<String, Map<String, String>> keyCache = nameCache.get(name);
-        if (keyCache == null) {
-            return null;
+    public CacheRecord get(String name, String key) {
+        Map<String, CacheRecord> keyCache = nameCache.get(name);
+        CacheRecord value = keyCache == null ? null : keyCache.get(key);
+        if (value == null) {
+            counter(name).incrementMissCount();
+        } else {
+            counter(name).incrementHitCount();
         }
-        Map<String, String> value = keyCache.get(key);
         return value;
     }
+
+    @Override
+    public void close() {
+        for (CacheCounter counter : counters.values()) {
+            counter.stop();
+        }
+    }
+
+    private CacheCounter counter(String name) {
+        CacheCounter counter = counters.get(name);
+        if (counter == null) {
+            counter = new CacheCounter(name);
+            CacheCounter old = counters.putIfAbsent(name, counter);
+            if (old != null) {
+                counter = old;
+            } else {
+                counter.start();
+            }
+        }
+        return counter;
+    }
 }
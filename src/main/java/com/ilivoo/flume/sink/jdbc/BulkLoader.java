@@ -0,0 +1,155 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.JDBCUtils;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * load the rows of one field set with the native bulk api of the database into a staging table,
+ * then upsert the staging table into the table in one statement, the same result as insert on duplicate
+ * key update row by row. of the rows with the same primary key only the last one is loaded.
+ */
+abstract class BulkLoader {
+
+    protected static final String STAGE = "flume_stage";
+
+    /**
+     * @return loader of the dialect, null if the dialect has no bulk load
+     */
+    static BulkLoader create(SQLDialect dialect) {
+        switch (dialect.family()) {
+            case MYSQL:
+                return new MySQLBulkLoader();
+            case POSTGRES:
+                return new PostgresBulkLoader();
+            case SQLSERVER:
+                return new SQLServerBulkLoader();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return false if the fields can not be loaded as text, the rows are executed in batch then
+     */
+    boolean supports(List<Field> fields) {
+        for (Field field : fields) {
+            if (field.getDataType().isBinary()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param keyIndexes index of the primary key fields in fields
+     */
+    void load(DSLContext context, Connection connection, Table table, List<Field> fields,
+              int[] keyIndexes, List<Object[]> rows) throws Exception {
+        List<Object[]> lastRows = lastRows(keyIndexes, rows);
+        execute(connection, dropStage(context));
+        execute(connection, createStage(context, table, fields));
+        try {
+            copy(context, connection, fields, lastRows);
+            execute(connection, merge(context, table, fields, keyIndexes));
+        } catch (Exception e) {
+            try {
+                execute(connection, dropStage(context));
+            } catch (Exception dropFailure) {
+                //an aborted postgres transaction rejects the drop, the temporary table goes with the session
+                e.addSuppressed(dropFailure);
+            }
+            throw e;
+        }
+        execute(connection, dropStage(context));
+    }
+
+    protected abstract String dropStage(DSLContext context);
+
+    protected abstract String createStage(DSLContext context, Table table, List<Field> fields);
+
+    protected abstract void copy(DSLContext context, Connection connection, List<Field> fields,
+                                 List<Object[]> rows) throws Exception;
+
+    protected abstract String merge(DSLContext context, Table table, List<Field> fields, int[] keyIndexes);
+
+    /**
+     * the last row of every primary key wins, at the position of its last occurrence, as the upsert row by row
+     * leaves the last row.
+     */
+    static List<Object[]> lastRows(int[] keyIndexes, List<Object[]> rows) {
+        Map<List<Object>, Object[]> result = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            Object[] key = new Object[keyIndexes.length];
+            for (int i = 0; i < keyIndexes.length; i++) {
+                key[i] = row[keyIndexes[i]];
+            }
+            List<Object> keyList = Arrays.asList(key);
+            result.remove(keyList);
+            result.put(keyList, row);
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    protected String name(DSLContext context, Field field) {
+        return context.render(DSL.name(field.getName()));
+    }
+
+    protected String columns(DSLContext context, String prefix, List<Field> fields) {
+        StringBuilder sb = new StringBuilder();
+        for (Field field : fields) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(prefix).append(name(context, field));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * text of a converted value in the load data, null for sql null.
+     */
+    protected String text(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? "1" : "0";
+        }
+        return value.toString();
+    }
+
+    protected static boolean isKey(int index, int[] keyIndexes) {
+        for (int keyIndex : keyIndexes) {
+            if (keyIndex == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static void execute(Connection connection, String sql) throws Exception {
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute(sql);
+        } finally {
+            JDBCUtils.safeClose(statement);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.ilivoo.flume.utils.JsonUtil;
+import org.apache.flume.Event;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * append only file of the events which can not be written, one json object per line with
+ * time, table, error, headers and the body, the body is a string if it is utf-8, else base64 in bodyBase64.
+ * every append is forced to disk before return, so the dead events are kept before the channel commits.
+ */
+class DeadLetterFile {
+
+    private final File file;
+
+    private FileChannel channel;
+
+    DeadLetterFile(String path) {
+        this.file = new File(path);
+    }
+
+    synchronized void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("can not create directory " + parent);
+        }
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(channel.size());
+    }
+
+    synchronized void append(Event event, String table, Throwable error) throws IOException {
+        open();
+        ByteBuffer buffer = ByteBuffer.wrap(line(event, table, error));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    String getPath() {
+        return file.getPath();
+    }
+
+    static byte[] line(Event event, String table, Throwable error) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("time", System.currentTimeMillis());
+        record.put("table", table);
+        record.put("error", error.getClass().getName() + ": " + error.getMessage());
+        record.put("headers", event.getHeaders());
+        byte[] body = event.getBody();
+        if (body != null) {
+            try {
+                record.put("body", Charsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(body)).toString());
+            } catch (CharacterCodingException e) {
+                record.put("bodyBase64", BaseEncoding.base64().encode(body));
+            }
+        }
+        return (JsonUtil.toJson(record) + "\n").getBytes(Charsets.UTF_8);
+    }
+}
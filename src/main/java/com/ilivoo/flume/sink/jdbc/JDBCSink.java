@@ -1,8 +1,11 @@
 package com.ilivoo.flume.sink.jdbc;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.ilivoo.flume.jdbc.DBContext;
 import com.ilivoo.flume.jdbc.JDBCHelper;
 import com.ilivoo.flume.jdbc.JDBCTable;
+import com.ilivoo.flume.jdbc.StatementCache;
 import org.apache.flume.Channel;
 import org.apache.flume.Context;
 import org.apache.flume.CounterGroup;
@@ -14,14 +17,27 @@ import org.apache.flume.conf.Configurable;
 import org.apache.flume.instrumentation.SinkCounter;
 import org.apache.flume.sink.AbstractSink;
 import org.jooq.Configuration;
+import org.jooq.SQLDialect;
 import org.jooq.TransactionalRunnable;
 import org.jooq.impl.DSL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class JDBCSink extends AbstractSink implements Configurable, BatchSizeSupported {
 
@@ -30,12 +46,41 @@ public class JDBCSink extends AbstractSink implements Configurable, BatchSizeSup
     private static final Logger log = LoggerFactory.getLogger(JDBCSink.class);
     private static final String DEFAULT_DATA_FORMAT = DATA_FORMAT_HEAD;
     private static final String CONF_SQL = "sql";
+    private static final String CONF_SQL_PREFIX = CONF_SQL + ".";
     private static final String CONF_DATA_FORMAT = "dataFormat";
+    public static final String LOAD_MODE_BATCH = "batch";
+    public static final String LOAD_MODE_BULK = "bulk";
+    private static final String CONF_LOAD_MODE = "loadMode";
+    private static final String CONF_BULK_MIN_ROWS = "bulkMinRows";
+    private static final int DEFAULT_BULK_MIN_ROWS = 100;
+    private static final String CONF_COALESCE = "coalesce";
+    private static final String CONF_WRITER_THREADS = "writerThreads";
+    private static final String CONF_WRITER_KEY_PARTITIONS = "writerKeyPartitions";
+    private static final String CONF_PIPELINE_DEPTH = "pipelineDepth";
+    private static final String CONF_PIPELINE_CHUNK_SIZE = "pipelineChunkSize";
+    private static final int DEFAULT_PIPELINE_CHUNK_SIZE = 100;
+    private static final String CONF_DEAD_LETTER_FILE = "deadLetterFile";
+    static final String DEAD_LETTER_EVENTS = "deadLetter.events";
+    static final String DEAD_LETTER_BISECTIONS = "deadLetter.bisections";
+    static final String DEAD_LETTER_ROLLBACKS = "deadLetter.rollbacks";
+    private static final String CONF_DEAD_LETTER_MAX_RATIO = "deadLetterMaxRatio";
+    private static final double DEFAULT_DEAD_LETTER_MAX_RATIO = 0.1;
+    //seconds to wait for the rollback of a failed pipeline writer before writing its events again
+    private static final long PIPELINE_STOP_SECONDS = 30;
     private final CounterGroup counterGroup = new CounterGroup();
     private DBContext<JDBCTable> dbContext;
     private SinkCounter sinkCounter;
     private String dataFormat;
     private QueryGenerator queryGenerator;
+    //writer threads of partitions, 1 if the batch is written in one transaction
+    private int writerThreads;
+    private ExecutorService writerService;
+    //chunks waiting for the pipeline writer, 0 if events are written after the whole batch is taken
+    private int pipelineDepth;
+    private int pipelineChunkSize;
+    //events failing alone are appended to the file and committed, null if a failure rolls back the batch
+    private DeadLetterFile deadLetterFile;
+    private double deadLetterMaxRatio;
 
     public JDBCSink() {
         super();
@@ -55,15 +100,55 @@ public class JDBCSink extends AbstractSink implements Configurable, BatchSizeSup
         dbContext = JDBCHelper.create(context, JDBCTable.class);
 
         final String sql = context.getString(CONF_SQL);
-        if (sql == null) {
-            this.queryGenerator = new MappingQueryGenerator(dbContext, dataFormat, counterGroup);
+        //template name:sql, the template name is the table header of the events
+        Map<String, String> namedSqls = context.getSubProperties(CONF_SQL_PREFIX);
+        if (sql == null && namedSqls.isEmpty()) {
+            String loadMode = context.getString(CONF_LOAD_MODE, LOAD_MODE_BATCH);
+            Preconditions.checkArgument(Arrays.asList(LOAD_MODE_BATCH, LOAD_MODE_BULK).contains(loadMode),
+                    "load mode not exist: " + loadMode);
+            BulkLoader bulkLoader = null;
+            if (LOAD_MODE_BULK.equals(loadMode)) {
+                SQLDialect dialect = dbContext.dslContext().dialect();
+                bulkLoader = BulkLoader.create(dialect);
+                if (bulkLoader == null) {
+                    log.warn("dialect {} has no bulk load, rows are executed in batch", dialect);
+                }
+            }
+            int bulkMinRows = context.getInteger(CONF_BULK_MIN_ROWS, DEFAULT_BULK_MIN_ROWS);
+            Preconditions.checkArgument(bulkMinRows > 0, "bulkMinRows must be positive");
+            MappingQueryGenerator mappingQueryGenerator = new MappingQueryGenerator(dbContext, dataFormat,
+                    counterGroup, bulkLoader, bulkMinRows);
+            int keyPartitions = context.getInteger(CONF_WRITER_KEY_PARTITIONS, 0);
+            Preconditions.checkArgument(keyPartitions >= 0, "writerKeyPartitions must not be negative");
+            mappingQueryGenerator.setKeyPartitions(keyPartitions);
+            mappingQueryGenerator.setCoalesce(context.getBoolean(CONF_COALESCE, false));
+            this.queryGenerator = mappingQueryGenerator;
         } else {
             this.queryGenerator = new TemplateQueryGenerator(
                     dbContext,
                     sql,
+                    namedSqls,
                     dataFormat,
                     counterGroup);
         }
+        writerThreads = context.getInteger(CONF_WRITER_THREADS, 1);
+        Preconditions.checkArgument(writerThreads > 0, "writerThreads must be positive");
+        if (writerThreads > dbContext.getMaximumPoolSize()) {
+            log.warn("writerThreads {} is more than connection pool size {}, writers wait for connections",
+                    writerThreads, dbContext.getMaximumPoolSize());
+        }
+        pipelineDepth = context.getInteger(CONF_PIPELINE_DEPTH, 0);
+        pipelineChunkSize = context.getInteger(CONF_PIPELINE_CHUNK_SIZE, DEFAULT_PIPELINE_CHUNK_SIZE);
+        Preconditions.checkArgument(pipelineDepth >= 0, "pipelineDepth must not be negative");
+        Preconditions.checkArgument(pipelineChunkSize > 0, "pipelineChunkSize must be positive");
+        Preconditions.checkArgument(pipelineDepth == 0 || writerThreads == 1,
+                "pipelineDepth and writerThreads can not be used together");
+        String deadLetterPath = context.getString(CONF_DEAD_LETTER_FILE);
+        deadLetterFile = deadLetterPath == null ? null : new DeadLetterFile(deadLetterPath);
+        deadLetterMaxRatio = Double.parseDouble(context.getString(CONF_DEAD_LETTER_MAX_RATIO,
+                String.valueOf(DEFAULT_DEAD_LETTER_MAX_RATIO)));
+        Preconditions.checkArgument(deadLetterMaxRatio > 0 && deadLetterMaxRatio <= 1,
+                "deadLetterMaxRatio must be in (0, 1]");
         this.sinkCounter = new SinkCounter(this.getName());
     }
 
@@ -78,12 +163,16 @@ public class JDBCSink extends AbstractSink implements Configurable, BatchSizeSup
             txn.begin();
             int count;
             final List<Event> eventList = new ArrayList<>();
-            for (count = 0; count < getBatchSize(); ++count) {
-                Event event = channel.take();
-                if (event == null) {
-                    break;
+            if (pipelineDepth > 0) {
+                count = takePipelined(channel);
+            } else {
+                for (count = 0; count < getBatchSize(); ++count) {
+                    Event event = channel.take();
+                    if (event == null) {
+                        break;
+                    }
+                    eventList.add(event);
                 }
-                eventList.add(event);
             }
 
             if (count <= 0) {
@@ -97,22 +186,20 @@ public class JDBCSink extends AbstractSink implements Configurable, BatchSizeSup
                 } else {
                     sinkCounter.incrementBatchCompleteCount();
                 }
-                final QueryGenerator tq = this.queryGenerator;
-                dbContext.dslContext().transaction(new TransactionalRunnable() {
-                    @Override
-                    public void run(Configuration configuration) throws Throwable {
-                        final boolean success = tq.executeQuery(DSL.using(configuration), eventList);
-                        if (!success) {
-                            throw new JDBCSinkException("Query failed");
-                        }
+                //the pipeline writes the events while taking
+                if (pipelineDepth == 0) {
+                    if (writerService == null) {
+                        executeIsolated(eventList);
+                    } else {
+                        executePartitions(eventList);
                     }
-                });
+                }
                 sinkCounter.addToEventDrainAttemptCount(count);
             }
             txn.commit();
             sinkCounter.addToEventDrainSuccessCount(count);
             counterGroup.incrementAndGet("transaction.success");
-            log.info("process {} event success", eventList.size());
+            log.info("process {} event success", count);
         } catch (Throwable t) {
             log.error("Exception during process", t);
             txn.rollback();
@@ -127,9 +214,357 @@ public class JDBCSink extends AbstractSink implements Configurable, BatchSizeSup
         return status;
     }
 
+    private void executeTransaction(final List<Event> events) {
+        executeTransaction(events, false);
+    }
+
+    /**
+     * @param rollback roll back the transaction after the events are written, to try them without writing
+     */
+    private void executeTransaction(final List<Event> events, final boolean rollback) {
+        final QueryGenerator tq = this.queryGenerator;
+        dbContext.dslContext().transaction(new TransactionalRunnable() {
+            @Override
+            public void run(Configuration configuration) throws Throwable {
+                final boolean success = tq.executeQuery(DSL.using(configuration), events);
+                if (!success) {
+                    throw new JDBCSinkException("Query failed");
+                }
+                if (rollback) {
+                    throw new TryRollback();
+                }
+            }
+        });
+    }
+
+    /**
+     * write the events and roll back.
+     *
+     * @return the failure, null if the events can be written
+     */
+    private Throwable tryTransaction(List<Event> events) {
+        try {
+            executeTransaction(events, true);
+        } catch (Throwable t) {
+            for (Throwable c = t; c != null; c = c.getCause() == c ? null : c.getCause()) {
+                if (c instanceof TryRollback) {
+                    return null;
+                }
+            }
+            return t;
+        }
+        return null;
+    }
+
+    /**
+     * thrown to roll back the transaction of {@link #tryTransaction}.
+     */
+    private static class TryRollback extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TryRollback() {
+            super("rollback", null, false, false);
+        }
+    }
+
+    /**
+     * write the events in one transaction, when it fails and the dead letter file is configured, the events
+     * are bisected to find the events failing alone.
+     */
+    private void executeIsolated(List<Event> events) throws Throwable {
+        try {
+            executeTransaction(events);
+        } catch (Throwable t) {
+            isolate(events, t);
+        }
+    }
+
+    /**
+     * the events failed in one transaction, write both halves in their own transactions and bisect a failed half
+     * again, until the failed event is alone, then append the failed events to the dead letter file. every good
+     * event is written once, in event order. the batch failure is thrown and the whole batch is rolled back
+     * and taken again, instead of sending good events to the dead letter file, when
+     * <ul>
+     * <li>the failure is transient like a lost connection or a deadlock,</li>
+     * <li>both halves fail with the sql state and vendor code of the batch, like a missing table, denied access
+     * or a full disk, the second half is only tried and rolled back so nothing is written,</li>
+     * <li>more than deadLetterMaxRatio of the batch fails alone.</li>
+     * </ul>
+     * events written by the bisection before a failure is thrown are written again with the batch.
+     */
+    private void isolate(List<Event> events, Throwable failure) throws Throwable {
+        if (deadLetterFile == null || isTransient(failure)) {
+            throw failure;
+        }
+        int maxFailed = Math.max(1, (int) (events.size() * deadLetterMaxRatio));
+        Map<Event, Throwable> failed = new LinkedHashMap<>();
+        if (events.size() == 1) {
+            failed.put(events.get(0), failure);
+        } else {
+            String code = failureCode(failure);
+            int middle = events.size() / 2;
+            List<Event> first = events.subList(0, middle);
+            List<Event> second = events.subList(middle, events.size());
+            Throwable firstFailure = null;
+            try {
+                executeTransaction(first);
+            } catch (Throwable t) {
+                firstFailure = t;
+            }
+            if (firstFailure != null && code != null && code.equals(failureCode(firstFailure))) {
+                Throwable secondFailure = tryTransaction(second);
+                if (secondFailure != null && code.equals(failureCode(secondFailure))) {
+                    counterGroup.incrementAndGet(DEAD_LETTER_ROLLBACKS);
+                    throw failure;
+                }
+            }
+            counterGroup.incrementAndGet(DEAD_LETTER_BISECTIONS);
+            if (firstFailure != null) {
+                bisect(first, firstFailure, failed, maxFailed, failure);
+            }
+            try {
+                executeTransaction(second);
+            } catch (Throwable t) {
+                bisect(second, t, failed, maxFailed, failure);
+            }
+        }
+        checkFailed(failed.size(), maxFailed, failure);
+        for (Map.Entry<Event, Throwable> entry : failed.entrySet()) {
+            deadLetter(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * bisect the failed events, collect the events failing alone in event order.
+     */
+    private void bisect(List<Event> events, Throwable failure, Map<Event, Throwable> failed,
+                        int maxFailed, Throwable batchFailure) throws Throwable {
+        if (isTransient(failure)) {
+            throw failure;
+        }
+        if (events.size() == 1) {
+            failed.put(events.get(0), failure);
+            checkFailed(failed.size(), maxFailed, batchFailure);
+            return;
+        }
+        counterGroup.incrementAndGet(DEAD_LETTER_BISECTIONS);
+        int middle = events.size() / 2;
+        for (List<Event> half : Arrays.asList(events.subList(0, middle), events.subList(middle, events.size()))) {
+            try {
+                executeTransaction(half);
+            } catch (Throwable t) {
+                bisect(half, t, failed, maxFailed, batchFailure);
+            }
+        }
+    }
+
+    private void checkFailed(int failed, int maxFailed, Throwable batchFailure) {
+        if (failed > maxFailed) {
+            counterGroup.incrementAndGet(DEAD_LETTER_ROLLBACKS);
+            throw new JDBCSinkException("More than " + maxFailed + " events failed alone, the batch is rolled back",
+                    batchFailure);
+        }
+    }
+
+    private void deadLetter(Event event, Throwable failure) throws IOException {
+        String table = queryGenerator.tableName(event);
+        deadLetterFile.append(event, table, failure);
+        counterGroup.incrementAndGet(DEAD_LETTER_EVENTS);
+        counterGroup.incrementAndGet(DEAD_LETTER_EVENTS + ".table." + table);
+        counterGroup.incrementAndGet(DEAD_LETTER_EVENTS + ".error." + errorClass(failure));
+        log.warn("Event of table " + table + " failed alone, appended to " + deadLetterFile.getPath(), failure);
+    }
+
+    /**
+     * @return true if the failure is of the connection or the transaction instead of the events
+     */
+    static boolean isTransient(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof InterruptedException || t instanceof SQLTransientException
+                    || t instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                //08 connection exception, 40 transaction rollback
+                if (state != null && (state.startsWith("08") || state.startsWith("40"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * sql state and vendor code of the first sql exception, null if there is none or the state is of a data
+     * exception (22) or a constraint violation (23), which fail the rows instead of the statement.
+     */
+    static String failureCode(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+                    return null;
+                }
+                return state + ":" + ((SQLException) t).getErrorCode();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * simple class name of the root cause.
+     */
+    static String errorClass(Throwable failure) {
+        Throwable root = failure;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getClass().getSimpleName();
+    }
+
+    /**
+     * write every partition in its own transaction by the writer threads, wait for all partitions and
+     * throw the first failure, so the channel transaction commits only after every partition is written.
+     * partitions written before a failure are written again when the events are taken again.
+     */
+    private void executePartitions(List<Event> events) throws Throwable {
+        Map<String, List<Event>> partitions = new LinkedHashMap<>();
+        for (Event event : events) {
+            String partition;
+            try {
+                partition = queryGenerator.partition(event);
+            } catch (Exception e) {
+                //the event can not be mapped, it fails alone
+                isolate(Collections.singletonList(event), e);
+                continue;
+            }
+            List<Event> partitionEvents = partitions.get(partition);
+            if (partitionEvents == null) {
+                partitionEvents = new ArrayList<>();
+                partitions.put(partition, partitionEvents);
+            }
+            partitionEvents.add(event);
+        }
+        counterGroup.addAndGet("writer.partitions", (long) partitions.size());
+        List<Future<?>> futures = new ArrayList<>();
+        for (final List<Event> partitionEvents : partitions.values()) {
+            futures.add(writerService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executeIsolated(partitionEvents);
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new JDBCSinkException(t);
+                    }
+                }
+            }));
+        }
+        Throwable failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                for (Future<?> f : futures) {
+                    f.cancel(true);
+                }
+                throw e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * take a batch and hand every chunk of pipelineChunkSize events to the pipeline writer as soon as
+     * it is taken, return after the writer committed.
+     *
+     * @return the number of events taken
+     */
+    private int takePipelined(Channel channel) throws Throwable {
+        PipelineWriter writer = null;
+        List<Event> chunk = new ArrayList<>();
+        //events taken, written again by bisection when the writer fails and the dead letter file is configured
+        List<Event> taken = new ArrayList<>();
+        int count;
+        long takeNanos = 0;
+        boolean taking = false;
+        try {
+            for (count = 0; count < getBatchSize(); ++count) {
+                long start = System.nanoTime();
+                taking = true;
+                Event event = channel.take();
+                taking = false;
+                takeNanos += System.nanoTime() - start;
+                if (event == null) {
+                    break;
+                }
+                if (writer == null) {
+                    writer = new PipelineWriter(writerService, dbContext.dslContext(), queryGenerator,
+                            pipelineDepth, counterGroup);
+                }
+                if (deadLetterFile != null) {
+                    taken.add(event);
+                }
+                chunk.add(event);
+                if (chunk.size() >= pipelineChunkSize) {
+                    writer.write(chunk);
+                    chunk = new ArrayList<>();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writer.write(chunk);
+            }
+            counterGroup.addAndGet(PipelineWriter.TAKE_MS, TimeUnit.NANOSECONDS.toMillis(takeNanos));
+            if (writer != null) {
+                writer.finish();
+                writer = null;
+            }
+            return count;
+        } catch (Throwable t) {
+            if (taking || writer == null || deadLetterFile == null) {
+                throw t;
+            }
+            //the database transaction of the writer is rolled back, the events taken are written again
+            //after the rollback released the locks of the writer
+            writer.cancel();
+            if (!writer.awaitStopped(PIPELINE_STOP_SECONDS, TimeUnit.SECONDS)) {
+                throw t;
+            }
+            writer = null;
+            isolate(taken, t);
+            return taken.size();
+        } finally {
+            if (writer != null) {
+                writer.cancel();
+            }
+        }
+    }
+
     @Override
     public synchronized void start() {
         super.start();
+        if (pipelineDepth > 0) {
+            writerService = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat(getName() + "-pipeline").build());
+        } else if (writerThreads > 1) {
+            writerService = Executors.newFixedThreadPool(writerThreads,
+                    new ThreadFactoryBuilder().setNameFormat(getName() + "-writer-%d").build());
+        }
+        if (deadLetterFile != null) {
+            try {
+                deadLetterFile.open();
+            } catch (IOException e) {
+                throw new JDBCSinkException("Failed opening dead letter file " + deadLetterFile.getPath(), e);
+            }
+        }
         this.sinkCounter.start();
     }
 
@@ -137,6 +572,40 @@ public class JDBCSink extends AbstractSink implements Configurable, BatchSizeSup
     public synchronized void stop() {
         super.stop();
         this.sinkCounter.stop();
+        if (writerService != null) {
+            writerService.shutdown();
+            try {
+                if (!writerService.awaitTermination(10, TimeUnit.SECONDS)) {
+                    writerService.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                writerService.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            writerService = null;
+        }
+        if (deadLetterFile != null) {
+            try {
+                deadLetterFile.close();
+            } catch (IOException e) {
+                log.warn("Failed closing dead letter file " + deadLetterFile.getPath(), e);
+            }
+        }
+        StatementCache statementCache = dbContext.getStatementCache();
+        counterGroup.set("statement.cache.hit", statementCache.getHitCount());
+        counterGroup.set("statement.cache.miss", statementCache.getMissCount());
+        counterGroup.set("statement.cache.evict", statementCache.getEvictionCount());
+        long executions = counterGroup.get(MappingQueryGenerator.BATCH_EXECUTIONS);
+        if (executions > 0) {
+            counterGroup.set("batch.rowsPerExecution",
+                    counterGroup.get(MappingQueryGenerator.BATCH_ROWS) / executions);
+        }
         log.info("JDBC Sink do stop. Metrics:{}", counterGroup);
+        long written = counterGroup.get(MappingQueryGenerator.COALESCE_WRITTEN);
+        if (written > 0) {
+            //counters are long, the ratio is logged alone
+            double ratio = (double) (counterGroup.get(MappingQueryGenerator.COALESCE_MERGED) + written) / written;
+            log.info("JDBC Sink coalesce.ratio:{}", String.format("%.2f", ratio));
+        }
     }
 }
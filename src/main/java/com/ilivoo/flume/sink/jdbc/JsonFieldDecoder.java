@@ -0,0 +1,403 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.internal.LazilyParsedNumber;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * decode the top json object of an event body straight from the bytes into a value array indexed by slot,
+ * only the values of keys with a slot are built, there is no json tree or map.
+ * values are the same as {@link com.ilivoo.flume.utils.JsonUtil#jsonToObjectMap}: Boolean, String,
+ * gson LazilyParsedNumber, json text of objects and arrays, null for json null and missing keys,
+ * the later value of a duplicate key wins.
+ * the slot of a key is resolved once and kept by the key bytes.
+ * bodies out of strict json (comments, unquoted strings, leading zeros...) return false, decode them by gson.
+ */
+class JsonFieldDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //keys with a resolved slot kept, so random keys of events can not grow the cache without bound
+    private static final int MAX_KEYS = 4096;
+
+    /**
+     * slot of a key, -1 if the value of the key is not needed.
+     */
+    interface SlotResolver {
+        int slot(String key);
+    }
+
+    private final int slots;
+
+    private final SlotResolver resolver;
+
+    //copy on write cache of key bytes:slot, read without lock
+    private volatile KeyCache keyCache = new KeyCache(16);
+
+    JsonFieldDecoder(int slots, SlotResolver resolver) {
+        this.slots = slots;
+        this.resolver = resolver;
+    }
+
+    int slots() {
+        return slots;
+    }
+
+    /**
+     * @param values array of at least slots length, filled with the decoded values
+     * @return false if the body is not strict json of an object
+     */
+    boolean decode(byte[] body, Object[] values) {
+        Arrays.fill(values, 0, slots, null);
+        try {
+            return new Reader(body, values).readObject();
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | JsonParseException e) {
+            return false;
+        }
+    }
+
+    private int slot(byte[] body, int start, int end) {
+        KeyCache cache = keyCache;
+        int slot = cache.get(body, start, end);
+        if (slot != KeyCache.ABSENT) {
+            return slot;
+        }
+        slot = resolver.slot(new String(body, start, end - start, UTF_8));
+        synchronized (this) {
+            if (keyCache.size < MAX_KEYS) {
+                keyCache = keyCache.with(Arrays.copyOfRange(body, start, end), slot);
+            }
+        }
+        return slot;
+    }
+
+    private class Reader {
+        private final byte[] body;
+        private final Object[] values;
+        private int pos;
+        //start of the decoded string value, -1 if it has escapes and is in text
+        private int stringStart;
+        private int stringEnd;
+        private final StringBuilder text = new StringBuilder();
+
+        Reader(byte[] body, Object[] values) {
+            this.body = body;
+            this.values = values;
+        }
+
+        boolean readObject() {
+            skipWhitespace();
+            if (!consume('{')) {
+                return false;
+            }
+            skipWhitespace();
+            if (!consume('}')) {
+                do {
+                    skipWhitespace();
+                    if (!consume('"') || !scanString()) {
+                        return false;
+                    }
+                    int slot = stringStart >= 0 ? slot(body, stringStart, stringEnd) : resolver.slot(text.toString());
+                    skipWhitespace();
+                    if (!consume(':')) {
+                        return false;
+                    }
+                    skipWhitespace();
+                    if (!readValue(slot)) {
+                        return false;
+                    }
+                    skipWhitespace();
+                } while (consume(','));
+                if (!consume('}')) {
+                    return false;
+                }
+            }
+            skipWhitespace();
+            return pos == body.length;
+        }
+
+        private boolean readValue(int slot) {
+            byte b = body[pos];
+            Object value;
+            if (b == '"') {
+                pos++;
+                if (!scanString()) {
+                    return false;
+                }
+                if (slot < 0) {
+                    return true;
+                }
+                value = stringStart >= 0
+                        ? new String(body, stringStart, stringEnd - stringStart, UTF_8) : text.toString();
+            } else if (b == '{' || b == '[') {
+                int start = pos;
+                if (!skipNested()) {
+                    return false;
+                }
+                if (slot < 0) {
+                    return true;
+                }
+                //rare, gson keeps the compact json text of nested values
+                value = new JsonParser().parse(new String(body, start, pos - start, UTF_8)).toString();
+            } else if (b == '-' || (b >= '0' && b <= '9')) {
+                int start = pos;
+                if (!scanNumber()) {
+                    return false;
+                }
+                if (slot < 0) {
+                    return true;
+                }
+                value = new LazilyParsedNumber(new String(body, start, pos - start, UTF_8));
+            } else if (consumeLiteral("true")) {
+                value = Boolean.TRUE;
+            } else if (consumeLiteral("false")) {
+                value = Boolean.FALSE;
+            } else if (consumeLiteral("null")) {
+                value = null;
+            } else {
+                return false;
+            }
+            if (slot >= 0) {
+                values[slot] = value;
+            }
+            return true;
+        }
+
+        /**
+         * scan a string after the opening quote to after the closing quote, the bytes without escapes are
+         * kept as stringStart, stringEnd, else the unescaped string is in text.
+         */
+        private boolean scanString() {
+            int start = pos;
+            while (true) {
+                byte b = body[pos];
+                if (b == '"') {
+                    stringStart = start;
+                    stringEnd = pos++;
+                    return true;
+                }
+                if (b == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            text.setLength(0);
+            int segment = start;
+            while (true) {
+                byte b = body[pos];
+                if (b == '"') {
+                    text.append(new String(body, segment, pos - segment, UTF_8));
+                    pos++;
+                    stringStart = -1;
+                    return true;
+                }
+                if (b != '\\') {
+                    pos++;
+                    continue;
+                }
+                text.append(new String(body, segment, pos - segment, UTF_8));
+                pos++;
+                byte escape = body[pos++];
+                switch (escape) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        text.append((char) escape);
+                        break;
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        int c = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(body[pos++], 16);
+                            if (digit < 0) {
+                                return false;
+                            }
+                            c = (c << 4) | digit;
+                        }
+                        text.append((char) c);
+                        break;
+                    default:
+                        return false;
+                }
+                segment = pos;
+            }
+        }
+
+        /**
+         * -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+         */
+        private boolean scanNumber() {
+            consume('-');
+            if (consume('0')) {
+                if (pos < body.length && isDigit(body[pos])) {
+                    return false;
+                }
+            } else if (!scanDigits()) {
+                return false;
+            }
+            if (consume('.') && !scanDigits()) {
+                return false;
+            }
+            if (consume('e') || consume('E')) {
+                if (!consume('+')) {
+                    consume('-');
+                }
+                return scanDigits();
+            }
+            return true;
+        }
+
+        private boolean scanDigits() {
+            int start = pos;
+            while (pos < body.length && isDigit(body[pos])) {
+                pos++;
+            }
+            return pos > start;
+        }
+
+        private boolean skipNested() {
+            int depth = 0;
+            do {
+                byte b = body[pos++];
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                } else if (b == '"' && !scanString()) {
+                    return false;
+                }
+            } while (depth > 0);
+            return true;
+        }
+
+        private boolean consumeLiteral(String literal) {
+            if (pos + literal.length() > body.length) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                if (body[pos + i] != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            pos += literal.length();
+            return true;
+        }
+
+        private boolean consume(char c) {
+            if (pos < body.length && body[pos] == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (pos < body.length) {
+                byte b = body[pos];
+                if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                    return;
+                }
+                pos++;
+            }
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * open addressing table of key bytes:slot.
+     */
+    private static class KeyCache {
+        static final int ABSENT = Integer.MIN_VALUE;
+        final byte[][] keys;
+        final int[] slots;
+        final int size;
+
+        KeyCache(int capacity) {
+            this(new byte[capacity][], new int[capacity], 0);
+        }
+
+        private KeyCache(byte[][] keys, int[] slots, int size) {
+            this.keys = keys;
+            this.slots = slots;
+            this.size = size;
+        }
+
+        int get(byte[] bytes, int start, int end) {
+            int mask = keys.length - 1;
+            for (int i = hash(bytes, start, end) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (equals(keys[i], bytes, start, end)) {
+                    return slots[i];
+                }
+            }
+            return ABSENT;
+        }
+
+        KeyCache with(byte[] key, int slot) {
+            if (get(key, 0, key.length) != ABSENT) {
+                return this;
+            }
+            int capacity = keys.length;
+            while ((size + 1) * 2 > capacity) {
+                capacity <<= 1;
+            }
+            KeyCache result = new KeyCache(capacity);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    result.put(keys[i], slots[i]);
+                }
+            }
+            result.put(key, slot);
+            return new KeyCache(result.keys, result.slots, size + 1);
+        }
+
+        private void put(byte[] key, int slot) {
+            int mask = keys.length - 1;
+            int i = hash(key, 0, key.length) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            slots[i] = slot;
+        }
+
+        private static int hash(byte[] bytes, int start, int end) {
+            int h = 1;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + bytes[i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equals(byte[] key, byte[] bytes, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != bytes[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.ilivoo.flume.sink.jdbc;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.ilivoo.flume.jdbc.DBContext;
 import com.ilivoo.flume.jdbc.JDBCTable;
+import com.ilivoo.flume.jdbc.SqlTemplate;
+import com.ilivoo.flume.jdbc.StatementCache;
 import com.ilivoo.flume.utils.JsonUtil;
 import org.apache.flume.CounterGroup;
 import org.apache.flume.Event;
@@ -12,15 +16,25 @@ import org.jooq.Field;
 import org.jooq.InsertOnDuplicateSetStep;
 import org.jooq.InsertSetMoreStep;
 import org.jooq.InsertSetStep;
-import org.jooq.conf.ParamType;
+import org.jooq.Query;
+import org.jooq.Table;
+import org.jooq.UniqueKey;
+import org.jooq.tools.jdbc.JDBCUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class MappingQueryGenerator implements QueryGenerator {
 
@@ -28,79 +42,129 @@ class MappingQueryGenerator implements QueryGenerator {
 
     private static final String TABLE = "table";
 
+    static final String BATCH_ROWS = "batch.rows";
+
+    static final String BATCH_EXECUTIONS = "batch.executions";
+
+    static final String COALESCE_MERGED = "coalesce.merged";
+
+    static final String COALESCE_WRITTEN = "coalesce.written";
+
+    static final String BULK_ROWS = "bulk.rows";
+
+    static final String BULK_LOADS = "bulk.loads";
+
+    private static final Comparator<Field> FIELD_NAME_ORDER = new Comparator<Field>() {
+        @Override
+        public int compare(Field o1, Field o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    };
+
     private DBContext<JDBCTable> dbContext;
 
     private String dataFormat;
 
     private CounterGroup counterGroup;
 
+    //table:primary key and unique keys
+    private final Map<String, TableKeys> tableKeysMap = new ConcurrentHashMap<>();
+
+    //table:json body decoder
+    private final Map<String, BodyDecoder> bodyDecoderMap = new ConcurrentHashMap<>();
+
+    //null if rows are always executed in batch
+    private BulkLoader bulkLoader;
+
+    //batches of fewer rows are executed in batch
+    private int bulkMinRows;
+
+    //merge rows of the same primary key in a batch
+    private boolean coalesce;
+
+    //partitions of a table hashed by primary key, 0 if a table is one partition
+    private int keyPartitions;
+
+    //event:row decoded to find the partition, taken by the write of the event. weak keys, compared by identity,
+    //so the rows of events never written are dropped with the events
+    private final Cache<Event, DecodedRow> decodedRows = CacheBuilder.newBuilder().weakKeys().build();
+
     public MappingQueryGenerator(DBContext<JDBCTable> dbContext,
                                  String dataFormat,
                                  CounterGroup counterGroup) {
+        this(dbContext, dataFormat, counterGroup, null, 0);
+    }
+
+    public MappingQueryGenerator(DBContext<JDBCTable> dbContext,
+                                 String dataFormat,
+                                 CounterGroup counterGroup,
+                                 BulkLoader bulkLoader,
+                                 int bulkMinRows) {
         this.dbContext = dbContext;
         this.dataFormat = dataFormat;
         this.counterGroup = counterGroup;
+        this.bulkLoader = bulkLoader;
+        this.bulkMinRows = bulkMinRows;
     }
 
+    /**
+     * map every event to the table fields, the events of the same field set are bound to one prepared statement
+     * and executed by addBatch / executeBatch in event order. when an event has the unique key of a former event
+     * of another field set, the pending batches are executed first, so the rows of one key keep the event order.
+     */
     private void executeTableQuery(final DSLContext context, JDBCTable table, final List<Event> events) throws Exception {
         int mappedEvents = 0;
+        List<UniqueKey> uniqueKeys = uniqueKeys(table);
+        //field set:batch, in the order of the first event
+        final Map<String, Batch> batches = new LinkedHashMap<>();
+        //unique key values:field set of the pending rows
+        Map<List<Object>, String> pendingKeys = new HashMap<>();
+        List<Map<Field, Object>> rows = new ArrayList<>();
         for (Event event : events) {
-            Map<Field, Object> fieldValues = new HashMap<>();
-            Map<String, ?> values = event.getHeaders();
-            if (dataFormat.equals(JDBCSink.DATA_FORMAT_BODY_JSON)) {
-                values = JsonUtil.jsonToObjectMap(new String(event.getBody(), "UTF-8"));
-            }
-            for (Map.Entry<String, ?> entry : values.entrySet()) {
-                String columnAlias = entry.getKey();
-                if (columnAlias.equals(TABLE)) {
-                    continue;
-                }
-                String columnName = table.getAliasColumn(columnAlias);
-                if (!table.isColumnAccess(columnName)) {
-                    continue;
-                }
-                Field field = null;
-                for (Field f : table.getTable().fields()) {
-                    if (f.getName().equalsIgnoreCase(columnName)) {
-                        field = f;
-                        break;
-                    }
-                }
-                if (field == null) {
-                    log.trace("Ignoring field: {}", columnAlias);
-                    continue;
-                }
-                DataType dataType = field.getDataType();
-                fieldValues.put(field, dataType.convert(entry.getValue()));
-            }
+            Map<Field, Object> fieldValues = decodedFieldValues(table, event);
             if (fieldValues.isEmpty()) {
                 log.debug("Ignoring event, no mapped fields.");
-            } else {
-                mappedEvents++;
-                final InsertSetStep insert = context.insertInto(table.getTable());
-                if (insert instanceof InsertSetMoreStep) {
-                    ((InsertSetMoreStep) insert).newRecord();
-                }
-                for (Map.Entry<Field, Object> entry : fieldValues.entrySet()) {
-                    ((InsertSetMoreStep) insert).set(entry.getKey(), entry.getValue());
-                }
-                if (insert instanceof InsertSetMoreStep) {
-                    InsertOnDuplicateSetStep step = ((InsertSetMoreStep) insert).onDuplicateKeyUpdate();
-                    for (Map.Entry<Field, Object> entry : fieldValues.entrySet()) {
-                        step.set(entry.getKey(), entry.getValue());
-                    }
-                }
-                if (insert instanceof  InsertSetMoreStep) {
-                    context.connection(new ConnectionRunnable() {
-                        @Override
-                        public void run(Connection connection) throws Exception {
-                            String sql = ((InsertSetMoreStep) insert).getSQL(ParamType.INLINED);
-                            connection.prepareStatement(sql).execute();
-                        }
-                    });
+                continue;
+            }
+            mappedEvents++;
+            rows.add(fieldValues);
+        }
+        if (coalesce) {
+            int mappedRows = rows.size();
+            rows = coalesce(primaryKey(table), rows);
+            counterGroup.addAndGet(COALESCE_MERGED, (long) (mappedRows - rows.size()));
+            counterGroup.addAndGet(COALESCE_WRITTEN, (long) rows.size());
+        }
+        for (Map<Field, Object> fieldValues : rows) {
+            List<Field> fields = new ArrayList<>(fieldValues.keySet());
+            Collections.sort(fields, FIELD_NAME_ORDER);
+            String shape = shapeKey(table, fields);
+            List<List<Object>> keyValues = keyValues(uniqueKeys, fieldValues);
+            for (List<Object> keyValue : keyValues) {
+                String pendingShape = pendingKeys.get(keyValue);
+                if (pendingShape != null && !pendingShape.equals(shape)) {
+                    executeBatches(context, table, batches.values());
+                    batches.clear();
+                    pendingKeys.clear();
+                    break;
                 }
             }
+            for (List<Object> keyValue : keyValues) {
+                pendingKeys.put(keyValue, shape);
+            }
+            Batch batch = batches.get(shape);
+            if (batch == null) {
+                batch = new Batch(insertTemplate(context, table, fields, shape), fields,
+                        keyIndexes(primaryKey(table), fields));
+                batches.put(shape, batch);
+            }
+            Object[] bindValues = new Object[fields.size()];
+            for (int i = 0; i < bindValues.length; i++) {
+                bindValues[i] = fieldValues.get(fields.get(i));
+            }
+            batch.rows.add(bindValues);
         }
+        executeBatches(context, table, batches.values());
         if (mappedEvents > 0) {
             counterGroup.addAndGet(table.getName(), new Long(mappedEvents));
             if (events.size() != mappedEvents) {
@@ -111,6 +175,262 @@ class MappingQueryGenerator implements QueryGenerator {
         }
     }
 
+    /**
+     * merge the rows of the same primary key into one row in the place of the last row, later values win,
+     * fields only in former rows are kept, the same result as upsert of every row in order.
+     * rows without every primary key field are kept as is.
+     */
+    static List<Map<Field, Object>> coalesce(List<Field> primaryKey, List<Map<Field, Object>> rows) {
+        if (primaryKey.isEmpty()) {
+            return rows;
+        }
+        //primary key values, or a new object for a row without primary key:row
+        Map<Object, Map<Field, Object>> result = new LinkedHashMap<>();
+        for (Map<Field, Object> row : rows) {
+            List<Object> keyValue = new ArrayList<>();
+            for (Field field : primaryKey) {
+                Object value = row.get(field);
+                if (value == null) {
+                    keyValue = null;
+                    break;
+                }
+                keyValue.add(value);
+            }
+            if (keyValue == null) {
+                result.put(new Object(), row);
+                continue;
+            }
+            Map<Field, Object> former = result.remove(keyValue);
+            if (former != null) {
+                former.putAll(row);
+                row = former;
+            }
+            result.put(keyValue, row);
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /**
+     * execute every batch in one round trip on the transaction connection, a batch of enough rows
+     * with the primary key is bulk loaded when the dialect has a bulk loader.
+     */
+    private void executeBatches(final DSLContext context, final JDBCTable table, final Collection<Batch> batches) {
+        if (batches.isEmpty()) {
+            return;
+        }
+        context.connection(new ConnectionRunnable() {
+            @Override
+            public void run(Connection connection) throws Exception {
+                for (Batch batch : batches) {
+                    if (bulkLoader != null && batch.keyIndexes != null && batch.rows.size() >= bulkMinRows
+                            && bulkLoader.supports(batch.fields)) {
+                        bulkLoader.load(context, connection, table.getTable(), batch.fields,
+                                batch.keyIndexes, batch.rows);
+                        counterGroup.addAndGet(BULK_ROWS, (long) batch.rows.size());
+                        counterGroup.incrementAndGet(BULK_LOADS);
+                        log.debug("bulk load {} rows: {}", batch.rows.size(), batch.template);
+                        continue;
+                    }
+                    PreparedStatement ps = null;
+                    try {
+                        ps = batch.template.prepare(connection);
+                        for (Object[] row : batch.rows) {
+                            batch.template.bind(ps, row);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    } finally {
+                        JDBCUtils.safeClose(ps);
+                    }
+                    counterGroup.addAndGet(BATCH_ROWS, (long) batch.rows.size());
+                    counterGroup.incrementAndGet(BATCH_EXECUTIONS);
+                    log.debug("execute {} rows in one batch: {}", batch.rows.size(), batch.template);
+                }
+            }
+        });
+    }
+
+    /**
+     * primary key and unique keys of the table, upsert of the same key value must keep the event order.
+     * the keys are kept until the db table meta changes.
+     */
+    private List<UniqueKey> uniqueKeys(JDBCTable table) {
+        return tableKeys(table).uniqueKeys;
+    }
+
+    /**
+     * @return primary key fields, empty if the table has no primary key
+     */
+    private List<Field> primaryKey(JDBCTable table) {
+        return tableKeys(table).primaryKey;
+    }
+
+    private TableKeys tableKeys(JDBCTable table) {
+        TableKeys result = tableKeysMap.get(table.getName());
+        Table dbTable = table.getTable();
+        if (result != null && result.table == dbTable) {
+            return result;
+        }
+        result = new TableKeys(dbTable);
+        if (dbTable.getPrimaryKey() != null) {
+            result.uniqueKeys.add(dbTable.getPrimaryKey());
+            for (Object keyField : dbTable.getPrimaryKey().getFields()) {
+                result.primaryKey.add((Field) keyField);
+            }
+        }
+        for (Object key : dbTable.getKeys()) {
+            if (!result.uniqueKeys.contains(key)) {
+                result.uniqueKeys.add((UniqueKey) key);
+            }
+        }
+        tableKeysMap.put(table.getName(), result);
+        return result;
+    }
+
+    /**
+     * @return index of the primary key fields in fields, null if some key field is not in fields
+     */
+    private int[] keyIndexes(List<Field> primaryKey, List<Field> fields) {
+        if (primaryKey.isEmpty()) {
+            return null;
+        }
+        int[] result = new int[primaryKey.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = fields.indexOf(primaryKey.get(i));
+            if (result[i] < 0) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * converted values of the table fields in the event, a json body is decoded by the decoder of the table
+     * and falls back to gson when it is not strict json.
+     */
+    private Map<Field, Object> fieldValues(JDBCTable table, Event event) throws Exception {
+        Map<Field, Object> fieldValues = new HashMap<>();
+        Map<String, ?> values = event.getHeaders();
+        if (dataFormat.equals(JDBCSink.DATA_FORMAT_BODY_JSON)) {
+            BodyDecoder bodyDecoder = bodyDecoder(table);
+            Object[] slotValues = new Object[bodyDecoder.fields.length];
+            if (bodyDecoder.decoder.decode(event.getBody(), slotValues)) {
+                for (int i = 0; i < slotValues.length; i++) {
+                    if (slotValues[i] != null) {
+                        Field field = bodyDecoder.fields[i];
+                        fieldValues.put(field, field.getDataType().convert(slotValues[i]));
+                    }
+                }
+                return fieldValues;
+            }
+            values = JsonUtil.jsonToObjectMap(new String(event.getBody(), "UTF-8"));
+        }
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String columnAlias = entry.getKey();
+            if (columnAlias.equals(TABLE)) {
+                continue;
+            }
+            Field field = table.getAliasField(columnAlias);
+            if (field == null) {
+                log.trace("Ignoring field: {}", columnAlias);
+                continue;
+            }
+            DataType dataType = field.getDataType();
+            fieldValues.put(field, dataType.convert(entry.getValue()));
+        }
+        return fieldValues;
+    }
+
+    /**
+     * the field values decoded by {@link #partition}, if the db table did not change since, else decoded again.
+     */
+    private Map<Field, Object> decodedFieldValues(JDBCTable table, Event event) throws Exception {
+        if (keyPartitions > 0) {
+            DecodedRow row = decodedRows.getIfPresent(event);
+            if (row != null) {
+                //a write again after a failure decodes again
+                decodedRows.invalidate(event);
+                if (row.table == table.getTable()) {
+                    return row.fieldValues;
+                }
+            }
+        }
+        return fieldValues(table, event);
+    }
+
+    /**
+     * body decoder of the table, the slots are the table fields, built again when the db table changes.
+     */
+    private BodyDecoder bodyDecoder(final JDBCTable table) {
+        BodyDecoder result = bodyDecoderMap.get(table.getName());
+        if (result == null || result.table != table.getTable()) {
+            final Table dbTable = table.getTable();
+            final Field[] fields = dbTable.fields();
+            JsonFieldDecoder decoder = new JsonFieldDecoder(fields.length, new JsonFieldDecoder.SlotResolver() {
+                @Override
+                public int slot(String key) {
+                    Field field = key.equals(TABLE) ? null : table.getAliasField(key);
+                    return field == null ? -1 : Arrays.asList(fields).indexOf(field);
+                }
+            });
+            result = new BodyDecoder(dbTable, fields, decoder);
+            bodyDecoderMap.put(table.getName(), result);
+        }
+        return result;
+    }
+
+    /**
+     * @return values of every unique key whose fields are all in the row, the first element is the key name
+     */
+    private List<List<Object>> keyValues(List<UniqueKey> uniqueKeys, Map<Field, Object> fieldValues) {
+        List<List<Object>> result = new ArrayList<>();
+        for (UniqueKey uniqueKey : uniqueKeys) {
+            List<Object> keyValue = new ArrayList<>();
+            keyValue.add(uniqueKey.getName());
+            for (Object keyField : uniqueKey.getFields()) {
+                if (!fieldValues.containsKey(keyField)) {
+                    keyValue = null;
+                    break;
+                }
+                keyValue.add(fieldValues.get(keyField));
+            }
+            if (keyValue != null) {
+                result.add(keyValue);
+            }
+        }
+        return result;
+    }
+
+    private String shapeKey(JDBCTable table, List<Field> fields) {
+        StringBuilder key = new StringBuilder(table.getName()).append(":insert");
+        for (Field field : fields) {
+            key.append(':').append(field.getName());
+        }
+        return key.toString();
+    }
+
+    /**
+     * insert on duplicate key update of the fields, the sql is cached per table and field set.
+     */
+    private SqlTemplate insertTemplate(DSLContext context, JDBCTable table, List<Field> fields, String key) {
+        StatementCache statementCache = dbContext.getStatementCache();
+        SqlTemplate template = statementCache.get(key);
+        if (template == null) {
+            InsertSetStep insert = context.insertInto(table.getTable());
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                insert = insert.set(field, SqlTemplate.param(i, field.getDataType()));
+            }
+            InsertOnDuplicateSetStep step = ((InsertSetMoreStep) insert).onDuplicateKeyUpdate();
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                step = step.set(field, SqlTemplate.param(i, field.getDataType()));
+            }
+            template = statementCache.put(key, SqlTemplate.compile((Query) step));
+        }
+        return template;
+    }
+
     @Override
     public boolean executeQuery(DSLContext context, final List<Event> events) throws Exception {
         Map<String, List<Event>> tableEventMap = new HashMap<>();
@@ -124,15 +444,113 @@ class MappingQueryGenerator implements QueryGenerator {
             tableEvents.add(event);
         }
         for (Map.Entry<String, List<Event>> entry : tableEventMap.entrySet()) {
-            String tableAlias = entry.getKey();
-            JDBCTable table = dbContext.getTableWithAlias(tableAlias);
-            if (table == null) {
-                table = new JDBCTable();
-                table.setName(tableAlias);
-                dbContext.addAccessTable(table);
-            }
-            executeTableQuery(context, table, entry.getValue());
+            executeTableQuery(context, resolveTable(entry.getKey()), entry.getValue());
         }
         return true;
     }
+
+    /**
+     * the table alias, or table alias#hash of primary key values when the table is partitioned by key.
+     * events without every primary key field are in the partition of the table alias.
+     */
+    @Override
+    public String partition(Event event) throws Exception {
+        String tableAlias = event.getHeaders().get(TABLE);
+        if (keyPartitions <= 0) {
+            return tableAlias;
+        }
+        JDBCTable table = resolveTable(tableAlias);
+        List<Field> primaryKey = primaryKey(table);
+        if (primaryKey.isEmpty()) {
+            return tableAlias;
+        }
+        Table dbTable = table.getTable();
+        Map<Field, Object> fieldValues = fieldValues(table, event);
+        //the write of the event uses the decoded row
+        decodedRows.put(event, new DecodedRow(dbTable, fieldValues));
+        List<Object> keyValue = new ArrayList<>();
+        for (Field field : primaryKey) {
+            Object value = fieldValues.get(field);
+            if (value == null) {
+                return tableAlias;
+            }
+            keyValue.add(value);
+        }
+        return tableAlias + "#" + (keyValue.hashCode() & Integer.MAX_VALUE) % keyPartitions;
+    }
+
+    @Override
+    public String tableName(Event event) {
+        return event.getHeaders().get(TABLE);
+    }
+
+    /**
+     * table of the alias, the table is added to the context when first seen.
+     */
+    private synchronized JDBCTable resolveTable(String tableAlias) {
+        JDBCTable table = dbContext.getTableWithAlias(tableAlias);
+        if (table == null) {
+            table = new JDBCTable();
+            table.setName(tableAlias);
+            dbContext.addAccessTable(table);
+        }
+        return table;
+    }
+
+    void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    void setKeyPartitions(int keyPartitions) {
+        this.keyPartitions = keyPartitions;
+    }
+
+    /**
+     * keys of a db table, built again when the db table changes.
+     */
+    private static class TableKeys {
+        final Table table;
+        final List<UniqueKey> uniqueKeys = new ArrayList<>();
+        final List<Field> primaryKey = new ArrayList<>();
+
+        TableKeys(Table table) {
+            this.table = table;
+        }
+    }
+
+    private static class BodyDecoder {
+        final Table table;
+        final Field[] fields;
+        final JsonFieldDecoder decoder;
+
+        BodyDecoder(Table table, Field[] fields, JsonFieldDecoder decoder) {
+            this.table = table;
+            this.fields = fields;
+            this.decoder = decoder;
+        }
+    }
+
+    private static class DecodedRow {
+        final Table table;
+        final Map<Field, Object> fieldValues;
+
+        DecodedRow(Table table, Map<Field, Object> fieldValues) {
+            this.table = table;
+            this.fieldValues = fieldValues;
+        }
+    }
+
+    private static class Batch {
+        final SqlTemplate template;
+        final List<Field> fields;
+        //index of primary key fields, null if the fields have no primary key
+        final int[] keyIndexes;
+        final List<Object[]> rows = new ArrayList<>();
+
+        Batch(SqlTemplate template, List<Field> fields, int[] keyIndexes) {
+            this.template = template;
+            this.fields = fields;
+            this.keyIndexes = keyIndexes;
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import com.mysql.cj.jdbc.JdbcStatement;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Table;
+import org.jooq.tools.jdbc.JDBCUtils;
+
+import java.io.ByteArrayInputStream;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * load data local infile from a stream into a temporary table, then insert select on duplicate key update.
+ * the connection need allowLoadLocalInfile=true.
+ */
+class MySQLBulkLoader extends BulkLoader {
+
+    @Override
+    protected String dropStage(DSLContext context) {
+        return "drop temporary table if exists " + STAGE;
+    }
+
+    @Override
+    protected String createStage(DSLContext context, Table table, List<Field> fields) {
+        return "create temporary table " + STAGE + " select " + columns(context, "", fields)
+                + " from " + context.render(table) + " where 1 = 0";
+    }
+
+    @Override
+    protected void copy(DSLContext context, Connection connection, List<Field> fields,
+                        List<Object[]> rows) throws Exception {
+        StringBuilder data = new StringBuilder();
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    data.append('\t');
+                }
+                appendEscaped(data, text(row[i]));
+            }
+            data.append('\n');
+        }
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.unwrap(JdbcStatement.class)
+                    .setLocalInfileInputStream(new ByteArrayInputStream(data.toString().getBytes("UTF-8")));
+            statement.execute("load data local infile '" + STAGE + "' into table " + STAGE
+                    + " character set utf8mb4 fields terminated by '\\t' escaped by '\\\\'"
+                    + " lines terminated by '\\n' (" + columns(context, "", fields) + ")");
+        } finally {
+            JDBCUtils.safeClose(statement);
+        }
+    }
+
+    @Override
+    protected String merge(DSLContext context, Table table, List<Field> fields, int[] keyIndexes) {
+        StringBuilder sql = new StringBuilder("insert into ").append(context.render(table))
+                .append(" (").append(columns(context, "", fields)).append(") select ")
+                .append(columns(context, "", fields)).append(" from ").append(STAGE)
+                .append(" on duplicate key update ");
+        for (int i = 0; i < fields.size(); i++) {
+            String name = name(context, fields.get(i));
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(name).append(" = values(").append(name).append(")");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * \N for null, backslash, tab and line breaks are escaped by backslash.
+     */
+    private static void appendEscaped(StringBuilder data, String value) {
+        if (value == null) {
+            data.append("\\N");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    data.append("\\\\");
+                    break;
+                case '\t':
+                    data.append("\\t");
+                    break;
+                case '\n':
+                    data.append("\\n");
+                    break;
+                case '\r':
+                    data.append("\\r");
+                    break;
+                case '\0':
+                    data.append("\\0");
+                    break;
+                default:
+                    data.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import org.apache.flume.CounterGroup;
+import org.apache.flume.Event;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.TransactionalRunnable;
+import org.jooq.impl.DSL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * write the events of one channel transaction in chunks on a writer thread while the sink keeps taking,
+ * at most depth chunks wait for the writer. every chunk is written in one database transaction which commits
+ * after the last chunk, so the channel transaction commits only after the database transaction,
+ * and a failure on either side rolls back both.
+ */
+class PipelineWriter {
+
+    static final String QUEUE_DEPTH = "pipeline.queue.depth";
+    static final String CHUNKS = "pipeline.chunks";
+    static final String TAKE_MS = "pipeline.take.ms";
+    static final String BLOCKED_MS = "pipeline.blocked.ms";
+    static final String WRITE_MS = "pipeline.write.ms";
+    static final String COMMIT_MS = "pipeline.commit.ms";
+
+    private static final List<Event> END = new ArrayList<>();
+
+    private final BlockingQueue<List<Event>> queue;
+
+    private final CounterGroup counterGroup;
+
+    private final Future<?> future;
+
+    //set by the writer when it starts, or by cancel before it starts so it never runs
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    //counted down after the database transaction committed or rolled back
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    PipelineWriter(ExecutorService service, final DSLContext dslContext, final QueryGenerator queryGenerator,
+                   int depth, final CounterGroup counterGroup) {
+        this.queue = new ArrayBlockingQueue<>(depth);
+        this.counterGroup = counterGroup;
+        this.future = service.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (!started.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    transaction(dslContext, queryGenerator);
+                } finally {
+                    stopped.countDown();
+                }
+            }
+        });
+    }
+
+    private void transaction(DSLContext dslContext, final QueryGenerator queryGenerator) {
+        dslContext.transaction(new TransactionalRunnable() {
+            @Override
+            public void run(Configuration configuration) throws Throwable {
+                DSLContext context = DSL.using(configuration);
+                while (true) {
+                    List<Event> chunk = queue.take();
+                    if (chunk == END) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    if (!queryGenerator.executeQuery(context, chunk)) {
+                        throw new JDBCSinkException("Query failed");
+                    }
+                    counterGroup.addAndGet(WRITE_MS, millis(start));
+                    counterGroup.incrementAndGet(CHUNKS);
+                }
+            }
+        });
+    }
+
+    /**
+     * hand a chunk to the writer, wait while depth chunks are waiting.
+     *
+     * @throws Exception the failure of the writer
+     */
+    void write(List<Event> chunk) throws Exception {
+        long start = System.nanoTime();
+        checkWriter();
+        while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            checkWriter();
+        }
+        counterGroup.addAndGet(BLOCKED_MS, millis(start));
+        counterGroup.set(QUEUE_DEPTH, (long) queue.size());
+    }
+
+    /**
+     * wait for the writer to write every chunk and commit the database transaction.
+     */
+    void finish() throws Exception {
+        long start = System.nanoTime();
+        write(END);
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw failure(e);
+        }
+        counterGroup.addAndGet(COMMIT_MS, millis(start));
+    }
+
+    /**
+     * stop the writer, the database transaction rolls back, {@link #awaitStopped} waits for the rollback.
+     */
+    void cancel() {
+        if (started.compareAndSet(false, true)) {
+            //the writer never runs, there is no transaction
+            stopped.countDown();
+        }
+        future.cancel(true);
+    }
+
+    /**
+     * wait until the database transaction of the writer committed or rolled back, so its locks are released.
+     *
+     * @return false if the writer is still running after the timeout
+     */
+    boolean awaitStopped(long timeout, TimeUnit unit) throws InterruptedException {
+        return stopped.await(timeout, unit);
+    }
+
+    private void checkWriter() throws Exception {
+        if (future.isDone()) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw failure(e);
+            }
+            throw new JDBCSinkException("pipeline writer stopped");
+        }
+    }
+
+    private static Exception failure(ExecutionException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof Exception ? (Exception) cause : new JDBCSinkException(cause);
+    }
+
+    static long millis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,86 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Table;
+import org.postgresql.PGConnection;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.util.List;
+
+/**
+ * copy from stdin in csv format into a temporary table, then insert select on conflict of the primary key.
+ */
+class PostgresBulkLoader extends BulkLoader {
+
+    @Override
+    protected String dropStage(DSLContext context) {
+        return "drop table if exists pg_temp." + STAGE;
+    }
+
+    @Override
+    protected String createStage(DSLContext context, Table table, List<Field> fields) {
+        return "create temporary table " + STAGE + " as select " + columns(context, "", fields)
+                + " from " + context.render(table) + " with no data";
+    }
+
+    @Override
+    protected void copy(DSLContext context, Connection connection, List<Field> fields,
+                        List<Object[]> rows) throws Exception {
+        StringBuilder data = new StringBuilder();
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    data.append(',');
+                }
+                //unquoted empty is null, every value is quoted
+                String value = text(row[i]);
+                if (value != null) {
+                    data.append('"').append(value.replace("\"", "\"\"")).append('"');
+                }
+            }
+            data.append('\n');
+        }
+        connection.unwrap(PGConnection.class).getCopyAPI().copyIn("copy " + STAGE + " ("
+                + columns(context, "", fields) + ") from stdin with (format csv)", new StringReader(data.toString()));
+    }
+
+    @Override
+    protected String merge(DSLContext context, Table table, List<Field> fields, int[] keyIndexes) {
+        StringBuilder sql = new StringBuilder("insert into ").append(context.render(table))
+                .append(" (").append(columns(context, "", fields)).append(") select ")
+                .append(columns(context, "", fields)).append(" from ").append(STAGE)
+                .append(" on conflict (");
+        for (int i = 0; i < keyIndexes.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(name(context, fields.get(keyIndexes[i])));
+        }
+        sql.append(")");
+        StringBuilder update = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            if (isKey(i, keyIndexes)) {
+                continue;
+            }
+            String name = name(context, fields.get(i));
+            if (update.length() > 0) {
+                update.append(", ");
+            }
+            update.append(name).append(" = excluded.").append(name);
+        }
+        if (update.length() == 0) {
+            return sql.append(" do nothing").toString();
+        }
+        return sql.append(" do update set ").append(update).toString();
+    }
+
+    @Override
+    protected String text(Object value) {
+        if (value instanceof Boolean) {
+            return value.toString();
+        }
+        return super.text(value);
+    }
+}
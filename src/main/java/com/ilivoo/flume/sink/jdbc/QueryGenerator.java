@@ -8,4 +8,15 @@ import java.util.List;
 interface QueryGenerator {
 
     boolean executeQuery(DSLContext context, List<Event> event) throws Exception;
+
+    /**
+     * events of the same partition are written in event order by one writer, different partitions may be
+     * written in parallel.
+     */
+    String partition(Event event) throws Exception;
+
+    /**
+     * name of the table the event is written to, used by the dead letter counters.
+     */
+    String tableName(Event event);
 }
@@ -0,0 +1,142 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import com.microsoft.sqlserver.jdbc.ISQLServerBulkRecord;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopyOptions;
+import com.microsoft.sqlserver.jdbc.SQLServerConnection;
+import org.jooq.DSLContext;
+import org.jooq.DataType;
+import org.jooq.Field;
+import org.jooq.Table;
+
+import java.sql.Connection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * bulk copy the rows into a temporary table, then merge it into the table on the primary key.
+ */
+class SQLServerBulkLoader extends BulkLoader {
+
+    private static final String TEMP_STAGE = "#" + STAGE;
+
+    @Override
+    protected String dropStage(DSLContext context) {
+        return "if object_id('tempdb.." + TEMP_STAGE + "') is not null drop table " + TEMP_STAGE;
+    }
+
+    @Override
+    protected String createStage(DSLContext context, Table table, List<Field> fields) {
+        return "select " + columns(context, "", fields) + " into " + TEMP_STAGE
+                + " from " + context.render(table) + " where 1 = 0";
+    }
+
+    @Override
+    protected void copy(DSLContext context, Connection connection, final List<Field> fields,
+                        final List<Object[]> rows) throws Exception {
+        SQLServerBulkCopy bulkCopy = new SQLServerBulkCopy(connection.unwrap(SQLServerConnection.class));
+        try {
+            SQLServerBulkCopyOptions options = new SQLServerBulkCopyOptions();
+            //select into keeps the identity of the column
+            options.setKeepIdentity(true);
+            options.setBatchSize(rows.size());
+            bulkCopy.setBulkCopyOptions(options);
+            bulkCopy.setDestinationTableName(TEMP_STAGE);
+            bulkCopy.writeToServer(new RowsRecord(fields, rows));
+        } finally {
+            bulkCopy.close();
+        }
+    }
+
+    @Override
+    protected String merge(DSLContext context, Table table, List<Field> fields, int[] keyIndexes) {
+        StringBuilder sql = new StringBuilder("merge into ").append(context.render(table))
+                .append(" as t using ").append(TEMP_STAGE).append(" as s on ");
+        for (int i = 0; i < keyIndexes.length; i++) {
+            String name = name(context, fields.get(keyIndexes[i]));
+            if (i > 0) {
+                sql.append(" and ");
+            }
+            sql.append("t.").append(name).append(" = s.").append(name);
+        }
+        StringBuilder update = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            if (isKey(i, keyIndexes)) {
+                continue;
+            }
+            String name = name(context, fields.get(i));
+            if (update.length() > 0) {
+                update.append(", ");
+            }
+            update.append("t.").append(name).append(" = s.").append(name);
+        }
+        if (update.length() > 0) {
+            sql.append(" when matched then update set ").append(update);
+        }
+        return sql.append(" when not matched then insert (").append(columns(context, "", fields))
+                .append(") values (").append(columns(context, "s.", fields)).append(");").toString();
+    }
+
+    /**
+     * the converted rows as bulk copy source, column ordinal starts from 1.
+     */
+    private static class RowsRecord implements ISQLServerBulkRecord {
+        private final List<Field> fields;
+        private final List<Object[]> rows;
+        private int index = -1;
+
+        RowsRecord(List<Field> fields, List<Object[]> rows) {
+            this.fields = fields;
+            this.rows = rows;
+        }
+
+        @Override
+        public Set<Integer> getColumnOrdinals() {
+            Set<Integer> result = new LinkedHashSet<>();
+            for (int i = 1; i <= fields.size(); i++) {
+                result.add(i);
+            }
+            return result;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return fields.get(column - 1).getName();
+        }
+
+        @Override
+        public int getColumnType(int column) {
+            return dataType(column).getSQLType();
+        }
+
+        @Override
+        public int getPrecision(int column) {
+            return dataType(column).precision();
+        }
+
+        @Override
+        public int getScale(int column) {
+            return dataType(column).scale();
+        }
+
+        @Override
+        public boolean isAutoIncrement(int column) {
+            return false;
+        }
+
+        @Override
+        public Object[] getRowData() {
+            return rows.get(index);
+        }
+
+        @Override
+        public boolean next() {
+            return ++index < rows.size();
+        }
+
+        private DataType dataType(int column) {
+            return fields.get(column - 1).getDataType();
+        }
+    }
+}
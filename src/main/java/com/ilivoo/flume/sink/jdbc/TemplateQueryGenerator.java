@@ -4,160 +4,377 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
 import com.ilivoo.flume.jdbc.DBContext;
 import com.ilivoo.flume.jdbc.JDBCTable;
+import com.ilivoo.flume.jdbc.SqlTemplate;
 import com.ilivoo.flume.utils.JsonUtil;
 import org.apache.flume.CounterGroup;
 import org.apache.flume.Event;
+import org.jooq.ConnectionRunnable;
 import org.jooq.DSLContext;
 import org.jooq.DataType;
 import org.jooq.Field;
-import org.jooq.Query;
+import org.jooq.Table;
+import org.jooq.tools.jdbc.JDBCUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * write events by sql templates, every template is compiled once into a jdbc sql and a bind plan,
+ * the events of one template are bound to one prepared statement and executed in one batch.
+ * a named template writes the events whose table header is the name, the default template the others.
+ */
 class TemplateQueryGenerator implements QueryGenerator {
 
     private static final Logger log = LoggerFactory.getLogger(TemplateQueryGenerator.class);
 
-    private static final Pattern TABLE_PATTERN = Pattern.compile("\\$\\$\\{(?<table>[^\\s.{}]+)\\}");
-
-    private static final Pattern FIELD_PATTERN = Pattern.compile("\\$\\{(?<field>[^\\s.{}]+)");
-
-    private static final Pattern VALUE_PATTERN = Pattern.compile("\\#\\{(?<part>[^\\s.{}]+)(?:\\.(?<header>[^\\s.{}]+))?\\}");
-
     private static final String BODY = "BODY";
 
     private static final String TABLE = "table";
 
-    private final List<Parameter> parameters;
+    //template name:template
+    private final Map<String, Template> templates = new LinkedHashMap<>();
 
-    private final String sql;
-
-    private JDBCTable table;
+    //template of the events without a named template, null if every event needs a named template
+    private final Template defaultTemplate;
 
     private String dataFormat;
 
     private CounterGroup counterGroup;
 
     public TemplateQueryGenerator(DBContext<JDBCTable> dbContext, String sql, String dataFormat, CounterGroup counterGroup) {
+        this(dbContext, sql, Collections.<String, String>emptyMap(), dataFormat, counterGroup);
+    }
+
+    /**
+     * @param sql       the default template, may be null
+     * @param namedSqls template name:template
+     */
+    public TemplateQueryGenerator(DBContext<JDBCTable> dbContext, String sql, Map<String, String> namedSqls,
+                                  String dataFormat, CounterGroup counterGroup) {
         this.dataFormat = dataFormat;
         this.counterGroup = counterGroup;
-        //match table name
-        Matcher tableMatcher = TABLE_PATTERN.matcher(sql);
-        String tableName = null;
-        while (tableMatcher.find()) {
-            tableName = tableMatcher.group(TABLE);
-        }
-        sql = tableMatcher.replaceAll(tableName);
-
-        //match field name
-        Matcher fieldMatcher = FIELD_PATTERN.matcher(sql);
-        List<String> fields = new ArrayList<>();
-        while (fieldMatcher.find()) {
-            String field = fieldMatcher.group("field");
-            fields.add(field);
-        }
-        for (String name : fields) {
-            sql = sql.replaceFirst("\\$\\{" + name + "}", name);
-        }
-
-        //match value name
-        parameters = new ArrayList<>();
-        Matcher valueMatcher = VALUE_PATTERN.matcher(sql);
-        while (valueMatcher.find()) {
-            String part = valueMatcher.group("part").toUpperCase(Locale.ENGLISH);
-            String header = valueMatcher.group("header");
-            if (BODY.equals(part) && header != null) {
-                throw new JDBCSinkException("BODY parameter must have no header name specifier (${body}, not (${body.header}");
+        this.defaultTemplate = sql == null ? null : compile(dbContext, sql);
+        for (Map.Entry<String, String> entry : namedSqls.entrySet()) {
+            templates.put(entry.getKey(), compile(dbContext, entry.getValue()));
+        }
+        if (defaultTemplate == null && templates.isEmpty()) {
+            throw new JDBCSinkException("no sql template");
+        }
+    }
+
+    private static Template compile(DBContext<JDBCTable> dbContext, String sql) {
+        Template template = Template.compile(sql);
+        JDBCTable table = dbContext.getTableWithAlias(template.tableName);
+        if (table == null) {
+            table = new JDBCTable();
+            table.setName(template.tableName);
+            dbContext.addAccessTable(table);
+        }
+        template.table = table;
+        //check the fields of the table when configured
+        template.plan();
+        return template;
+    }
+
+    private Template template(Event event) {
+        String name = event.getHeaders().get(TABLE);
+        Template template = name == null ? null : templates.get(name);
+        if (template == null) {
+            template = defaultTemplate;
+        }
+        if (template == null) {
+            throw new JDBCSinkException("no sql template of table: " + name);
+        }
+        return template;
+    }
+
+    @Override
+    public boolean executeQuery(DSLContext context, final List<Event> events) throws Exception {
+        Map<Template, List<Event>> templateEvents = new LinkedHashMap<>();
+        for (Event event : events) {
+            Template template = template(event);
+            List<Event> list = templateEvents.get(template);
+            if (list == null) {
+                list = new ArrayList<>();
+                templateEvents.put(template, list);
             }
-            Parameter parameter = new Parameter(header);
-            parameters.add(parameter);
-        }
-        sql = valueMatcher.replaceAll("?");
-        this.sql = sql;
-
-        //parse parameter
-        if (fields.size() != parameters.size()) {
-            throw new JDBCSinkException("fields size not equal values size");
-        }
-        this.table = new JDBCTable();
-        this.table.setName(tableName);
-        dbContext.addAccessTable(this.table);
-        for (int i = 0; i < fields.size(); i++) {
-            String fieldName = fields.get(i);
-            Parameter parameter = parameters.get(i);
-            Field field = null;
-            for (Field f : table.getTable().fields()) {
-                if (f.getName().equalsIgnoreCase(fieldName)) {
-                    field = f;
-                    break;
+            list.add(event);
+        }
+        for (Map.Entry<Template, List<Event>> entry : templateEvents.entrySet()) {
+            execute(context, entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * bind every event of the template to the plan values and execute them in one batch.
+     */
+    private void execute(DSLContext context, final Template template, List<Event> events) throws Exception {
+        final Plan plan = template.plan();
+        int size = template.parameters.size();
+        final List<Object[]> rows = new ArrayList<>(events.size());
+        Object[] slotValues = new Object[template.bodyDecoder.slots()];
+        for (Event event : events) {
+            Object[] bindings = new Object[size];
+            if (dataFormat.equals(JDBCSink.DATA_FORMAT_BODY_JSON) && template.bodyDecoder.decode(event.getBody(), slotValues)) {
+                for (int j = 0; j < size; j++) {
+                    bindings[j] = template.parameters.get(j).binding(event, slotValues, plan.dataTypes[j]);
+                }
+            } else {
+                Map<String, ?> headerValue = event.getHeaders();
+                if (dataFormat.equals(JDBCSink.DATA_FORMAT_BODY_JSON)) {
+                    String json = new String(event.getBody(), "UTF-8");
+                    headerValue = JsonUtil.jsonToObjectMap(json);
+                }
+                for (int j = 0; j < size; j++) {
+                    bindings[j] = template.parameters.get(j).binding(event, headerValue, plan.dataTypes[j]);
                 }
             }
-            if (field == null) {
-                throw new JDBCSinkException("no field find: " + fieldName + ", in table: " + tableName);
-            }
-            parameter.setDataType(field.getDataType());
+            rows.add(bindings);
         }
+        context.connection(new ConnectionRunnable() {
+            @Override
+            public void run(Connection connection) throws Exception {
+                PreparedStatement ps = null;
+                try {
+                    ps = plan.sqlTemplate.prepare(connection);
+                    for (Object[] row : rows) {
+                        plan.sqlTemplate.bind(ps, row);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } finally {
+                    JDBCUtils.safeClose(ps);
+                }
+            }
+        });
+        counterGroup.addAndGet(MappingQueryGenerator.BATCH_ROWS, (long) rows.size());
+        counterGroup.incrementAndGet(MappingQueryGenerator.BATCH_EXECUTIONS);
+        counterGroup.addAndGet(template.table.getName(), new Long(events.size()));
+        log.debug("execute {} rows in one batch: {}", rows.size(), plan.sqlTemplate);
     }
 
+    /**
+     * every template writes one table in event order, the events of a template are one partition.
+     */
     @Override
-    public boolean executeQuery(DSLContext context, final List<Event> events) throws Exception {
-        List<Query> queries = new ArrayList<>();
-        for (int i = 0; i < events.size(); i++) {
-            final Object[] bindings = new Object[this.parameters.size()];
-            Map<String, ?> headerValue = events.get(i).getHeaders();
-            if (dataFormat.equals(JDBCSink.DATA_FORMAT_BODY_JSON)) {
-                String json = new String(events.get(i).getBody(), "UTF-8");
-                headerValue = JsonUtil.jsonToObjectMap(json);
+    public String partition(Event event) {
+        return template(event).table.getName();
+    }
+
+    @Override
+    public String tableName(Event event) {
+        String name = event.getHeaders().get(TABLE);
+        Template template = name == null ? null : templates.get(name);
+        if (template == null) {
+            template = defaultTemplate;
+        }
+        return template == null ? name : template.table.getName();
+    }
+
+    /**
+     * sql template parsed once: $${table} is the table name, ${field} a field of the table, and
+     * #{body} or #{header.name} the value of the field of the same position.
+     */
+    static class Template {
+
+        final String tableName;
+
+        //the sql with field names and a placeholder for every value
+        final String sql;
+
+        final List<String> fields;
+
+        final List<Parameter> parameters;
+
+        //decoder of the json body, the slots are the distinct header names of parameters
+        final JsonFieldDecoder bodyDecoder;
+
+        JDBCTable table;
+
+        private Plan plan;
+
+        private Template(String tableName, String sql, List<String> fields, List<Parameter> parameters) {
+            this.tableName = tableName;
+            this.sql = sql;
+            this.fields = fields;
+            this.parameters = parameters;
+            final List<String> headers = new ArrayList<>();
+            for (Parameter parameter : parameters) {
+                if (parameter.header != null) {
+                    if (!headers.contains(parameter.header)) {
+                        headers.add(parameter.header);
+                    }
+                    parameter.slot = headers.indexOf(parameter.header);
+                }
+            }
+            this.bodyDecoder = new JsonFieldDecoder(headers.size(), new JsonFieldDecoder.SlotResolver() {
+                @Override
+                public int slot(String key) {
+                    return headers.indexOf(key);
+                }
+            });
+        }
+
+        /**
+         * scan the sql once, the last $${table} is the table of the template.
+         */
+        static Template compile(String sql) {
+            StringBuilder result = new StringBuilder(sql.length());
+            String tableName = null;
+            List<String> fields = new ArrayList<>();
+            List<Parameter> parameters = new ArrayList<>();
+            int i = 0;
+            while (i < sql.length()) {
+                if (sql.startsWith("$${", i)) {
+                    int end = placeholderEnd(sql, i + 3);
+                    tableName = sql.substring(i + 3, end);
+                    result.append(tableName);
+                    i = end + 1;
+                } else if (sql.startsWith("${", i)) {
+                    int end = placeholderEnd(sql, i + 2);
+                    String field = sql.substring(i + 2, end);
+                    fields.add(field);
+                    result.append(field);
+                    i = end + 1;
+                } else if (sql.startsWith("#{", i)) {
+                    int end = placeholderEnd(sql, i + 2);
+                    String value = sql.substring(i + 2, end);
+                    int dot = value.indexOf('.');
+                    String part = (dot < 0 ? value : value.substring(0, dot)).toUpperCase(Locale.ENGLISH);
+                    String header = dot < 0 ? null : value.substring(dot + 1);
+                    if (part.isEmpty() || header != null && (header.isEmpty() || header.indexOf('.') >= 0)) {
+                        throw new JDBCSinkException("invalid parameter #{" + value + "} in sql: " + sql);
+                    }
+                    if (BODY.equals(part) && header != null) {
+                        throw new JDBCSinkException("BODY parameter must have no header name specifier (${body}, not (${body.header}");
+                    }
+                    parameters.add(new Parameter(header));
+                    result.append('?');
+                    i = end + 1;
+                } else {
+                    result.append(sql.charAt(i++));
+                }
             }
-            for (int j = 0; j < this.parameters.size(); j++) {
-                bindings[j] = this.parameters.get(j).binding(events.get(i), headerValue);
+            if (tableName == null) {
+                throw new JDBCSinkException("no table $${table} in sql: " + sql);
             }
-            queries.add(context.query(this.sql, bindings));
+            if (fields.size() != parameters.size()) {
+                throw new JDBCSinkException("fields size not equal values size");
+            }
+            return new Template(tableName, result.toString(), fields, parameters);
+        }
+
+        /**
+         * @return index of the } closing the placeholder name starting at start
+         */
+        private static int placeholderEnd(String sql, int start) {
+            int i = start;
+            while (i < sql.length() && sql.charAt(i) != '}') {
+                char c = sql.charAt(i);
+                if (Character.isWhitespace(c) || c == '{') {
+                    break;
+                }
+                i++;
+            }
+            if (i == start || i >= sql.length() || sql.charAt(i) != '}') {
+                throw new JDBCSinkException("invalid placeholder at " + start + " in sql: " + sql);
+            }
+            return i;
+        }
+
+        /**
+         * the plan of the current db table, built again when the db table changes.
+         */
+        synchronized Plan plan() {
+            Table dbTable = table.getTable();
+            if (plan == null || plan.dbTable != dbTable) {
+                DataType<?>[] dataTypes = new DataType<?>[fields.size()];
+                int[] sqlTypes = new int[fields.size()];
+                for (int i = 0; i < dataTypes.length; i++) {
+                    String fieldName = fields.get(i);
+                    Field field = null;
+                    for (Field f : dbTable.fields()) {
+                        if (f.getName().equalsIgnoreCase(fieldName)) {
+                            field = f;
+                            break;
+                        }
+                    }
+                    if (field == null) {
+                        throw new JDBCSinkException("no field find: " + fieldName + ", in table: " + tableName);
+                    }
+                    dataTypes[i] = field.getDataType();
+                    sqlTypes[i] = dataTypes[i].getSQLType();
+                }
+                plan = new Plan(dbTable, SqlTemplate.of(sql, sqlTypes), dataTypes);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * jdbc sql and data types of the values, for one version of the db table.
+     */
+    private static class Plan {
+        final Table dbTable;
+        final SqlTemplate sqlTemplate;
+        final DataType<?>[] dataTypes;
+
+        Plan(Table dbTable, SqlTemplate sqlTemplate, DataType<?>[] dataTypes) {
+            this.dbTable = dbTable;
+            this.sqlTemplate = sqlTemplate;
+            this.dataTypes = dataTypes;
         }
-        context.batch(queries).execute();
-        counterGroup.addAndGet(table.getName(), new Long(events.size()));
-        return true;
     }
 
-    private static class Parameter {
+    static class Parameter {
 
-        private final String header;
-        private DataType<?> dataType;
+        //header name, null for the body
+        final String header;
+        //slot of the header in the decoded body
+        private int slot = -1;
 
         Parameter(final String header) {
             this.header = header;
         }
 
-        void setDataType(DataType<?> dataType) {
-            this.dataType = dataType;
+        Object binding(Event event, Object[] slotValues, DataType<?> dataType) {
+            if (header == null) {
+                return dataType.convert(new String(event.getBody(), Charsets.UTF_8));
+            }
+            Object value = slotValues[slot];
+            if (value == null) {
+                log.trace("No bindable field found for {}", this);
+                return null;
+            }
+            return dataType.convert(value);
         }
 
-        Object binding(Event event, Map<String, ?> headerValues) {
+        Object binding(Event event, Map<String, ?> headerValues, DataType<?> dataType) {
             if (header == null) {
                 final byte body[] = event.getBody();
                 return dataType.convert(new String(body, Charsets.UTF_8));
-            } else {
-                for (final Map.Entry<String, ?> entry : headerValues.entrySet()) {
-                    if (entry.getKey().equals(header)) {
-                        return dataType.convert(entry.getValue());
-                    }
-                }
             }
-            log.trace("No bindable field found for {}", this);
-            return null;
+            Object value = headerValues.get(header);
+            if (value == null) {
+                log.trace("No bindable field found for {}", this);
+                return null;
+            }
+            return dataType.convert(value);
         }
 
         @Override
         public String toString() {
             return Objects.toStringHelper(Parameter.class)
-                    .add("header", header).add("dataType", dataType).toString();
+                    .add("header", header).toString();
         }
     }
 
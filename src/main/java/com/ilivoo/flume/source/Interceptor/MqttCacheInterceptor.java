@@ -9,6 +9,8 @@ import com.googlecode.aviator.AviatorEvaluator;
 import com.googlecode.aviator.Expression;
 import com.googlecode.aviator.utils.Utils;
 import com.ilivoo.flume.sink.cache.CacheHelper;
+import com.ilivoo.flume.sink.cache.CacheListener;
+import com.ilivoo.flume.sink.cache.CacheRecord;
 import com.ilivoo.flume.utils.JsonUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.flume.Context;
@@ -29,13 +31,34 @@ public class MqttCacheInterceptor extends MqttInterceptor {
 
     private static final String CACHE_CHECK_INTERVAL = "cacheCheckInterval";
 
+    //wait: sleep the source thread until the client is cached, park: park the events of the client
+    private static final String CACHE_MISS_MODE = "cacheMissMode";
+    private static final String PARK_CAPACITY = "parkCapacity";
+    private static final String PARK_TIMEOUT = "parkTimeout";
+    private static final String SPILL_HEADER = "spillHeader";
+    //file keeping the parked events when closed, parked again when started
+    private static final String PARK_FILE = "parkFile";
+
     private static final String CONVERTER_KEY = "converterKey";
 
+    //properties of the cache, like cache.loaders = device, when no cache sink configures it
+    private static final String CACHE_PREFIX = "cache.";
+
     private static final String ANONYMOUS = "<Anonymous>";
 
 
     private static final long DEFAULT_CACHE_CHECK_INTERVAL = 10;
 
+    private static final String MODE_WAIT = "wait";
+    private static final String MODE_PARK = "park";
+    private static final int DEFAULT_PARK_CAPACITY = 10000;
+    private static final long DEFAULT_PARK_TIMEOUT = 60;
+    private static final String DEFAULT_SPILL_HEADER = "cacheSpill";
+
+    //spill header values
+    private static final String SPILL_OVERFLOW = "overflow";
+    private static final String SPILL_TIMEOUT = "timeout";
+
     private String cacheName;
 
     private String[] cacheIncludes;
@@ -44,6 +67,23 @@ public class MqttCacheInterceptor extends MqttInterceptor {
 
     private String converterKey;
 
+    //null in wait mode
+    private ParkedEvents parkedEvents;
+
+    private String spillHeader;
+
+    //null drop the parked events when closed
+    private File parkFile;
+
+    private final CacheListener cacheListener = new CacheListener() {
+        @Override
+        public void cachePut(String name, String key, Map<String, String> value) {
+            if (name.equals(cacheName)) {
+                parkedEvents.release(key);
+            }
+        }
+    };
+
     //topic filter
     private int topicPosition = -1;
     private String topicKey;
@@ -59,7 +99,7 @@ public class MqttCacheInterceptor extends MqttInterceptor {
         if (ANONYMOUS.equals(clientId)) {
             return null;
         }
-        Map<String, String> cacheValue = CacheHelper.get(cacheName, clientId);
+        CacheRecord cacheValue = CacheHelper.get(cacheName, clientId);
         long waitTime = 0;
         while (cacheValue == null) {
             try {
@@ -75,7 +115,78 @@ public class MqttCacheInterceptor extends MqttInterceptor {
         return cacheMqttIntercept(recordInfo, publishInfo, cacheValue);
     }
 
-    protected Event cacheMqttIntercept(KafkaRecordInfo recordInfo, MqttPublishInfo publishInfo, Map<String, String> deviceInfo) {
+    @Override
+    protected Event mqttIntercept(Event event, KafkaRecordInfo recordInfo, MqttPublishInfo publishInfo) {
+        if (parkedEvents == null) {
+            return mqttIntercept(recordInfo, publishInfo);
+        }
+        String clientId = publishInfo.clientId();
+        if (ANONYMOUS.equals(clientId)) {
+            return null;
+        }
+        CacheRecord cacheValue = null;
+        //the cache put releases the client under the same lock, so a parked client is always released
+        synchronized (parkedEvents) {
+            //keep the order of the client, later events wait behind the parked ones,
+            //a missing client is loaded in the background and released by the put
+            if (!parkedEvents.contains(clientId)) {
+                cacheValue = CacheHelper.getIfPresent(cacheName, clientId);
+            }
+            if (cacheValue == null) {
+                if (parkedEvents.park(clientId, event, System.currentTimeMillis())) {
+                    LOG.debug("cache value not exist, name {}, key {}, event parked", cacheName, clientId);
+                    return null;
+                }
+                LOG.warn("parked events full, name {}, key {}, event spilled", cacheName, clientId);
+                return spill(event, SPILL_OVERFLOW);
+            }
+        }
+        return cacheMqttIntercept(recordInfo, publishInfo, cacheValue);
+    }
+
+    @Override
+    public List<Event> intercept(List<Event> events) {
+        if (parkedEvents == null) {
+            return super.intercept(events);
+        }
+        List<Event> newEvents = new ArrayList<>();
+        drainParked(newEvents);
+        newEvents.addAll(super.intercept(events));
+        //clients cached while the batch is intercepted
+        drainParked(newEvents);
+        return newEvents;
+    }
+
+    private void drainParked(List<Event> newEvents) {
+        List<Event> released = new ArrayList<>();
+        List<Event> expired = new ArrayList<>();
+        parkedEvents.drain(System.currentTimeMillis(), released, expired);
+        for (Event event : released) {
+            Event newEvent = intercept(event);
+            if (newEvent != null) {
+                newEvents.add(newEvent);
+            }
+        }
+        for (Event event : expired) {
+            newEvents.add(spill(event, SPILL_TIMEOUT));
+        }
+        if (!released.isEmpty() || !expired.isEmpty()) {
+            LOG.info("parked events, released {}, timeout {}, remain {}", released.size(), expired.size(), parkedEvents.size());
+        }
+    }
+
+    /**
+     * the origin kafka event with the spill header, route it by the multiplexing channel selector.
+     */
+    private Event spill(Event event, String reason) {
+        event.getHeaders().put(spillHeader, reason);
+        return event;
+    }
+
+    /**
+     * @param deviceInfo shared by the events of the client, copy the columns into the event maps
+     */
+    protected Event cacheMqttIntercept(KafkaRecordInfo recordInfo, MqttPublishInfo publishInfo, CacheRecord deviceInfo) {
         LOG.debug("interceptor message from client id: {}", recordInfo.key());
         if (topicPosition != -1) { ;
             LOG.debug("mqtt topic {}", publishInfo.topic());
@@ -116,38 +227,36 @@ public class MqttCacheInterceptor extends MqttInterceptor {
 
         if (cacheIncludes != null && cacheIncludes.length > 0) {
             for (Map<String, String> payload : payloads) {
-                for (String key : cacheIncludes) {
-                    String value = deviceInfo.get(key);
-                    if (!Strings.isNullOrEmpty(value)) {
-                        payload.put(key, value);
-                    }
-                }
+                deviceInfo.copyTo(payload, cacheIncludes);
             }
         } else {
             for (Map<String, String> payload : payloads) {
-                payload.putAll(deviceInfo);
+                deviceInfo.copyTo(payload);
             }
         }
 
-        for (Map<String, String> payload : payloads) {
-            Map<String, Object> env = Maps.transformValues(payload, new Function<String, Object>() {
-                @Override
-                public Object apply(@Nullable String input) {
-                    return input;
-                }
-            });
-            Map<String, Object> modifyEnv = new HashMap<>();
-            modifyEnv.putAll(env);
-            for (Map.Entry<String, Expression> entry : transMap.entrySet()) {
-                Object transValue;
-                try {
-                    transValue = entry.getValue().execute(modifyEnv);
-                } catch (Exception e) {
-                    LOG.warn("script [{}] execute error, env {}", entry.getKey(), modifyEnv);
-                    throw new RuntimeException(e);
-                }
-                if (transValue != null) {
-                    payload.put(entry.getKey(), transValue.toString());
+        //the script env is a copy of every payload, only made when there are transforms
+        if (!transMap.isEmpty()) {
+            for (Map<String, String> payload : payloads) {
+                Map<String, Object> env = Maps.transformValues(payload, new Function<String, Object>() {
+                    @Override
+                    public Object apply(@Nullable String input) {
+                        return input;
+                    }
+                });
+                Map<String, Object> modifyEnv = new HashMap<>();
+                modifyEnv.putAll(env);
+                for (Map.Entry<String, Expression> entry : transMap.entrySet()) {
+                    Object transValue;
+                    try {
+                        transValue = entry.getValue().execute(modifyEnv);
+                    } catch (Exception e) {
+                        LOG.warn("script [{}] execute error, env {}", entry.getKey(), modifyEnv);
+                        throw new RuntimeException(e);
+                    }
+                    if (transValue != null) {
+                        payload.put(entry.getKey(), transValue.toString());
+                    }
                 }
             }
         }
@@ -161,9 +270,9 @@ public class MqttCacheInterceptor extends MqttInterceptor {
         } else {
             events = payloads;
         }
-        Map<String, String> headerMap = new HashMap<>();
+        Map<String, String> headerMap = new HashMap<>((deviceInfo.size() + 1) * 4 / 3 + 1);
         headerMap.put("key", recordInfo.key());
-        headerMap.putAll(deviceInfo);
+        deviceInfo.copyTo(headerMap);
         return EventBuilder.withBody(JsonUtil.toJson(events), StandardCharsets.UTF_8, headerMap);
     }
 
@@ -174,6 +283,11 @@ public class MqttCacheInterceptor extends MqttInterceptor {
         this.cacheName = context.getString(CACHE_NAME);
         Preconditions.checkArgument(!Strings.isNullOrEmpty(cacheName));
 
+        Map<String, String> cacheProperties = context.getSubProperties(CACHE_PREFIX);
+        if (!cacheProperties.isEmpty()) {
+            CacheHelper.configure(new Context(cacheProperties));
+        }
+
         String cacheIncludesListStr = context.getString(CACHE_INCLUDES);
         if (!Strings.isNullOrEmpty(cacheIncludesListStr)) {
             cacheIncludes = cacheIncludesListStr.split("\\s+");
@@ -185,6 +299,21 @@ public class MqttCacheInterceptor extends MqttInterceptor {
         converterKey = context.getString(CONVERTER_KEY);
         Preconditions.checkArgument(!Strings.isNullOrEmpty(converterKey));
 
+        String cacheMissMode = context.getString(CACHE_MISS_MODE, MODE_WAIT);
+        Preconditions.checkArgument(MODE_WAIT.equals(cacheMissMode) || MODE_PARK.equals(cacheMissMode),
+                "cacheMissMode must be wait or park");
+        if (MODE_PARK.equals(cacheMissMode)) {
+            int parkCapacity = context.getInteger(PARK_CAPACITY, DEFAULT_PARK_CAPACITY);
+            Preconditions.checkArgument(parkCapacity > 0, "parkCapacity must be greater than 0");
+            long parkTimeout = context.getLong(PARK_TIMEOUT, DEFAULT_PARK_TIMEOUT);
+            Preconditions.checkArgument(parkTimeout >= 0, "parkTimeout must not be negative");
+            spillHeader = context.getString(SPILL_HEADER, DEFAULT_SPILL_HEADER);
+            Preconditions.checkArgument(!Strings.isNullOrEmpty(spillHeader));
+            parkedEvents = new ParkedEvents(parkCapacity, parkTimeout * 1000);
+            String parkFilePath = context.getString(PARK_FILE);
+            parkFile = Strings.isNullOrEmpty(parkFilePath) ? null : new File(parkFilePath);
+        }
+
         String filters = context.getString("filters");
         if (!Strings.isNullOrEmpty(filters)) {
             String[] filterNames = filters.split("\\s+");
@@ -238,12 +367,71 @@ public class MqttCacheInterceptor extends MqttInterceptor {
 
     @Override
     public void initialize() {
+        if (parkedEvents != null) {
+            CacheHelper.addListener(cacheListener);
+            if (parkFile != null && parkFile.exists()) {
+                restoreParked();
+            }
+        }
+    }
 
+    /**
+     * park the events kept when closed, a client cached meanwhile is released at once,
+     * the others are loaded in the background like a new miss.
+     */
+    private void restoreParked() {
+        Map<String, List<Event>> clientEvents;
+        try {
+            clientEvents = ParkedEvents.read(parkFile);
+        } catch (IOException e) {
+            throw new FlumeException("Failed reading parked events " + parkFile, e);
+        }
+        int count = 0;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, List<Event>> entry : clientEvents.entrySet()) {
+            synchronized (parkedEvents) {
+                parkedEvents.restore(entry.getKey(), entry.getValue(), now);
+                if (CacheHelper.getIfPresent(cacheName, entry.getKey()) != null) {
+                    parkedEvents.release(entry.getKey());
+                }
+            }
+            count += entry.getValue().size();
+        }
+        if (!parkFile.delete()) {
+            throw new FlumeException("Failed deleting parked events " + parkFile);
+        }
+        LOG.info("restore {} parked events of {} clients from {}", count, clientEvents.size(), parkFile);
     }
 
+    /**
+     * the parked events are not emitted after close, they are kept in parkFile if configured, else dropped.
+     */
     @Override
     public void close() {
-
+        if (parkedEvents == null) {
+            return;
+        }
+        CacheHelper.removeListener(cacheListener);
+        Map<String, List<Event>> clientEvents = parkedEvents.drainAll();
+        if (clientEvents.isEmpty()) {
+            return;
+        }
+        int count = 0;
+        for (List<Event> events : clientEvents.values()) {
+            count += events.size();
+        }
+        if (parkFile == null) {
+            LOG.error("close with {} parked events of clients {} dropped, set {} to keep them",
+                    count, clientEvents.keySet(), PARK_FILE);
+            return;
+        }
+        try {
+            ParkedEvents.write(parkFile, clientEvents);
+            LOG.info("close with {} parked events of {} clients kept in {}", count, clientEvents.size(), parkFile);
+        } catch (IOException e) {
+            LOG.error("close with " + count + " parked events of clients " + clientEvents.keySet()
+                    + " dropped, failed writing " + parkFile, e);
+        }
     }
 
     public static void main(String[] args) {
@@ -136,7 +136,14 @@ public abstract class MqttInterceptor implements Interceptor, Builder {
                 return mqttInfo;
             }
         };
-        return mqttIntercept(kafkaRecordInfo, mqttPublishInfo);
+        return mqttIntercept(event, kafkaRecordInfo, mqttPublishInfo);
+    }
+
+    /**
+     * @param event the kafka event of the record
+     */
+    protected Event mqttIntercept(Event event, KafkaRecordInfo recordInfo, MqttPublishInfo publishInfo) {
+        return mqttIntercept(recordInfo, publishInfo);
     }
 
     protected abstract Event mqttIntercept(KafkaRecordInfo recordInfo, MqttPublishInfo publishInfo);
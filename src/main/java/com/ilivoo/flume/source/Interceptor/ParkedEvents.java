@@ -0,0 +1,218 @@
+package com.ilivoo.flume.source.Interceptor;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * events of the clients not in the cache yet, at most capacity events.
+ * the events of a client are kept in order until the client is released by the cache put,
+ * or until timeout after the first event of the client is parked.
+ */
+class ParkedEvents {
+
+    private final int capacity;
+
+    //millis, 0 never timeout
+    private final long timeout;
+
+    //client id:client, in the order of the first parked event
+    private final LinkedHashMap<String, Client> clients = new LinkedHashMap<>();
+
+    //clients released since the last drain
+    private final List<Client> released = new ArrayList<>();
+
+    private int size;
+
+    ParkedEvents(int capacity, long timeout) {
+        this.capacity = capacity;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return true if the client has parked events not drained, later events of the client must be parked
+     */
+    synchronized boolean contains(String clientId) {
+        return clients.containsKey(clientId);
+    }
+
+    /**
+     * @return false if capacity events are parked
+     */
+    synchronized boolean park(String clientId, Event event, long now) {
+        if (size >= capacity) {
+            return false;
+        }
+        Client client = clients.get(clientId);
+        if (client == null) {
+            client = new Client(clientId, now);
+            clients.put(clientId, client);
+        }
+        client.events.add(event);
+        size++;
+        return true;
+    }
+
+    /**
+     * the events of the client are drained by the next drain.
+     */
+    synchronized void release(String clientId) {
+        Client client = clients.get(clientId);
+        if (client != null && !client.released) {
+            client.released = true;
+            released.add(client);
+        }
+    }
+
+    /**
+     * @param releasedEvents the events of released clients, in the order of release and of every client
+     * @param expiredEvents  the events of clients parked longer than timeout
+     */
+    synchronized void drain(long now, List<Event> releasedEvents, List<Event> expiredEvents) {
+        for (Client client : released) {
+            clients.remove(client.id);
+            releasedEvents.addAll(client.events);
+            size -= client.events.size();
+        }
+        released.clear();
+        if (timeout <= 0) {
+            return;
+        }
+        Iterator<Client> iterator = clients.values().iterator();
+        while (iterator.hasNext()) {
+            Client client = iterator.next();
+            if (now - client.parkTime < timeout) {
+                break;
+            }
+            iterator.remove();
+            expiredEvents.addAll(client.events);
+            size -= client.events.size();
+        }
+    }
+
+    /**
+     * park the events kept by {@link #write} before a restart, the capacity is not checked.
+     */
+    synchronized void restore(String clientId, List<Event> events, long now) {
+        Client client = clients.get(clientId);
+        if (client == null) {
+            client = new Client(clientId, now);
+            clients.put(clientId, client);
+        }
+        client.events.addAll(events);
+        size += events.size();
+    }
+
+    /**
+     * remove every client.
+     *
+     * @return client id:events, in the order of the first parked event
+     */
+    synchronized Map<String, List<Event>> drainAll() {
+        Map<String, List<Event>> result = new LinkedHashMap<>();
+        for (Client client : clients.values()) {
+            result.put(client.id, client.events);
+        }
+        clients.clear();
+        released.clear();
+        size = 0;
+        return result;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * write the events of the clients, the file is replaced atomically.
+     */
+    static void write(File file, Map<String, List<Event>> clientEvents) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            Files.createDirectories(dir.toPath());
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(clientEvents.size());
+            for (Map.Entry<String, List<Event>> entry : clientEvents.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Event event : entry.getValue()) {
+                    out.writeInt(event.getHeaders().size());
+                    for (Map.Entry<String, String> header : event.getHeaders().entrySet()) {
+                        out.writeUTF(header.getKey());
+                        out.writeUTF(header.getValue());
+                    }
+                    out.writeInt(event.getBody().length);
+                    out.write(event.getBody());
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return client id:events written by {@link #write}
+     */
+    static Map<String, List<Event>> read(File file) throws IOException {
+        Map<String, List<Event>> result = new LinkedHashMap<>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int clientCount = in.readInt();
+            for (int i = 0; i < clientCount; i++) {
+                String clientId = in.readUTF();
+                int eventCount = in.readInt();
+                List<Event> events = new ArrayList<>(eventCount);
+                for (int j = 0; j < eventCount; j++) {
+                    int headerCount = in.readInt();
+                    Map<String, String> headers = new HashMap<>();
+                    for (int k = 0; k < headerCount; k++) {
+                        headers.put(in.readUTF(), in.readUTF());
+                    }
+                    byte[] body = new byte[in.readInt()];
+                    in.readFully(body);
+                    events.add(EventBuilder.withBody(body, headers));
+                }
+                result.put(clientId, events);
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+
+    private static class Client {
+        final String id;
+        //time of the first parked event
+        final long parkTime;
+        final List<Event> events = new ArrayList<>();
+        boolean released;
+
+        Client(String id, long parkTime) {
+            this.id = id;
+            this.parkTime = parkTime;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.ilivoo.flume.source.jdbc;
+
+import com.ilivoo.flume.jdbc.DBContext;
+import com.ilivoo.flume.jdbc.JDBCTable;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * table read by {@link JDBCSource}, keeps the position and the poll schedule of the table.
+ * every row is sent as a json object of column alias:value with the table alias in the table header,
+ * see {@link JsonRowEncoder}.
+ */
+public abstract class BaseSourceTable extends JDBCTable {
+    //next poll time of table or identifies
+    protected PollScheduler scheduler;
+    //position store
+    protected PositionStore positionStore = new FilePositionStore();
+    //write position after every batch handled instead of timer
+    protected boolean commitCheckpoint;
+    //idle max time
+    protected long idleMax;
+    //idle interval;
+    protected long idleInterval;
+    //jdbc fetch size, 0 use driver default
+    protected int fetchSize;
+
+    @Override
+    protected void initTable(DBContext<?> dbContext) {
+        super.initTable(dbContext);
+        scheduler = new PollScheduler(idleInterval, idleMax);
+        try {
+            positionStore.open(dbContext.getPositionPath() + "/" + name);
+        } catch (IOException e) {
+            throw new JDBCSourceException("Failed opening position of table " + name, e);
+        }
+    }
+
+    /**
+     * read the rows after current position, hand them to handler in batches of batchSize,
+     * the position moves forward only after the handler accept the batch.
+     *
+     * @return the number of events handled
+     */
+    abstract int readEvents(long batchSize, EventBatchHandler handler);
+
+    abstract void writePosition();
+
+    void findNewIdentify() {
+    }
+
+    /**
+     * @return the earliest time this table has something to poll
+     */
+    long nextPollTime() {
+        return scheduler.nextDeadline();
+    }
+
+    protected Map<String, String> readPosition() {
+        try {
+            return positionStore.read();
+        } catch (IOException e) {
+            throw new JDBCSourceException("Failed loading position of table " + name, e);
+        }
+    }
+
+    void closePosition() {
+        positionStore.close();
+    }
+
+    public long getIdleMax() {
+        return idleMax;
+    }
+
+    public void setIdleMax(long idleMax) {
+        this.idleMax = idleMax;
+    }
+
+    public long getIdleInterval() {
+        return idleInterval;
+    }
+
+    public void setIdleInterval(long idleInterval) {
+        this.idleInterval = idleInterval;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public PositionStore getPositionStore() {
+        return positionStore;
+    }
+
+    public void setPositionStore(PositionStore positionStore) {
+        this.positionStore = positionStore;
+    }
+
+    public boolean isCommitCheckpoint() {
+        return commitCheckpoint;
+    }
+
+    public void setCommitCheckpoint(boolean commitCheckpoint) {
+        this.commitCheckpoint = commitCheckpoint;
+    }
+}
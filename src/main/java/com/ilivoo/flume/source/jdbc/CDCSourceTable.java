@@ -0,0 +1,324 @@
+package com.ilivoo.flume.source.jdbc;
+
+import com.google.common.base.Strings;
+import com.ilivoo.flume.jdbc.DBContext;
+import com.ilivoo.flume.jdbc.SqlTemplate;
+import com.ilivoo.flume.jdbc.StatementCache;
+import org.apache.commons.lang.mutable.MutableInt;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.jooq.Condition;
+import org.jooq.ConnectionRunnable;
+import org.jooq.Field;
+import org.jooq.SQLDialect;
+import org.jooq.Select;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.jooq.tools.jdbc.JDBCUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+
+/**
+ * read the sql server cdc change table of a table instead of polling the increment column,
+ * so updates and deletes are read too. the row has the same json body and table header as
+ * {@link JDBCSourceTable}, the operation header is insert, update or delete.
+ * position is start_lsn:seqval:operation of the last handled change, kept in the position store.
+ */
+public class CDCSourceTable extends BaseSourceTable {
+    public static final String OPERATION_HEADER = "operation";
+    public static final String START_EARLIEST = "earliest";
+    public static final String START_LATEST = "latest";
+    private static final String START_LSN = "__$start_lsn";
+    private static final String SEQVAL = "__$seqval";
+    private static final String OPERATION = "__$operation";
+    //update before image, only the after image is sent
+    private static final int OPERATION_UPDATE_BEFORE = 3;
+    private static final int LSN_LENGTH = 10;
+    private static final String CAPTURED_COLUMNS_SQL = "select cc.column_name from cdc.captured_columns cc " +
+            "join cdc.change_tables ct on cc.object_id = ct.object_id where ct.capture_instance = ? " +
+            "order by cc.column_ordinal";
+    private static final String MIN_LSN_SQL = "select sys.fn_cdc_get_min_lsn(?)";
+    private static final String MAX_LSN_SQL = "select sys.fn_cdc_get_max_lsn()";
+    //cdc capture instance, default schema_table
+    private String captureInstance;
+    //start of the table without position: earliest or latest
+    private String cdcStart = START_EARLIEST;
+    //columns captured by the capture instance
+    private List<String> capturedColumns = new ArrayList<>();
+    //start_lsn:seqval:operation
+    private volatile String position;
+
+    @Override
+    protected void initTable(DBContext<?> dbContext) {
+        super.initTable(dbContext);
+        if (dbContext.dslContext().dialect().family() != SQLDialect.SQLSERVER) {
+            throw new JDBCSourceException("cdc source only support sqlserver: " + dbContext.dslContext().dialect());
+        }
+        if (Strings.isNullOrEmpty(captureInstance)) {
+            String schema = table.getSchema() == null ? "dbo" : table.getSchema().getName();
+            captureInstance = schema + "_" + name;
+        }
+        for (Object column : queryList(CAPTURED_COLUMNS_SQL, captureInstance)) {
+            capturedColumns.add(column.toString());
+        }
+        if (capturedColumns.isEmpty()) {
+            throw new JDBCSourceException(name + " table has no cdc capture instance: " + captureInstance);
+        }
+        for (String column : accessColumnSet) {
+            if (!capturedColumns.contains(column)) {
+                throw new JDBCSourceException(name + " table column is not captured by cdc: " + column);
+            }
+        }
+        if (!dbContext.isIgnorePosition()) {
+            position = readPosition().get(PositionStore.TABLE_KEY);
+        }
+        if (position == null) {
+            byte[] lsn = new byte[LSN_LENGTH];
+            byte[] seqval = new byte[LSN_LENGTH];
+            if (START_LATEST.equals(cdcStart)) {
+                List<Object> maxLsn = queryList(MAX_LSN_SQL);
+                if (!maxLsn.isEmpty() && maxLsn.get(0) != null) {
+                    lsn = (byte[]) maxLsn.get(0);
+                }
+                //skip every change of the max lsn
+                Arrays.fill(seqval, (byte) 0xFF);
+            }
+            position = toPosition(lsn, seqval, Integer.MAX_VALUE);
+        } else {
+            List<Object> minLsn = queryList(MIN_LSN_SQL, captureInstance);
+            if (!minLsn.isEmpty() && minLsn.get(0) != null
+                    && compare(fromHex(position.split(":")[0]), (byte[]) minLsn.get(0)) < 0) {
+                log.warn("table: {}, cdc position {} is before the min lsn {}, changes between are cleaned up",
+                        name, position, toHex((byte[]) minLsn.get(0)));
+            }
+        }
+        scheduler.add(PositionStore.TABLE_KEY);
+    }
+
+    @Override
+    int readEvents(final long batchSize, EventBatchHandler handler) {
+        List<String> due = scheduler.takeDue(System.currentTimeMillis());
+        if (due.isEmpty()) {
+            return 0;
+        }
+        int result;
+        try {
+            String[] parts = position.split(":");
+            byte[] lsn = fromHex(parts[0]);
+            byte[] seqval = fromHex(parts[1]);
+            Integer operation = Integer.valueOf(parts[2]);
+            SqlTemplate template = changeTemplate(batchSize);
+            log.debug("{}, {}", template, position);
+            result = readQuery(template, new Object[]{lsn, lsn, seqval, seqval, operation}, batchSize, handler);
+        } catch (RuntimeException e) {
+            scheduler.record(PositionStore.TABLE_KEY, -1, batchSize, System.currentTimeMillis());
+            throw e;
+        }
+        scheduler.record(PositionStore.TABLE_KEY, result, batchSize, System.currentTimeMillis());
+        return result;
+    }
+
+    /**
+     * select the changes after start_lsn, seqval, operation from the change table, the sql is cached per table.
+     */
+    private SqlTemplate changeTemplate(long limit) {
+        StatementCache statementCache = dbContext.getStatementCache();
+        String key = getName() + ":cdc:" + limit;
+        SqlTemplate template = statementCache.get(key);
+        if (template == null) {
+            Field<byte[]> lsnField = field(name(START_LSN), SQLDataType.BINARY);
+            Field<byte[]> seqvalField = field(name(SEQVAL), SQLDataType.BINARY);
+            Field<Integer> operationField = field(name(OPERATION), SQLDataType.INTEGER);
+            Condition condition = lsnField.gt(SqlTemplate.param(0, SQLDataType.BINARY))
+                    .or(lsnField.eq(SqlTemplate.param(1, SQLDataType.BINARY))
+                            .and(seqvalField.gt(SqlTemplate.param(2, SQLDataType.BINARY))
+                                    .or(seqvalField.eq(SqlTemplate.param(3, SQLDataType.BINARY))
+                                            .and(operationField.gt(SqlTemplate.param(4, SQLDataType.INTEGER))))));
+            List<Field<?>> fields = new ArrayList<>();
+            fields.add(lsnField);
+            fields.add(seqvalField);
+            fields.add(operationField);
+            for (String column : capturedColumns) {
+                if (isColumnAccess(column)) {
+                    fields.add(field(name(column)).as(getColumnAlias(column)));
+                }
+            }
+            Select select = dbContext.dslContext()
+                    .select(fields)
+                    .from(DSL.table(name("cdc", captureInstance + "_CT")))
+                    .where(condition.and(operationField.ne(OPERATION_UPDATE_BEFORE)))
+                    .orderBy(lsnField, seqvalField, operationField)
+                    .limit((int) limit);
+            template = statementCache.put(key, SqlTemplate.compile(select));
+        }
+        return template;
+    }
+
+    private int readQuery(final SqlTemplate template, final Object[] values,
+                          final long batchSize, final EventBatchHandler handler) {
+        final MutableInt count = new MutableInt();
+        dbContext.dslContext().connection(new ConnectionRunnable() {
+            @Override
+            public void run(Connection connection) throws Exception {
+                PreparedStatement ps = null;
+                ResultSet rs = null;
+                try {
+                    ps = template.prepare(connection);
+                    template.bind(ps, values);
+                    if (fetchSize != 0) {
+                        ps.setFetchSize(fetchSize);
+                    }
+                    rs = ps.executeQuery();
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    //start_lsn, seqval, operation
+                    BitSet skipColumns = new BitSet();
+                    skipColumns.set(1, 4);
+                    JsonRowEncoder encoder = new JsonRowEncoder(metaData, skipColumns);
+                    List<Event> events = new ArrayList<>();
+                    String lastPosition = null;
+                    while (rs.next()) {
+                        int operation = rs.getInt(3);
+                        Map<String, String> header = new HashMap<>();
+                        header.put("table", getAlias());
+                        header.put(OPERATION_HEADER, operationName(operation));
+                        byte[] row = encoder.encode(rs);
+                        lastPosition = toPosition(rs.getBytes(1), rs.getBytes(2), operation);
+                        events.add(EventBuilder.withBody(row, header));
+                        if (events.size() >= batchSize) {
+                            handleEvents(handler, events, lastPosition);
+                            count.add(events.size());
+                            events = new ArrayList<>();
+                        }
+                    }
+                    if (!events.isEmpty()) {
+                        handleEvents(handler, events, lastPosition);
+                        count.add(events.size());
+                    }
+                } finally {
+                    JDBCUtils.safeClose(rs);
+                    JDBCUtils.safeClose(ps);
+                }
+            }
+        });
+        return count.intValue();
+    }
+
+    private void handleEvents(EventBatchHandler handler, List<Event> events, String lastPosition) throws Exception {
+        handler.handle(events);
+        position = lastPosition;
+        if (commitCheckpoint) {
+            writePosition();
+        }
+    }
+
+    private List<Object> queryList(final String sql, final Object... values) {
+        final List<Object> result = new ArrayList<>();
+        dbContext.dslContext().connection(new ConnectionRunnable() {
+            @Override
+            public void run(Connection connection) throws Exception {
+                PreparedStatement ps = null;
+                ResultSet rs = null;
+                try {
+                    ps = connection.prepareStatement(sql);
+                    for (int i = 0; i < values.length; i++) {
+                        ps.setObject(i + 1, values[i]);
+                    }
+                    rs = ps.executeQuery();
+                    while (rs.next()) {
+                        result.add(rs.getObject(1));
+                    }
+                } finally {
+                    JDBCUtils.safeClose(rs);
+                    JDBCUtils.safeClose(ps);
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    synchronized void writePosition() {
+        if (position == null) {
+            return;
+        }
+        try {
+            positionStore.write(Collections.singletonMap(PositionStore.TABLE_KEY, position));
+        } catch (Throwable t) {
+            log.error("Failed writing position of table " + name, t);
+        }
+    }
+
+    static String operationName(int operation) {
+        switch (operation) {
+            case 1:
+                return "delete";
+            case 2:
+                return "insert";
+            default:
+                return "update";
+        }
+    }
+
+    static String toPosition(byte[] lsn, byte[] seqval, int operation) {
+        return toHex(lsn) + ":" + toHex(seqval) + ":" + operation;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     * compare lsn as unsigned bytes, the same as sql server binary compare.
+     */
+    static int compare(byte[] left, byte[] right) {
+        for (int i = 0; i < Math.min(left.length, right.length); i++) {
+            int result = (left[i] & 0xFF) - (right[i] & 0xFF);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return left.length - right.length;
+    }
+
+    public String getCaptureInstance() {
+        return captureInstance;
+    }
+
+    public void setCaptureInstance(String captureInstance) {
+        this.captureInstance = captureInstance;
+    }
+
+    public String getCdcStart() {
+        return cdcStart;
+    }
+
+    public void setCdcStart(String cdcStart) {
+        this.cdcStart = cdcStart;
+    }
+}
@@ -0,0 +1,14 @@
+package com.ilivoo.flume.source.jdbc;
+
+import org.apache.flume.Event;
+
+import java.util.List;
+
+/**
+ * receive the events read from a table, batch by batch in read order.
+ * the table position moves forward only when handle returns normally.
+ */
+interface EventBatchHandler {
+
+    void handle(List<Event> events) throws Exception;
+}
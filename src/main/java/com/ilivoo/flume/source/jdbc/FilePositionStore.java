@@ -0,0 +1,123 @@
+package com.ilivoo.flume.source.jdbc;
+
+import com.google.common.base.Charsets;
+import com.google.gson.JsonParseException;
+import com.ilivoo.flume.utils.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * whole position in one file, raw increment for single increment table, json object for identify table.
+ * write to a temp file, fsync, then rename over the old file, so a crash leave the old or the new position.
+ * the write is skipped when the position is not changed.
+ */
+public class FilePositionStore implements PositionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(FilePositionStore.class);
+
+    private File file;
+
+    private Map<String, String> lastPosition = new HashMap<>();
+
+    @Override
+    public void open(String path) throws IOException {
+        file = new File(path + ".json");
+        //left by a crash before rename
+        Files.deleteIfExists(tempFile(file).toPath());
+    }
+
+    @Override
+    public Map<String, String> read() throws IOException {
+        Map<String, String> result = readFile(file);
+        lastPosition = new HashMap<>(result);
+        return result;
+    }
+
+    @Override
+    public void write(Map<String, String> position) throws IOException {
+        if (position.equals(lastPosition)) {
+            return;
+        }
+        String content;
+        if (position.size() == 1 && position.containsKey(TABLE_KEY)) {
+            content = position.get(TABLE_KEY);
+        } else {
+            content = JsonUtil.toJson(position);
+        }
+        writeAtomic(file, content.getBytes(Charsets.UTF_8));
+        lastPosition = new HashMap<>(position);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    static Map<String, String> readFile(File file) throws IOException {
+        Map<String, String> result = new HashMap<>();
+        if (!file.exists()) {
+            log.info("File not found: " + file + ", not updating position");
+            return result;
+        }
+        String content = new String(Files.readAllBytes(file.toPath()), Charsets.UTF_8);
+        if (content.isEmpty()) {
+            return result;
+        }
+        if (content.startsWith("{")) {
+            try {
+                return JsonUtil.jsonToStringMap(content);
+            } catch (JsonParseException e) {
+                log.warn("position file {} is not json, read as single increment", file);
+            }
+        }
+        result.put(TABLE_KEY, content);
+        return result;
+    }
+
+    static void writeAtomic(File file, byte[] content) throws IOException {
+        File temp = tempFile(file);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(content);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * make the rename durable, not supported on some platform such as windows.
+     */
+    static void syncDirectory(File dir) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("sync directory {} not supported: {}", dir, e.getMessage());
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.debug("Error: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    static File tempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+}
@@ -3,6 +3,7 @@ package com.ilivoo.flume.source.jdbc;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.ilivoo.flume.jdbc.DBContext;
 import com.ilivoo.flume.jdbc.JDBCHelper;
+import com.ilivoo.flume.jdbc.StatementCache;
 import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.CounterGroup;
@@ -16,9 +17,18 @@ import org.apache.flume.source.AbstractPollableSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -29,37 +39,91 @@ public class JDBCSource extends AbstractPollableSource
     public static final int DEFAULT_WRITE_POS_INTERVAL = 3000;
     public static final String FIND_NEW_INTERVAL = "findNewInterval";
     public static final int DEFAULT_FIND_NEW_INTERVAL = 5 * 60 * 1000;
+    public static final String CHECKPOINT = "checkpoint";
+    public static final String CHECKPOINT_TIMER = "timer";
+    public static final String CHECKPOINT_COMMIT = "commit";
+    public static final String DEFAULT_CHECKPOINT = CHECKPOINT_TIMER;
+    public static final String MODE = "mode";
+    public static final String MODE_INCREMENT = "increment";
+    public static final String MODE_CDC = "cdc";
+    public static final String DEFAULT_MODE = MODE_INCREMENT;
+    public static final String POLL_THREADS = "pollThreads";
+    public static final int DEFAULT_POLL_THREADS = 1;
+    public static final String POLL_WAIT = "pollWait";
+    public static final long DEFAULT_POLL_WAIT = 1000;
     private static final Logger log = LoggerFactory.getLogger(JDBCSource.class);
     private int writePosInitDelay = 5000;
     private int writePosInterval;
+    private String checkpoint;
     private ScheduledExecutorService positionService;
 
     private int findNewInitDelay = DEFAULT_FIND_NEW_INTERVAL;
     private int findNewInterval;
     private ScheduledExecutorService findNewService;
 
+    private int pollThreads;
+    private long pollWait;
+    private ExecutorService pollService;
+    private CompletionService<Integer> pollCompletion;
+    //tables submitted to poll service and not finished yet
+    private final Set<String> pollingTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    //reads the snapshot chunks of every table
+    private ExecutorService snapshotService;
+
     private long DEFAULT_RETRY_INTERVAL = 1000;
-    private long retryInterval = DEFAULT_RETRY_INTERVAL;
     private long maxRetryInterval = 10000;
 
     private CounterGroup counterGroup = new CounterGroup();
 
     private SourceCounter sourceCounter;
 
-    private DBContext<JDBCSourceTable> dbContext;
+    private DBContext<? extends BaseSourceTable> dbContext;
+
+    private final EventBatchHandler channelHandler = new EventBatchHandler() {
+        @Override
+        public void handle(List<Event> events) throws Exception {
+            writeChannelProcess(events);
+        }
+    };
 
 
     @Override
     protected void doConfigure(Context context) throws FlumeException {
-        dbContext = JDBCHelper.create(context, JDBCSourceTable.class);
+        String mode = context.getString(MODE, DEFAULT_MODE);
+        if (MODE_CDC.equals(mode)) {
+            dbContext = JDBCHelper.create(context, CDCSourceTable.class);
+        } else if (MODE_INCREMENT.equals(mode)) {
+            dbContext = JDBCHelper.create(context, JDBCSourceTable.class);
+        } else {
+            throw new JDBCSourceException("mode not exist: " + mode);
+        }
         writePosInterval = context.getInteger(WRITE_POS_INTERVAL, DEFAULT_WRITE_POS_INTERVAL);
         if (writePosInterval < DEFAULT_WRITE_POS_INTERVAL) {
             writePosInterval = DEFAULT_WRITE_POS_INTERVAL;
         }
+        checkpoint = context.getString(CHECKPOINT, DEFAULT_CHECKPOINT);
+        if (CHECKPOINT_COMMIT.equals(checkpoint)) {
+            for (BaseSourceTable jdbcSourceTable : dbContext.getTables()) {
+                jdbcSourceTable.setCommitCheckpoint(true);
+            }
+        } else if (!CHECKPOINT_TIMER.equals(checkpoint)) {
+            throw new JDBCSourceException("checkpoint not exist: " + checkpoint);
+        }
         findNewInterval = context.getInteger(FIND_NEW_INTERVAL, DEFAULT_FIND_NEW_INTERVAL);
         if (findNewInterval < DEFAULT_FIND_NEW_INTERVAL) {
             findNewInterval = DEFAULT_FIND_NEW_INTERVAL;
         }
+        pollThreads = context.getInteger(POLL_THREADS, DEFAULT_POLL_THREADS);
+        if (pollThreads < 1) {
+            pollThreads = DEFAULT_POLL_THREADS;
+        }
+        //every worker hold a connection while reading, more workers only wait for the pool
+        if (pollThreads > dbContext.getMaximumPoolSize()) {
+            log.warn("{} {} is larger than connection pool size, use {}",
+                    POLL_THREADS, pollThreads, dbContext.getMaximumPoolSize());
+            pollThreads = dbContext.getMaximumPoolSize();
+        }
+        pollWait = context.getLong(POLL_WAIT, DEFAULT_POLL_WAIT);
         if (sourceCounter == null) {
             sourceCounter = new SourceCounter(getName());
         }
@@ -72,19 +136,25 @@ public class JDBCSource extends AbstractPollableSource
 
     @Override
     protected Status doProcess() throws EventDeliveryException {
+        if (pollService != null) {
+            return doParallelProcess();
+        }
         Status status = Status.BACKOFF;
         try {
-            for (JDBCSourceTable jdbcSourceTable : dbContext.getTables()) {
-                List<Event> events = jdbcSourceTable.readEvents(getBatchSize());
-
-                writeChannelProcess(events);
-
-                if (events.size() >= getBatchSize()) {
-                    status = Status.READY;
-                } else {
-                    log.debug("The events taken from " + jdbcSourceTable.getName() + " is less than " + getBatchSize());
+            boolean full = false;
+            for (BaseSourceTable jdbcSourceTable : dbContext.getTables()) {
+                if (pollTable(jdbcSourceTable) >= getBatchSize()) {
+                    full = true;
                 }
             }
+            if (!full) {
+                //sleep until the next table is due instead of the fixed flume backoff
+                TimeUnit.MILLISECONDS.sleep(idleWait());
+            }
+            status = Status.READY;
+        } catch (InterruptedException e) {
+            log.info("Interrupted while waiting next poll");
+            Thread.currentThread().interrupt();
         } catch (Throwable t) {
             log.error("Unable to tail files", t);
             sourceCounter.incrementEventReadFail();
@@ -93,12 +163,73 @@ public class JDBCSource extends AbstractPollableSource
         return status;
     }
 
+    /**
+     * submit every due table which is not polling now, then collect the finished tables.
+     * a slow table keeps running in the poll service and does not hold up the others,
+     * one table is polled by one worker at a time, so the batches of a table keep in order.
+     * waits until a table finishes or the next idle table is due instead of the fixed flume backoff,
+     * only a failure of the source itself backs off.
+     */
+    private Status doParallelProcess() {
+        Status status = Status.BACKOFF;
+        try {
+            long now = System.currentTimeMillis();
+            for (BaseSourceTable jdbcSourceTable : dbContext.getTables()) {
+                if (jdbcSourceTable.nextPollTime() <= now && pollingTables.add(jdbcSourceTable.getName())) {
+                    pollCompletion.submit(new TablePollCallable(jdbcSourceTable));
+                }
+            }
+            Future<Integer> future = pollCompletion.poll(idleWait(), TimeUnit.MILLISECONDS);
+            while (future != null) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    //the table schedules its own retry
+                    log.error("Unable to poll table", e.getCause());
+                    sourceCounter.incrementEventReadFail();
+                }
+                future = pollCompletion.poll();
+            }
+            status = Status.READY;
+        } catch (InterruptedException e) {
+            log.info("Interrupted while waiting poll tables");
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            log.error("Unable to poll tables", t);
+            sourceCounter.incrementEventReadFail();
+        }
+        return status;
+    }
+
+    /**
+     * @return milliseconds until the earliest table not polling now is due, no more than pollWait
+     */
+    private long idleWait() {
+        long next = Long.MAX_VALUE;
+        for (BaseSourceTable jdbcSourceTable : dbContext.getTables()) {
+            if (!pollingTables.contains(jdbcSourceTable.getName())) {
+                next = Math.min(next, jdbcSourceTable.nextPollTime());
+            }
+        }
+        long wait = next - System.currentTimeMillis();
+        return Math.max(0, Math.min(wait, pollWait));
+    }
+
+    private int pollTable(BaseSourceTable jdbcSourceTable) {
+        int count = jdbcSourceTable.readEvents(getBatchSize(), channelHandler);
+        if (count < getBatchSize()) {
+            log.debug("The events taken from " + jdbcSourceTable.getName() + " is less than " + getBatchSize());
+        }
+        return count;
+    }
+
     private void writeChannelProcess(List<Event> events) throws InterruptedException {
         if (events == null || events.isEmpty()) {
             return;
         }
         sourceCounter.addToEventReceivedCount(events.size());
         sourceCounter.incrementAppendBatchReceivedCount();
+        long retryInterval = DEFAULT_RETRY_INTERVAL;
         boolean loop = true;
         while (loop) {
             try {
@@ -107,12 +238,13 @@ public class JDBCSource extends AbstractPollableSource
                 log.warn("The channel is full or unexpected failure. " +
                         "The source will try again after " + retryInterval + " ms");
                 sourceCounter.incrementChannelWriteFail();
+                //the batch may be committed to part of the channels, they get it again
+                counterGroup.addAndGet("events.replayed", (long) events.size());
                 TimeUnit.MILLISECONDS.sleep(retryInterval);
                 retryInterval = retryInterval << 1;
                 retryInterval = Math.min(retryInterval, maxRetryInterval);
                 continue;
             }
-            retryInterval = DEFAULT_RETRY_INTERVAL;
             loop = false;
         }
         log.debug("process {} event success", events.size());
@@ -122,16 +254,26 @@ public class JDBCSource extends AbstractPollableSource
 
     @Override
     protected void doStart() throws FlumeException {
-        positionService = Executors.newSingleThreadScheduledExecutor(
-                new ThreadFactoryBuilder().setNameFormat("positionService").build());
-        positionService.scheduleWithFixedDelay(new PositionWriterRunnable(),
-                writePosInitDelay, writePosInterval, TimeUnit.MILLISECONDS);
+        //commit checkpoint write position after every batch committed to channel
+        if (CHECKPOINT_TIMER.equals(checkpoint)) {
+            positionService = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("positionService").build());
+            positionService.scheduleWithFixedDelay(new PositionWriterRunnable(),
+                    writePosInitDelay, writePosInterval, TimeUnit.MILLISECONDS);
+        }
 
         findNewService = Executors.newSingleThreadScheduledExecutor(
                 new ThreadFactoryBuilder().setNameFormat("findNewService").build());
         findNewService.scheduleWithFixedDelay(new FindNewRunnable(),
                 findNewInitDelay, findNewInterval, TimeUnit.MILLISECONDS);
 
+        if (pollThreads > 1) {
+            pollService = Executors.newFixedThreadPool(pollThreads,
+                    new ThreadFactoryBuilder().setNameFormat("pollService-%d").build());
+            pollCompletion = new ExecutorCompletionService<>(pollService);
+        }
+        startSnapshot();
+
         sourceCounter.start();
         log.info("JDBC Source do start finished");
     }
@@ -139,24 +281,63 @@ public class JDBCSource extends AbstractPollableSource
     @Override
     protected void doStop() throws FlumeException {
         try {
-            ExecutorService[] services = {positionService, findNewService};
+            ExecutorService[] services = {positionService, findNewService, pollService, snapshotService};
             for (ExecutorService service : services) {
+                if (service == null) {
+                    continue;
+                }
                 service.shutdown();
                 if (!service.awaitTermination(1, TimeUnit.SECONDS)) {
                     service.shutdownNow();
                 }
             }
+            pollService = null;
+            snapshotService = null;
+            pollingTables.clear();
             // write the last position
             writePosition();
+            for (BaseSourceTable jdbcSourceTable : dbContext.getTables()) {
+                jdbcSourceTable.closePosition();
+            }
         } catch (InterruptedException e) {
             log.info("Interrupted while awaiting termination", e);
         }
         sourceCounter.stop();
+        StatementCache statementCache = dbContext.getStatementCache();
+        counterGroup.set("statement.cache.hit", statementCache.getHitCount());
+        counterGroup.set("statement.cache.miss", statementCache.getMissCount());
+        counterGroup.set("statement.cache.evict", statementCache.getEvictionCount());
         log.info("JDBC Source {} do stop. Metrics:{}", getName(), counterGroup);
     }
 
+    /**
+     * the snapshot chunks of all tables share one service, the poll worker of a snapshotting table waits
+     * without a connection, so the chunks use the connections left by the other poll workers and the total
+     * connections of the source stay within the pool.
+     */
+    private void startSnapshot() {
+        int chunks = 0;
+        List<JDBCSourceTable> snapshotTables = new ArrayList<>();
+        for (BaseSourceTable table : dbContext.getTables()) {
+            if (table instanceof JDBCSourceTable && ((JDBCSourceTable) table).snapshotChunksLeft() > 0) {
+                snapshotTables.add((JDBCSourceTable) table);
+                chunks += ((JDBCSourceTable) table).snapshotChunksLeft();
+            }
+        }
+        if (snapshotTables.isEmpty()) {
+            return;
+        }
+        int threads = Math.min(chunks, Math.max(1, dbContext.getMaximumPoolSize() - pollThreads + 1));
+        snapshotService = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("snapshotService-%d").build());
+        for (JDBCSourceTable table : snapshotTables) {
+            table.setSnapshotService(snapshotService);
+        }
+        log.info("snapshot {} chunks of {} tables with {} threads", chunks, snapshotTables.size(), threads);
+    }
+
     private void writePosition() {
-        for (JDBCSourceTable jdbcSourceTable : dbContext.getTables()) {
+        for (BaseSourceTable jdbcSourceTable : dbContext.getTables()) {
             jdbcSourceTable.writePosition();
         }
     }
@@ -168,10 +349,27 @@ public class JDBCSource extends AbstractPollableSource
         }
     }
 
+    private class TablePollCallable implements Callable<Integer> {
+        private final BaseSourceTable jdbcSourceTable;
+
+        TablePollCallable(BaseSourceTable jdbcSourceTable) {
+            this.jdbcSourceTable = jdbcSourceTable;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            try {
+                return pollTable(jdbcSourceTable);
+            } finally {
+                pollingTables.remove(jdbcSourceTable.getName());
+            }
+        }
+    }
+
     private class FindNewRunnable implements Runnable {
         @Override
         public void run() {
-            for (JDBCSourceTable jdbcSourceTable : dbContext.getTables()) {
+            for (BaseSourceTable jdbcSourceTable : dbContext.getTables()) {
                 jdbcSourceTable.findNewIdentify();
             }
         }
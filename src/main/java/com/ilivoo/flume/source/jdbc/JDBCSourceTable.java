@@ -1,76 +1,105 @@
 package com.ilivoo.flume.source.jdbc;
 
 import com.google.common.base.Strings;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import com.ilivoo.flume.jdbc.DBContext;
-import com.ilivoo.flume.jdbc.JDBCTable;
+import com.ilivoo.flume.jdbc.SqlTemplate;
+import com.ilivoo.flume.jdbc.StatementCache;
 import com.ilivoo.flume.sink.jdbc.JDBCSinkException;
-import com.ilivoo.flume.utils.JsonUtil;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.mutable.MutableObject;
+import org.apache.commons.lang.mutable.MutableInt;
 import org.apache.flume.Event;
 import org.apache.flume.event.EventBuilder;
 import org.jooq.Condition;
 import org.jooq.ConnectionRunnable;
+import org.jooq.DSLContext;
 import org.jooq.DataType;
 import org.jooq.Field;
+import org.jooq.SQLDialect;
 import org.jooq.Select;
 import org.jooq.SelectConditionStep;
 import org.jooq.SelectJoinStep;
-import org.jooq.conf.ParamType;
+import org.jooq.Table;
 import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.JDBCUtils;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.nio.charset.Charset;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import static org.jooq.impl.DSL.asterisk;
+import static org.jooq.impl.DSL.falseCondition;
 import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.max;
 import static org.jooq.impl.DSL.min;
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.partitionBy;
+import static org.jooq.impl.DSL.rowNumber;
 import static org.jooq.impl.DSL.trueCondition;
 
-public class JDBCSourceTable extends JDBCTable {
+public class JDBCSourceTable extends BaseSourceTable {
+    public static final String BATCH_IDENTIFY_AUTO = "auto";
+    public static final String BATCH_IDENTIFY_WINDOW = "window";
+    public static final String BATCH_IDENTIFY_UNION = "union";
+    private static final String ROW_NUMBER_LABEL = "flume_rn";
+    private static final String ROW_NUMBER_TABLE = "flume_t";
+    private static final String UNION_TABLE = "flume_u";
+    //position keys of snapshot, snapshot.high and snapshot.<chunk>, snapshot.<chunk>.end
+    private static final String SNAPSHOT_PREFIX = "snapshot.";
+    private static final String SNAPSHOT_HIGH = SNAPSHOT_PREFIX + "high";
+    private static final String SNAPSHOT_END_SUFFIX = ".end";
+    //dialects use row_number() for batch identify in auto mode
+    private static final Set<SQLDialect> WINDOW_DIALECTS = EnumSet.of(
+            SQLDialect.POSTGRES, SQLDialect.H2, SQLDialect.SQLSERVER, SQLDialect.ORACLE);
     //increment columns, identify:increment
     private String[] increments;
-    private String defaultStart;
-    private IdentifyIdle tableIdle;
+    private volatile String defaultStart;
     //include increment, identify
     private Set<String> includes = new HashSet<>();
     //excludes increment, identify
     private Set<String> excludes = new HashSet<>();
     //increment start, identify:incrementValue
     private Map<String, String> start = new ConcurrentHashMap<>();
-    //idle identify, identify:IdentifyIdle
-    private Map<String, IdentifyIdle> idleMap = new HashMap<>();
     //column convert
     private Map<String, String> columnConvertMap = new HashMap<>();
     //increment find new identify
     private boolean findNew;
     //increment strict
     private boolean strict;
-    //position file
-    private String positionFile;
-    //idle max time
-    private long idleMax;
-    //idle interval;
-    private long idleInterval;
     //table where
     private String where;
+    //rows read by one keyset query, pushed to channel in batches
+    private long streamPageSize;
+    //identifies read in one round trip
+    private int batchIdentify;
+    //batch identify sql: auto, window, union
+    private String batchIdentifyMode = BATCH_IDENTIFY_AUTO;
+    //range chunks read in parallel for a table without position, 0 disable
+    private int snapshotChunks;
+    //increment of the table when snapshot start, tail from it after every chunk finished
+    private volatile String snapshotHigh;
+    //chunk:position, chunk:end of the unfinished chunks
+    private Map<String, String> snapshotStart = new ConcurrentHashMap<>();
+    private Map<String, String> snapshotEnd = new ConcurrentHashMap<>();
+    //shared by the snapshot of every table of the source, null read the chunks one by one
+    private volatile ExecutorService snapshotService;
 
     private String defaultValue(DataType dataType) {
         String result;
@@ -89,7 +118,6 @@ public class JDBCSourceTable extends JDBCTable {
     @Override
     protected void initTable(DBContext<?> dbContext) {
         super.initTable(dbContext);
-        this.positionFile = dbContext.getPositionPath() + "/" + name + ".json";
         for (String increment : increments) {
             if (!tableFields.contains(increment)) {
                 throw new JDBCSinkException(name + " table has no increment column exists: " + increment);
@@ -103,23 +131,28 @@ public class JDBCSourceTable extends JDBCTable {
             }
             Comparable defaultObj = (Comparable) dataType.convert(defaultStart);
 
-            String position = null;
+            Map<String, String> filePosition = new HashMap<>();
             if (!dbContext.isIgnorePosition()) {
-                position = readPosition();
+                filePosition = readPosition();
             }
+            String position = filePosition.get(PositionStore.TABLE_KEY);
             if (position != null && defaultObj.compareTo(dataType.convert(position)) < 0) {
                 defaultStart = position;
             }
+            if (filePosition.containsKey(SNAPSHOT_HIGH)) {
+                resumeSnapshot(filePosition);
+            } else if (position == null && snapshotChunks > 1) {
+                planSnapshot();
+            }
         } else {
+            if (snapshotChunks > 1) {
+                log.warn("table: {}, snapshot only support single increment", name);
+            }
             DataType incrementType = table.field(increments[1]).getDataType();
             Map<String, String> dbPosition = readDBPosition();
             Map<String, String> filePosition = new HashMap<>();
-            String filePositionStr = null;
             if (!dbContext.isIgnorePosition()) {
-                filePositionStr = readPosition();
-            }
-            if (!Strings.isNullOrEmpty(filePositionStr)) {
-                filePosition = JsonUtil.jsonToStringMap(filePositionStr);
+                filePosition = readPosition();
             }
             //dbStart defaultStart configStart  fileStart
             for (Map.Entry<String, String> entry : dbPosition.entrySet()) {
@@ -145,140 +178,319 @@ public class JDBCSourceTable extends JDBCTable {
                 start.put(identify, value.toString());
             }
         }
-    }
-
-    private String rsToJson(ResultSet rs, ResultSetMetaData metaData) throws Exception {
-        int columnCount = metaData.getColumnCount();
-        JsonObject jsonObject = new JsonObject();
-        for (int i = 1; i <= columnCount; i++) {
-            String cName = metaData.getColumnLabel(i);
-            String value = rs.getString(i);
-            if (!Strings.isNullOrEmpty(value)) {
-                jsonObject.addProperty(cName, value);
+        if (increments.length == 1) {
+            scheduler.add(PositionStore.TABLE_KEY);
+        } else {
+            for (String identify : start.keySet()) {
+                scheduler.add(identify);
             }
         }
-        return JsonUtil.toJson(jsonObject);
     }
 
-    List<Event> readEvents(final long batchSize) {
-        final List<Event> result = new ArrayList<>();
-        long currentTime = System.currentTimeMillis();
-        if (increments.length == 1) {
-            if (tableIdle != null) {
-                long needIdleTime = idleInterval * tableIdle.idleCount;
-                if (needIdleTime > idleMax) {
-                    needIdleTime = idleMax;
-                }
-                long passBy = currentTime - tableIdle.idleTime;
-                if (passBy < needIdleTime) {
-                    log.debug("table: {}, run: {}, idle: {}", getName(), passBy, needIdleTime);
-                    return result;
+    /**
+     * read the rows after current position of the due identifies, hand them to handler in batches of batchSize,
+     * the position moves forward only after the handler accept the batch.
+     *
+     * @return the number of events handled
+     */
+    @Override
+    int readEvents(final long batchSize, EventBatchHandler handler) {
+        int result = 0;
+        long limit = Math.max(batchSize, streamPageSize);
+        List<String> due = scheduler.takeDue(System.currentTimeMillis());
+        if (due.isEmpty()) {
+            log.debug("table: {}, idle until: {}", getName(), scheduler.nextDeadline());
+            return result;
+        }
+        //identify:rows read, null identify for single increment table
+        Map<String, MutableInt> counts = new HashMap<>();
+        try {
+            if (increments.length == 1 && snapshotHigh != null) {
+                result = readSnapshot(limit, batchSize, handler);
+                //poll again at once, until the snapshot finished and tail catch up
+                counts.put(null, new MutableInt((int) limit));
+            } else if (increments.length == 1) {
+                final Object defaultObj = table.field(increments[0]).getDataType().convert(defaultStart);
+                SqlTemplate template = incrementTemplate(limit);
+                log.debug("{}, {}", template, defaultObj);
+                result = readQuery(template, new Object[]{defaultObj}, null, null, batchSize, handler, counts);
+            } else {
+                DataType identifyType = table.field(increments[0]).getDataType();
+                DataType incrementType = table.field(increments[1]).getDataType();
+                int step = batchIdentify > 1 ? batchIdentify : 1;
+                for (int i = 0; i < due.size(); i += step) {
+                    List<String> batch = due.subList(i, Math.min(i + step, due.size()));
+                    Object[] values = new Object[batch.size() * 2];
+                    //identify key:identify, to find the identify of a row
+                    Map<String, String> identifies = new HashMap<>();
+                    for (int j = 0; j < batch.size(); j++) {
+                        String identify = batch.get(j);
+                        values[j * 2] = identifyType.convert(identify);
+                        values[j * 2 + 1] = incrementType.convert(start.get(identify));
+                        identifies.put(identifyKey(values[j * 2], identifyType.isNumeric()), identify);
+                    }
+                    SqlTemplate template;
+                    String identify = null;
+                    if (batch.size() == 1) {
+                        template = identifyTemplate(limit);
+                        identify = batch.get(0);
+                    } else {
+                        template = batchIdentifyTemplate(limit, batch.size());
+                    }
+                    log.debug("{}, {}", template, values);
+                    result += readQuery(template, values, identify, identifies, batchSize, handler, counts);
                 }
             }
-            final Object defaultObj = table.field(increments[0]).getDataType().convert(defaultStart);
-            Condition condition = field(increments[0]).gt(defaultObj);
+        } catch (RuntimeException e) {
+            //poll again after idleInterval
+            long now = System.currentTimeMillis();
+            for (String key : due) {
+                scheduler.record(key, -1, limit, now);
+            }
+            throw e;
+        }
+        long now = System.currentTimeMillis();
+        for (String key : due) {
+            MutableInt count = counts.get(increments.length == 1 ? null : key);
+            scheduler.record(key, count == null ? 0 : count.intValue(), limit, now);
+        }
+        return result;
+    }
+
+    /**
+     * select the rows after the increment, order by increment, the sql is cached per table.
+     */
+    private SqlTemplate incrementTemplate(long limit) {
+        StatementCache statementCache = dbContext.getStatementCache();
+        String key = getName() + ":increment:" + limit;
+        SqlTemplate template = statementCache.get(key);
+        if (template == null) {
+            Field incrementField = table.field(increments[0]);
+            Condition condition = field(increments[0]).gt(SqlTemplate.param(0, incrementField.getDataType()));
             if (!Strings.isNullOrEmpty(where)) {
                 condition = condition.and(where);
             }
-            final Select select = dbContext.dslContext()
+            Select select = dbContext.dslContext()
                     .select(selectField())
                     .from(table)
                     .where(condition)
                     .orderBy(field(increments[0]))
-                    .limit((int) batchSize);
-            log.debug(select.getSQL());
-
-            final String columnAlias = getColumnAlias(increments[0]);
-            final MutableObject mutableObject = new MutableObject();
-            dbContext.dslContext().connection(new ConnectionRunnable() {
-                @Override
-                public void run(Connection connection) throws Exception {
-                    PreparedStatement ps = connection.prepareStatement(select.getSQL(ParamType.INLINED));
-                    ResultSet rs = ps.executeQuery();
-                    ResultSetMetaData metaData = rs.getMetaData();
-                    while (rs.next()) {
-                        Map<String, String> header = new HashMap<>();
-                        header.put("table", getAlias());
-                        String row = rsToJson(rs, metaData);
-                        mutableObject.setValue(rs.getObject(columnAlias));
-                        result.add(EventBuilder.withBody(row, Charset.forName("UTF-8"), header));
-                    }
+                    .limit((int) limit);
+            template = statementCache.put(key, SqlTemplate.compile(select));
+        }
+        return template;
+    }
+
+    /**
+     * select the rows of one identify after the increment, order by increment, the sql is cached per table.
+     */
+    private SqlTemplate identifyTemplate(long limit) {
+        StatementCache statementCache = dbContext.getStatementCache();
+        String key = getName() + ":identify:" + limit;
+        SqlTemplate template = statementCache.get(key);
+        if (template == null) {
+            Field identifyField = table.field(increments[0]);
+            Field incrementField = table.field(increments[1]);
+            Condition condition = field(increments[0]).eq(SqlTemplate.param(0, identifyField.getDataType()))
+                    .and(field(increments[1]).gt(SqlTemplate.param(1, incrementField.getDataType())));
+            if (!Strings.isNullOrEmpty(where)) {
+                condition = condition.and(where);
+            }
+            Select select = dbContext.dslContext()
+                    .select(selectField())
+                    .from(table)
+                    .where(condition)
+                    .orderBy(field(increments[1]))
+                    .limit((int) limit);
+            template = statementCache.put(key, SqlTemplate.compile(select));
+        }
+        return template;
+    }
+
+    /**
+     * select the rows of many identifies in one round trip, every identify get at most limit rows.
+     * dialects support window function use row_number() partition by identify,
+     * others use union all of the single identify select ordered again by identify and increment,
+     * as the union does not keep the order of its selects.
+     */
+    private SqlTemplate batchIdentifyTemplate(long limit, int identifyCount) {
+        StatementCache statementCache = dbContext.getStatementCache();
+        String mode = batchIdentifyMode;
+        if (BATCH_IDENTIFY_AUTO.equals(mode)) {
+            mode = WINDOW_DIALECTS.contains(dbContext.dslContext().dialect().family()) ? BATCH_IDENTIFY_WINDOW : BATCH_IDENTIFY_UNION;
+        }
+        String key = getName() + ":" + mode + ":" + limit + ":" + identifyCount;
+        SqlTemplate template = statementCache.get(key);
+        if (template == null) {
+            DSLContext dslContext = dbContext.dslContext();
+            Field identifyField = table.field(increments[0]);
+            Field incrementField = table.field(increments[1]);
+            Select select = null;
+            if (BATCH_IDENTIFY_WINDOW.equals(mode)) {
+                Condition condition = falseCondition();
+                for (int i = 0; i < identifyCount; i++) {
+                    condition = condition.or(field(increments[0]).eq(SqlTemplate.param(i * 2, identifyField.getDataType()))
+                            .and(field(increments[1]).gt(SqlTemplate.param(i * 2 + 1, incrementField.getDataType()))));
                 }
-            });
-            if (mutableObject.getValue() != null) {
-                defaultStart = mutableObject.getValue().toString();
-                tableIdle = null;
+                if (!Strings.isNullOrEmpty(where)) {
+                    condition = condition.and(where);
+                }
+                List<Field> fields = selectField();
+                fields.add(rowNumber().over(partitionBy(field(increments[0])).orderBy(field(increments[1])))
+                        .as(ROW_NUMBER_LABEL));
+                Table rowTable = dslContext.select(fields).from(table).where(condition).asTable(ROW_NUMBER_TABLE);
+                select = dslContext.select(asterisk())
+                        .from(rowTable)
+                        .where(field(name(ROW_NUMBER_LABEL), Long.class).le(limit))
+                        .orderBy(field(name(ROW_NUMBER_LABEL)));
             } else {
-                if (tableIdle == null) {
-                    tableIdle = new IdentifyIdle();
+                for (int i = 0; i < identifyCount; i++) {
+                    Condition condition = field(increments[0]).eq(SqlTemplate.param(i * 2, identifyField.getDataType()))
+                            .and(field(increments[1]).gt(SqlTemplate.param(i * 2 + 1, incrementField.getDataType())));
+                    if (!Strings.isNullOrEmpty(where)) {
+                        condition = condition.and(where);
+                    }
+                    Select identifySelect = dslContext.select(selectField())
+                            .from(table)
+                            .where(condition)
+                            .orderBy(field(increments[1]))
+                            .limit((int) limit);
+                    select = select == null ? identifySelect : select.unionAll(identifySelect);
                 }
-                tableIdle.addIdleCount();
+                select = dslContext.select(asterisk())
+                        .from(select.asTable(UNION_TABLE))
+                        .orderBy(field(name(getColumnAlias(increments[0]))), field(name(getColumnAlias(increments[1]))));
             }
-        } else {
-            DataType identifyType = table.field(increments[0]).getDataType();
-            DataType incrementType = table.field(increments[1]).getDataType();
-            for (Map.Entry<String, String> entry : start.entrySet()) {
-                String identify = entry.getKey();
-                IdentifyIdle identifyIdle = idleMap.get(identify);
-                if (identifyIdle != null) {
-                    long needIdleTime = idleInterval * identifyIdle.idleCount;
-                    if (needIdleTime > idleMax) {
-                        needIdleTime = idleMax;
+            template = statementCache.put(key, SqlTemplate.compile(select));
+        }
+        return template;
+    }
+
+    /**
+     * run the template and stream the result set.
+     * identify is null for single increment table, or the identify is read from every row and looked up in
+     * identifies by its {@link #identifyKey}, the rows of every identify are added to counts.
+     * statement and result set are always closed before return.
+     */
+    private int readQuery(final SqlTemplate template, final Object[] values, final String identify,
+                          final Map<String, String> identifies, final long batchSize, final EventBatchHandler handler,
+                          final Map<String, MutableInt> counts) {
+        final String columnAlias = getColumnAlias(increments[increments.length - 1]);
+        final String identifyAlias = increments.length == 1 || identify != null ? null : getColumnAlias(increments[0]);
+        final boolean numericIdentify = identifyAlias != null && table.field(increments[0]).getDataType().isNumeric();
+        final MutableInt count = new MutableInt();
+        dbContext.dslContext().connection(new ConnectionRunnable() {
+            @Override
+            public void run(Connection connection) throws Exception {
+                PreparedStatement ps = null;
+                ResultSet rs = null;
+                try {
+                    ps = template.prepare(connection);
+                    template.bind(ps, values);
+                    if (fetchSize != 0) {
+                        ps.setFetchSize(fetchSize);
                     }
-                    long passBy = currentTime - identifyIdle.idleTime;
-                    if (passBy < needIdleTime) {
-                        log.debug("table: {}, identify: {}, run: {}, idle: {}", getName(), identify, passBy, needIdleTime);
-                        continue;
+                    rs = ps.executeQuery();
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    BitSet skipColumns = new BitSet();
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        if (ROW_NUMBER_LABEL.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                            skipColumns.set(i);
+                        }
                     }
-                }
-                final Object identifyValue = identifyType.convert(identify);
-                final Object incrementValue = incrementType.convert(entry.getValue());
-                Condition condition = field(increments[0]).eq(identifyValue)
-                        .and(field(increments[1]).gt(incrementValue));
-                if (!Strings.isNullOrEmpty(where)) {
-                    condition = condition.and(where);
-                }
-                final Select select = dbContext.dslContext()
-                        .select(selectField())
-                        .from(table)
-                        .where(condition)
-                        .orderBy(field(increments[1]))
-                        .limit((int) batchSize);
-                log.debug(select.getSQL());
-                final String columnAlias = getColumnAlias(increments[1]);
-                final MutableObject mutableObject = new MutableObject();
-                dbContext.dslContext().connection(new ConnectionRunnable() {
-                    @Override
-                    public void run(Connection connection) throws Exception {
-                        PreparedStatement ps = connection.prepareStatement(select.getSQL(ParamType.INLINED));
-                        ResultSet rs = ps.executeQuery();
-                        ResultSetMetaData metaData = rs.getMetaData();
-                        while (rs.next()) {
-                            Map<String, String> header = new HashMap<>();
-                            header.put("table", getAlias());
-                            String row = rsToJson(rs, metaData);
-                            mutableObject.setValue(rs.getObject(columnAlias));
-                            result.add(EventBuilder.withBody(row, Charset.forName("UTF-8"), header));
+                    JsonRowEncoder encoder = new JsonRowEncoder(metaData, skipColumns);
+                    List<Event> events = new ArrayList<>();
+                    //identify:position of the events not handled, null identify for single increment table
+                    Map<String, Object> positions = new HashMap<>();
+                    while (rs.next()) {
+                        Map<String, String> header = new HashMap<>();
+                        header.put("table", getAlias());
+                        byte[] row = encoder.encode(rs);
+                        String rowIdentify = identify;
+                        if (identifyAlias != null) {
+                            Object rowValue = rs.getObject(identifyAlias);
+                            rowIdentify = identifies.get(identifyKey(rowValue, numericIdentify));
+                            if (rowIdentify == null) {
+                                //the position does not move, the row is read again
+                                log.warn("table: {}, row identify {} is not read", getName(), rowValue);
+                            }
+                        }
+                        if (identifyAlias == null || rowIdentify != null) {
+                            positions.put(rowIdentify, rs.getObject(columnAlias));
+                        }
+                        MutableInt identifyCount = counts.get(rowIdentify);
+                        if (identifyCount == null) {
+                            identifyCount = new MutableInt();
+                            counts.put(rowIdentify, identifyCount);
+                        }
+                        identifyCount.increment();
+                        events.add(EventBuilder.withBody(row, header));
+                        if (events.size() >= batchSize) {
+                            handleEvents(handler, events, positions);
+                            count.add(events.size());
+                            events = new ArrayList<>();
                         }
                     }
-                });
-                if (mutableObject.getValue() != null) {
-                    String increment = mutableObject.getValue().toString();
-                    start.put(identify, increment);
-                    idleMap.remove(identify);
-                } else {
-                    IdentifyIdle idle = idleMap.get(identify);
-                    if (idle == null) {
-                        idle = new IdentifyIdle();
-                        idleMap.put(identify, idle);
+                    if (!events.isEmpty()) {
+                        handleEvents(handler, events, positions);
+                        count.add(events.size());
                     }
-                    idle.addIdleCount();
+                } finally {
+                    JDBCUtils.safeClose(rs);
+                    JDBCUtils.safeClose(ps);
                 }
             }
+        });
+        return count.intValue();
+    }
+
+    /**
+     * the same key for an identify however the database returns it: trailing spaces of char are trimmed,
+     * a number is in plain notation without trailing zeros.
+     */
+    static String identifyKey(Object value, boolean numeric) {
+        if (value == null) {
+            return null;
+        }
+        String result = value.toString();
+        int end = result.length();
+        while (end > 0 && Character.isWhitespace(result.charAt(end - 1))) {
+            end--;
+        }
+        result = result.substring(0, end);
+        if (numeric || value instanceof Number) {
+            try {
+                result = new BigDecimal(result.trim()).stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException e) {
+                //converted to text, compared as text
+            }
         }
         return result;
     }
 
+    private void handleEvents(EventBatchHandler handler, List<Event> events,
+                              Map<String, Object> positions) throws Exception {
+        handler.handle(events);
+        for (Map.Entry<String, Object> entry : positions.entrySet()) {
+            String identify = entry.getKey();
+            Object position = entry.getValue();
+            if (position == null) {
+                continue;
+            }
+            if (identify == null) {
+                defaultStart = position.toString();
+            } else if (snapshotEnd.containsKey(identify)) {
+                snapshotStart.put(identify, position.toString());
+            } else {
+                start.put(identify, position.toString());
+            }
+        }
+        positions.clear();
+        if (commitCheckpoint) {
+            writePosition();
+        }
+    }
+
     protected List<Field> selectField() {
         List<Field> result = new ArrayList<>();
         Set<String> accessFields = accessColumnSet;
@@ -304,6 +516,7 @@ public class JDBCSourceTable extends JDBCTable {
         return result;
     }
 
+    @Override
     void findNewIdentify() {
         if (increments.length != 1 && findNew && includes.size() == 0) {
             Map<String, String> dbPosition = readDBPosition();
@@ -313,8 +526,247 @@ public class JDBCSourceTable extends JDBCTable {
                     continue;
                 }
                 start.put(identify, entry.getValue());
+                scheduler.add(identify);
+            }
+        }
+    }
+
+    /**
+     * split (defaultStart, max] of the increment into snapshotChunks ranges, the ranges are read in parallel
+     * by readSnapshot, the table tails from max after every range finished.
+     */
+    private void planSnapshot() {
+        DataType dataType = table.field(increments[0]).getDataType();
+        if (!dataType.isNumeric() && !dataType.isDateTime()) {
+            log.warn("table: {}, snapshot not support increment type: {}", name, dataType);
+            return;
+        }
+        //select min(increment), max(increment) from table where increment > defaultStart
+        Condition condition = field(increments[0]).gt(SqlTemplate.param(0, dataType));
+        if (!Strings.isNullOrEmpty(where)) {
+            condition = condition.and(where);
+        }
+        final SqlTemplate template = SqlTemplate.compile(dbContext.dslContext()
+                .select(min(field(increments[0])), max(field(increments[0])))
+                .from(table)
+                .where(condition));
+        final Object defaultObj = dataType.convert(defaultStart);
+        final String[] range = new String[2];
+        dbContext.dslContext().connection(new ConnectionRunnable() {
+            @Override
+            public void run(Connection connection) throws Exception {
+                PreparedStatement ps = null;
+                ResultSet rs = null;
+                try {
+                    ps = template.prepare(connection);
+                    template.bind(ps, defaultObj);
+                    rs = ps.executeQuery();
+                    if (rs.next()) {
+                        range[0] = rs.getString(1);
+                        range[1] = rs.getString(2);
+                    }
+                } finally {
+                    JDBCUtils.safeClose(rs);
+                    JDBCUtils.safeClose(ps);
+                }
+            }
+        });
+        if (range[0] == null || range[1] == null) {
+            return;
+        }
+        List<Object> bounds = splitRange(dataType, dataType.convert(range[0]), dataType.convert(range[1]), snapshotChunks);
+        if (bounds.isEmpty()) {
+            log.info("table: {}, snapshot range from {} to {} not split, tail from {}", name, range[0], range[1], defaultStart);
+            return;
+        }
+        String low = defaultStart;
+        for (int i = 0; i <= bounds.size(); i++) {
+            String high = i < bounds.size() ? bounds.get(i).toString() : dataType.convert(range[1]).toString();
+            snapshotStart.put(SNAPSHOT_PREFIX + i, low);
+            snapshotEnd.put(SNAPSHOT_PREFIX + i, high);
+            low = high;
+        }
+        snapshotHigh = dataType.convert(range[1]).toString();
+        log.info("table: {}, snapshot {} chunks, from {} to {}", name, snapshotEnd.size(), defaultStart, snapshotHigh);
+        writePosition();
+    }
+
+    private void resumeSnapshot(Map<String, String> filePosition) {
+        snapshotHigh = readSnapshotPosition(filePosition, snapshotStart, snapshotEnd);
+        log.info("table: {}, resume snapshot {} chunks to {}", name, snapshotEnd.size(), snapshotHigh);
+        if (snapshotEnd.isEmpty()) {
+            finishSnapshot();
+        }
+    }
+
+    /**
+     * read the position of the unfinished chunks written by {@link #writeSnapshotPosition}.
+     *
+     * @return snapshot high
+     */
+    static String readSnapshotPosition(Map<String, String> filePosition,
+                                       Map<String, String> chunkStart, Map<String, String> chunkEnd) {
+        for (Map.Entry<String, String> entry : filePosition.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(SNAPSHOT_PREFIX) || key.equals(SNAPSHOT_HIGH) || key.endsWith(SNAPSHOT_END_SUFFIX)) {
+                continue;
+            }
+            String end = filePosition.get(key + SNAPSHOT_END_SUFFIX);
+            if (end != null) {
+                chunkStart.put(key, entry.getValue());
+                chunkEnd.put(key, end);
+            }
+        }
+        return filePosition.get(SNAPSHOT_HIGH);
+    }
+
+    /**
+     * put snapshot high and the position and end of every unfinished chunk.
+     */
+    static void writeSnapshotPosition(Map<String, String> position, String high,
+                                      Map<String, String> chunkStart, Map<String, String> chunkEnd) {
+        position.put(SNAPSHOT_HIGH, high);
+        for (Map.Entry<String, String> entry : chunkEnd.entrySet()) {
+            String start = chunkStart.get(entry.getKey());
+            if (start != null) {
+                position.put(entry.getKey(), start);
+                position.put(entry.getKey() + SNAPSHOT_END_SUFFIX, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return unfinished chunks of the snapshot, 0 if not snapshotting
+     */
+    int snapshotChunksLeft() {
+        return snapshotHigh == null ? 0 : snapshotEnd.size();
+    }
+
+    void setSnapshotService(ExecutorService snapshotService) {
+        this.snapshotService = snapshotService;
+    }
+
+    private void finishSnapshot() {
+        DataType dataType = table.field(increments[0]).getDataType();
+        if (((Comparable) dataType.convert(defaultStart)).compareTo(dataType.convert(snapshotHigh)) < 0) {
+            defaultStart = snapshotHigh;
+        }
+        snapshotHigh = null;
+        snapshotStart.clear();
+        log.info("table: {}, snapshot finished, tail from {}", name, defaultStart);
+        writePosition();
+    }
+
+    /**
+     * read one page of every unfinished chunk in parallel by the snapshot service, every chunk on its own
+     * connection, a chunk is finished when its page is not full.
+     */
+    private int readSnapshot(long limit, long batchSize, final EventBatchHandler handler) {
+        DataType dataType = table.field(increments[0]).getDataType();
+        final SqlTemplate template = snapshotTemplate(limit);
+        final long chunkBatchSize = batchSize;
+        ExecutorService service = snapshotService;
+        Map<String, Future<Integer>> futures = new HashMap<>();
+        for (final String chunk : snapshotEnd.keySet()) {
+            final Object[] values = {dataType.convert(snapshotStart.get(chunk)), dataType.convert(snapshotEnd.get(chunk))};
+            FutureTask<Integer> task = new FutureTask<>(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return readQuery(template, values, chunk, null, chunkBatchSize, handler,
+                            new HashMap<String, MutableInt>());
+                }
+            });
+            if (service == null) {
+                task.run();
+            } else {
+                service.execute(task);
+            }
+            futures.put(chunk, task);
+        }
+        int result = 0;
+        RuntimeException failure = null;
+        for (Map.Entry<String, Future<Integer>> entry : futures.entrySet()) {
+            try {
+                int rows = entry.getValue().get();
+                result += rows;
+                if (rows < limit) {
+                    snapshotEnd.remove(entry.getKey());
+                    snapshotStart.remove(entry.getKey());
+                }
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                        : new JDBCSourceException("Failed reading snapshot of table " + name, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new JDBCSourceException("Interrupted reading snapshot of table " + name, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (snapshotEnd.isEmpty()) {
+            finishSnapshot();
+        }
+        return result;
+    }
+
+    /**
+     * select the rows of a chunk after the increment, order by increment, the sql is cached per table.
+     */
+    private SqlTemplate snapshotTemplate(long limit) {
+        StatementCache statementCache = dbContext.getStatementCache();
+        String key = getName() + ":snapshot:" + limit;
+        SqlTemplate template = statementCache.get(key);
+        if (template == null) {
+            DataType dataType = table.field(increments[0]).getDataType();
+            Condition condition = field(increments[0]).gt(SqlTemplate.param(0, dataType))
+                    .and(field(increments[0]).le(SqlTemplate.param(1, dataType)));
+            if (!Strings.isNullOrEmpty(where)) {
+                condition = condition.and(where);
+            }
+            Select select = dbContext.dslContext()
+                    .select(selectField())
+                    .from(table)
+                    .where(condition)
+                    .orderBy(field(increments[0]))
+                    .limit((int) limit);
+            template = statementCache.put(key, SqlTemplate.compile(select));
+        }
+        return template;
+    }
+
+    /**
+     * @return at most chunks - 1 increasing bounds between min and max, numeric bounds of integer type are
+     * rounded down, empty if the range can not be split or the type is neither numeric nor date time,
+     * date time bounds are split by millis of java.util.Date, other date time values are not split
+     */
+    static List<Object> splitRange(DataType dataType, Object min, Object max, int chunks) {
+        List<Object> result = new ArrayList<>();
+        if (!dataType.isNumeric() && !dataType.isDateTime()) {
+            return result;
+        }
+        boolean dateTime = dataType.isDateTime();
+        //java.time values of the types like LocalDateTime and OffsetDateTime
+        if (dateTime && !(min instanceof java.util.Date && max instanceof java.util.Date)) {
+            return result;
+        }
+        BigDecimal low = dateTime ? BigDecimal.valueOf(((java.util.Date) min).getTime()) : new BigDecimal(min.toString());
+        BigDecimal high = dateTime ? BigDecimal.valueOf(((java.util.Date) max).getTime()) : new BigDecimal(max.toString());
+        boolean integral = dateTime || low.scale() <= 0 && high.scale() <= 0;
+        BigDecimal last = low;
+        for (int i = 1; i < chunks; i++) {
+            BigDecimal bound = low.add(high.subtract(low).multiply(BigDecimal.valueOf(i))
+                    .divide(BigDecimal.valueOf(chunks), 10, RoundingMode.FLOOR));
+            if (integral) {
+                bound = bound.setScale(0, RoundingMode.FLOOR);
+            }
+            if (bound.compareTo(last) <= 0 || bound.compareTo(high) >= 0) {
+                continue;
             }
+            last = bound;
+            result.add(dateTime ? dataType.convert(new Timestamp(bound.longValue())) : dataType.convert(bound));
         }
+        return result;
     }
 
     private Map<String, String> readDBPosition() {
@@ -345,16 +797,23 @@ public class JDBCSourceTable extends JDBCTable {
             dbContext.dslContext().connection(new ConnectionRunnable() {
                 @Override
                 public void run(Connection connection) throws Exception {
-                    PreparedStatement ps = connection.prepareStatement(select.getSQL());
-                    Object[] objArray = includeOrExcludeObjSet.toArray();
-                    for (int i = 0; i < objArray.length; i++) {
-                        ps.setObject(i + 1, objArray[i]);
-                    }
-                    ResultSet rs = ps.executeQuery();
-                    while (rs.next()) {
-                        String identify = rs.getString(1);
-                        String increment = rs.getString(2);
-                        result.put(identify, increment);
+                    PreparedStatement ps = null;
+                    ResultSet rs = null;
+                    try {
+                        ps = connection.prepareStatement(select.getSQL());
+                        Object[] objArray = includeOrExcludeObjSet.toArray();
+                        for (int i = 0; i < objArray.length; i++) {
+                            ps.setObject(i + 1, objArray[i]);
+                        }
+                        rs = ps.executeQuery();
+                        while (rs.next()) {
+                            String identify = rs.getString(1);
+                            String increment = rs.getString(2);
+                            result.put(identify, increment);
+                        }
+                    } finally {
+                        JDBCUtils.safeClose(rs);
+                        JDBCUtils.safeClose(ps);
                     }
                 }
             });
@@ -362,50 +821,26 @@ public class JDBCSourceTable extends JDBCTable {
         return result;
     }
 
-    void writePosition() {
-        File file = new File(positionFile);
-        FileWriter writer = null;
-        try {
-            writer = new FileWriter(file);
-            String json = null;
-            if (increments.length == 1) {
-                json = defaultStart;
-            } else if (increments.length == 2 && start.size() > 0) {
-                json = new Gson().toJson(start);
-            }
-            if (json != null) {
-                writer.write(json);
-            }
-        } catch (Throwable t) {
-            log.error("Failed writing positionFile", t);
-        } finally {
-            try {
-                if (writer != null) writer.close();
-            } catch (IOException e) {
-                log.error("Error: " + e.getMessage(), e);
+    @Override
+    synchronized void writePosition() {
+        Map<String, String> position = new HashMap<>();
+        if (increments.length == 1) {
+            position.put(PositionStore.TABLE_KEY, defaultStart);
+            String high = snapshotHigh;
+            if (high != null) {
+                writeSnapshotPosition(position, high, snapshotStart, snapshotEnd);
             }
+        } else if (increments.length == 2 && start.size() > 0) {
+            position.putAll(start);
+        }
+        if (position.isEmpty()) {
+            return;
         }
-    }
-
-    private String readPosition() {
-        String result = null;
-        File file = new File(positionFile);
-        FileReader reader = null;
         try {
-            reader = new FileReader(file);
-            result = IOUtils.toString(reader);
-        } catch (FileNotFoundException e) {
-            log.info("File not found: " + positionFile + ", not updating position");
-        } catch (IOException e) {
-            log.error("Failed loading positionFile: " + positionFile, e);
-        } finally {
-            try {
-                if (reader != null) reader.close();
-            } catch (IOException e) {
-                log.error("Error: " + e.getMessage(), e);
-            }
+            positionStore.write(position);
+        } catch (Throwable t) {
+            log.error("Failed writing position of table " + name, t);
         }
-        return result;
     }
 
     public String[] getIncrements() {
@@ -464,45 +899,51 @@ public class JDBCSourceTable extends JDBCTable {
         this.strict = strict;
     }
 
-    public long getIdleMax() {
-        return idleMax;
+    public String getWhere() {
+        return where;
     }
 
-    public void setIdleMax(long idleMax) {
-        this.idleMax = idleMax;
+    public void setWhere(String where) {
+        this.where = where;
     }
 
-    public long getIdleInterval() {
-        return idleInterval;
+    public long getStreamPageSize() {
+        return streamPageSize;
     }
 
-    public void setIdleInterval(long idleInterval) {
-        this.idleInterval = idleInterval;
+    public void setStreamPageSize(long streamPageSize) {
+        this.streamPageSize = streamPageSize;
     }
 
-    public String getWhere() {
-        return where;
+    public int getBatchIdentify() {
+        return batchIdentify;
     }
 
-    public void setWhere(String where) {
-        this.where = where;
+    public void setBatchIdentify(int batchIdentify) {
+        this.batchIdentify = batchIdentify;
     }
 
-    public Map<String, String> getColumnConvertMap() {
-        return columnConvertMap;
+    public String getBatchIdentifyMode() {
+        return batchIdentifyMode;
     }
 
-    public void setColumnConvertMap(Map<String, String> columnConvertMap) {
-        this.columnConvertMap = columnConvertMap;
+    public void setBatchIdentifyMode(String batchIdentifyMode) {
+        this.batchIdentifyMode = batchIdentifyMode;
     }
 
-    private static class IdentifyIdle {
-        long idleTime = System.currentTimeMillis();
+    public int getSnapshotChunks() {
+        return snapshotChunks;
+    }
 
-        int idleCount;
+    public void setSnapshotChunks(int snapshotChunks) {
+        this.snapshotChunks = snapshotChunks;
+    }
 
-        void addIdleCount() {
-            idleCount++;
-        }
+    public Map<String, String> getColumnConvertMap() {
+        return columnConvertMap;
+    }
+
+    public void setColumnConvertMap(Map<String, String> columnConvertMap) {
+        this.columnConvertMap = columnConvertMap;
     }
 }
@@ -0,0 +1,287 @@
+package com.ilivoo.flume.source.jdbc;
+
+import com.google.common.base.Strings;
+import com.google.gson.JsonObject;
+import com.ilivoo.flume.utils.JsonUtil;
+
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * encode the current row of a result set to the json body bytes the source sends, the same bytes as
+ * a gson JsonObject of column label:rs.getString with null and empty values left out.
+ * the escaped "label": prefixes are computed once per query, the values are written into a reused buffer.
+ * integer columns are written from rs.getLong, numeric and date time columns skip escaping,
+ * other columns are escaped like gson (html safe) and encoded to utf-8 directly.
+ */
+class JsonRowEncoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
+    //escape of ascii chars, null if written as is
+    private static final byte[][] ASCII_ESCAPES = new byte[128][];
+
+    private static final int KIND_STRING = 0;
+    private static final int KIND_LONG = 1;
+    private static final int KIND_ASCII = 2;
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ASCII_ESCAPES[c] = unicodeEscape((char) c);
+        }
+        ASCII_ESCAPES['"'] = "\\\"".getBytes(UTF_8);
+        ASCII_ESCAPES['\\'] = "\\\\".getBytes(UTF_8);
+        ASCII_ESCAPES['\t'] = "\\t".getBytes(UTF_8);
+        ASCII_ESCAPES['\b'] = "\\b".getBytes(UTF_8);
+        ASCII_ESCAPES['\n'] = "\\n".getBytes(UTF_8);
+        ASCII_ESCAPES['\r'] = "\\r".getBytes(UTF_8);
+        ASCII_ESCAPES['\f'] = "\\f".getBytes(UTF_8);
+        //gson html safe escapes
+        ASCII_ESCAPES['<'] = unicodeEscape('<');
+        ASCII_ESCAPES['>'] = unicodeEscape('>');
+        ASCII_ESCAPES['&'] = unicodeEscape('&');
+        ASCII_ESCAPES['='] = unicodeEscape('=');
+        ASCII_ESCAPES['\''] = unicodeEscape('\'');
+    }
+
+    //result set column index of every encoded column
+    private final int[] columns;
+    //"label": of every encoded column
+    private final byte[][] prefixes;
+    private final int[] kinds;
+    //labels when some columns have the same label, the row is encoded by gson then
+    private final String[] labels;
+    private byte[] buffer = new byte[256];
+    private int size;
+    private final byte[] digits = new byte[20];
+
+    /**
+     * @param skipColumns result set columns not encoded
+     */
+    JsonRowEncoder(ResultSetMetaData metaData, BitSet skipColumns) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        int[] columns = new int[columnCount];
+        byte[][] prefixes = new byte[columnCount][];
+        int[] kinds = new int[columnCount];
+        String[] labels = new String[columnCount];
+        Set<String> labelSet = new HashSet<>();
+        boolean duplicate = false;
+        int count = 0;
+        for (int i = 1; i <= columnCount; i++) {
+            if (skipColumns.get(i)) {
+                continue;
+            }
+            String label = metaData.getColumnLabel(i);
+            if (!labelSet.add(label)) {
+                duplicate = true;
+            }
+            size = 0;
+            writeByte('"');
+            writeString(label);
+            writeByte('"');
+            writeByte(':');
+            columns[count] = i;
+            labels[count] = label;
+            prefixes[count] = Arrays.copyOf(buffer, size);
+            kinds[count] = kind(metaData, i);
+            count++;
+        }
+        size = 0;
+        this.columns = Arrays.copyOf(columns, count);
+        this.prefixes = Arrays.copyOf(prefixes, count);
+        this.kinds = Arrays.copyOf(kinds, count);
+        this.labels = duplicate ? Arrays.copyOf(labels, count) : null;
+    }
+
+    private static int kind(ResultSetMetaData metaData, int column) throws SQLException {
+        switch (metaData.getColumnType(column)) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return KIND_LONG;
+            case Types.BIGINT:
+                //unsigned bigint may not fit in long
+                return metaData.isSigned(column) ? KIND_LONG : KIND_ASCII;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return KIND_ASCII;
+            default:
+                return KIND_STRING;
+        }
+    }
+
+    /**
+     * @return json bytes of the current row
+     */
+    byte[] encode(ResultSet rs) throws SQLException {
+        if (labels != null) {
+            return encodeDuplicate(rs);
+        }
+        size = 0;
+        writeByte('{');
+        boolean first = true;
+        for (int i = 0; i < columns.length; i++) {
+            int column = columns[i];
+            if (kinds[i] == KIND_LONG) {
+                long value = rs.getLong(column);
+                if (rs.wasNull()) {
+                    continue;
+                }
+                first = writePrefix(i, first);
+                writeByte('"');
+                writeLong(value);
+                writeByte('"');
+                continue;
+            }
+            String value = rs.getString(column);
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            first = writePrefix(i, first);
+            writeByte('"');
+            if (kinds[i] == KIND_ASCII && isPlainAscii(value)) {
+                writeAscii(value);
+            } else {
+                writeString(value);
+            }
+            writeByte('"');
+        }
+        writeByte('}');
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * the later column of the same label replace the former one like gson JsonObject.
+     */
+    private byte[] encodeDuplicate(ResultSet rs) throws SQLException {
+        JsonObject jsonObject = new JsonObject();
+        for (int i = 0; i < columns.length; i++) {
+            String value = rs.getString(columns[i]);
+            if (!Strings.isNullOrEmpty(value)) {
+                jsonObject.addProperty(labels[i], value);
+            }
+        }
+        return JsonUtil.toJson(jsonObject).getBytes(UTF_8);
+    }
+
+    private boolean writePrefix(int i, boolean first) {
+        if (!first) {
+            writeByte(',');
+        }
+        writeBytes(prefixes[i]);
+        return false;
+    }
+
+    private static boolean isPlainAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 128 || ASCII_ESCAPES[c] != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        ensure(digits.length - position);
+        System.arraycopy(digits, position, buffer, size, digits.length - position);
+        size += digits.length - position;
+    }
+
+    /**
+     * escape like gson and encode to utf-8, unpaired surrogate is written as '?' like String.getBytes.
+     */
+    private void writeString(String value) {
+        int length = value.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                byte[] escape = ASCII_ESCAPES[c];
+                if (escape == null) {
+                    if (size == buffer.length) {
+                        ensure(1);
+                    }
+                    buffer[size++] = (byte) c;
+                } else {
+                    writeBytes(escape);
+                }
+            } else if (c == 0x2028 || c == 0x2029) {
+                writeBytes(unicodeEscape(c));
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                writeByte('?');
+            } else {
+                ensure(3);
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static byte[] unicodeEscape(char c) {
+        return new byte[]{'\\', 'u', HEX[(c >> 12) & 0xF], HEX[(c >> 8) & 0xF], HEX[(c >> 4) & 0xF], HEX[c & 0xF]};
+    }
+
+    private void writeByte(char c) {
+        ensure(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensure(int more) {
+        if (size + more > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + more));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.ilivoo.flume.source.jdbc;
+
+import com.google.common.base.Charsets;
+import com.google.gson.JsonParseException;
+import com.ilivoo.flume.utils.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * append only position log, every write append one line with the changed identifies only,
+ * so the cost of a checkpoint follow the change rate instead of the identify count.
+ * line format: crc32 of json in hex, space, json object, new line.
+ * a line broken by crash is dropped when open, the log is compacted into one line
+ * when the lines are much more than the identifies.
+ */
+public class LogPositionStore implements PositionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LogPositionStore.class);
+
+    private static final int MIN_COMPACT_RECORDS = 1000;
+
+    private File file;
+
+    private FileChannel channel;
+
+    private Map<String, String> position = new HashMap<>();
+
+    //lines in the log
+    private int records;
+
+    //a failed append could not be cut off, the next write compacts
+    private boolean broken;
+
+    @Override
+    public void open(String path) throws IOException {
+        file = new File(path + ".log");
+        if (file.exists()) {
+            load();
+        } else {
+            //migrate from file position store
+            File jsonFile = new File(path + ".json");
+            if (jsonFile.exists()) {
+                position = FilePositionStore.readFile(jsonFile);
+                log.info("migrate position {} to {}", jsonFile, file);
+            }
+            compact(position);
+            return;
+        }
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(channel.size());
+    }
+
+    private void load() throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        int start = 0;
+        int valid = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != '\n') {
+                continue;
+            }
+            String line = new String(content, start, i - start, Charsets.UTF_8);
+            start = i + 1;
+            Map<String, String> changed = parseLine(line);
+            if (changed == null) {
+                break;
+            }
+            position.putAll(changed);
+            records++;
+            valid = start;
+        }
+        if (valid < content.length) {
+            log.warn("position log {} broken at {}, drop {} bytes", file, valid, content.length - valid);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(valid);
+                raf.getFD().sync();
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private Map<String, String> parseLine(String line) {
+        int split = line.indexOf(' ');
+        if (split <= 0) {
+            return null;
+        }
+        String json = line.substring(split + 1);
+        if (!line.substring(0, split).equals(crc(json))) {
+            return null;
+        }
+        try {
+            return JsonUtil.jsonToStringMap(json);
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, String> read() throws IOException {
+        return new HashMap<>(position);
+    }
+
+    @Override
+    public void write(Map<String, String> newPosition) throws IOException {
+        Map<String, String> changed = new HashMap<>();
+        for (Map.Entry<String, String> entry : newPosition.entrySet()) {
+            if (!entry.getValue().equals(position.get(entry.getKey()))) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        boolean removed = !newPosition.keySet().containsAll(position.keySet());
+        if (changed.isEmpty() && !removed) {
+            return;
+        }
+        if (broken || removed || records >= Math.max(MIN_COMPACT_RECORDS, newPosition.size() * 2)) {
+            compact(new HashMap<>(newPosition));
+            return;
+        }
+        //a torn line is cut off, the next line must not be appended to it
+        long size = channel.size();
+        try {
+            append(channel, ByteBuffer.wrap(line(changed)));
+        } catch (IOException e) {
+            try {
+                channel.truncate(size);
+                channel.position(size);
+            } catch (IOException te) {
+                e.addSuppressed(te);
+                broken = true;
+            }
+            throw e;
+        }
+        position.putAll(changed);
+        records++;
+    }
+
+    /**
+     * write the whole line at the end of the log and force it to disk.
+     */
+    void append(FileChannel fileChannel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+        fileChannel.force(false);
+    }
+
+    /**
+     * rewrite the whole position as one line into a temp file, open it and replace the log atomically.
+     * the old channel and position are kept until the new log replaced the old one, so a failed compact
+     * leaves the store writable and the next write compacts again.
+     */
+    private void compact(Map<String, String> newPosition) throws IOException {
+        File temp = FilePositionStore.tempFile(file);
+        FileChannel newChannel = null;
+        try {
+            newChannel = new RandomAccessFile(temp, "rw").getChannel();
+            newChannel.truncate(0);
+            ByteBuffer buffer = ByteBuffer.wrap(line(newPosition));
+            while (buffer.hasRemaining()) {
+                newChannel.write(buffer);
+            }
+            newChannel.force(false);
+            //the open channel keeps writing the renamed file
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            if (newChannel != null) {
+                closeQuietly(newChannel);
+            }
+            if (!temp.delete()) {
+                log.debug("temp position log {} not deleted", temp);
+            }
+            throw e;
+        }
+        FilePositionStore.syncDirectory(file.getAbsoluteFile().getParentFile());
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+        channel = newChannel;
+        position = newPosition;
+        records = 1;
+        broken = false;
+    }
+
+    private static void closeQuietly(FileChannel fileChannel) {
+        try {
+            fileChannel.close();
+        } catch (IOException e) {
+            log.error("Error: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] line(Map<String, String> changed) {
+        String json = JsonUtil.toJson(changed);
+        return (crc(json) + " " + json + "\n").getBytes(Charsets.UTF_8);
+    }
+
+    private static String crc(String json) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(json.getBytes(Charsets.UTF_8));
+        return Long.toHexString(crc32.getValue());
+    }
+
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        closeQuietly(channel);
+        channel = null;
+    }
+}
@@ -0,0 +1,143 @@
+package com.ilivoo.flume.source.jdbc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * next poll time of every identify of a table, single increment table has only {@link PositionStore#TABLE_KEY}.
+ * a full batch poll again at once, a part batch wait the time to fill a batch at the observed row rate
+ * (ewma of rows per millisecond) but no more than idleInterval, an empty poll back off exponentially
+ * from idleInterval to idleMax, but no more than the expected time of the next row.
+ */
+class PollScheduler {
+
+    private static final double RATE_ALPHA = 0.3;
+
+    private static final int MAX_SHIFT = 30;
+
+    private final long idleInterval;
+
+    private final long idleMax;
+
+    private final Map<String, Slot> slots = new HashMap<>();
+
+    private final PriorityQueue<Slot> deadlines = new PriorityQueue<>(11, new Comparator<Slot>() {
+        @Override
+        public int compare(Slot o1, Slot o2) {
+            return o1.deadline < o2.deadline ? -1 : (o1.deadline == o2.deadline ? 0 : 1);
+        }
+    });
+
+    PollScheduler(long idleInterval, long idleMax) {
+        this.idleInterval = idleInterval;
+        this.idleMax = Math.max(idleInterval, idleMax);
+    }
+
+    /**
+     * add a new key, it is due at once.
+     */
+    synchronized void add(String key) {
+        if (slots.containsKey(key)) {
+            return;
+        }
+        Slot slot = new Slot(key);
+        slots.put(key, slot);
+        deadlines.add(slot);
+    }
+
+    /**
+     * take the keys due at now, every taken key must be given back by {@link #record(String, int, long, long)}.
+     */
+    synchronized List<String> takeDue(long now) {
+        List<String> result = new ArrayList<>();
+        while (!deadlines.isEmpty() && deadlines.peek().deadline <= now) {
+            Slot slot = deadlines.poll();
+            slot.taken = true;
+            result.add(slot.key);
+        }
+        return result;
+    }
+
+    /**
+     * schedule the next poll of the key from the rows read, negative rows means the poll failed.
+     */
+    synchronized void record(String key, int rows, long batchSize, long now) {
+        Slot slot = slots.get(key);
+        if (slot == null || !slot.taken) {
+            return;
+        }
+        long elapsed = slot.lastPoll == 0 ? 0 : now - slot.lastPoll;
+        long interval;
+        if (rows < 0) {
+            interval = idleInterval;
+        } else if (rows >= batchSize) {
+            slot.idleCount = 0;
+            updateRate(slot, rows, elapsed);
+            interval = 0;
+        } else if (rows > 0) {
+            slot.idleCount = 0;
+            updateRate(slot, rows, elapsed);
+            interval = idleInterval;
+            if (slot.rate > 0) {
+                interval = Math.min(interval, (long) (batchSize / slot.rate));
+            }
+        } else {
+            slot.idleCount++;
+            updateRate(slot, 0, elapsed);
+            interval = Math.min(idleMax, idleInterval << Math.min(slot.idleCount - 1, MAX_SHIFT));
+            if (slot.rate > 0) {
+                interval = Math.min(interval, Math.max(idleInterval, (long) (1 / slot.rate)));
+            }
+            if (interval < 0) {
+                interval = idleMax;
+            }
+        }
+        if (rows >= 0) {
+            slot.lastPoll = now;
+        }
+        slot.deadline = now + interval;
+        slot.taken = false;
+        deadlines.add(slot);
+    }
+
+    private void updateRate(Slot slot, int rows, long elapsed) {
+        if (elapsed <= 0) {
+            return;
+        }
+        slot.rate = RATE_ALPHA * rows / elapsed + (1 - RATE_ALPHA) * slot.rate;
+    }
+
+    /**
+     * @return the earliest next poll time, Long.MAX_VALUE if nothing scheduled
+     */
+    synchronized long nextDeadline() {
+        Slot slot = deadlines.peek();
+        return slot == null ? Long.MAX_VALUE : slot.deadline;
+    }
+
+    synchronized int size() {
+        return slots.size();
+    }
+
+    private static class Slot {
+        final String key;
+        //next poll time
+        long deadline;
+        //last successful poll time
+        long lastPoll;
+        //ewma rows per millisecond
+        double rate;
+        //empty poll count since last row
+        int idleCount;
+        //taken by a poll, not in deadlines
+        boolean taken;
+
+        Slot(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.ilivoo.flume.source.jdbc;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * persist the read position of one table.
+ * the position is a map of identify:increment, single increment table use {@link #TABLE_KEY} as identify.
+ * implementation must have a public no-argument constructor.
+ */
+public interface PositionStore {
+
+    String TABLE_KEY = "";
+
+    /**
+     * @param path position path of the table without extension, such as positionDir/catalog/table
+     */
+    void open(String path) throws IOException;
+
+    /**
+     * @return the last written position, empty if nothing written
+     */
+    Map<String, String> read() throws IOException;
+
+    /**
+     * make the position durable, return when it is safe to crash.
+     */
+    void write(Map<String, String> position) throws IOException;
+
+    void close();
+}
@@ -0,0 +1,103 @@
+package com.ilivoo.flume.jdbc;
+
+import org.jooq.Field;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * resolve the column aliases of a batch of 1000 events to the fields of a 60 column table,
+ * linear scan of the table fields against {@link JDBCTable#getAliasField(String)}.
+ * run with main from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnResolveBenchmark {
+
+    private static final int COLUMNS = 60;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private JDBCTable table;
+
+    private List<Map<String, Object>> events;
+
+    @Setup
+    public void setup() {
+        List<Field<?>> fields = new ArrayList<>();
+        for (int i = 0; i < COLUMNS; i++) {
+            fields.add(DSL.inline(i).as("Column" + i));
+        }
+        table = new JDBCTable();
+        table.setName("bench");
+        table.table = DSL.select(fields).asTable("bench");
+        for (int i = 0; i < COLUMNS; i += 3) {
+            table.getColumnAliasMap().put("Column" + i, "alias" + i);
+        }
+        events = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Map<String, Object> event = new HashMap<>();
+            for (int j = 0; j < COLUMNS; j++) {
+                event.put(table.getColumnAlias("Column" + j).toLowerCase(), String.valueOf(i + j));
+            }
+            events.add(event);
+        }
+    }
+
+    @Benchmark
+    public void linear(Blackhole blackhole) {
+        for (Map<String, Object> event : events) {
+            for (Map.Entry<String, Object> entry : event.entrySet()) {
+                String columnName = table.getAliasColumn(entry.getKey());
+                if (!table.isColumnAccess(columnName)) {
+                    continue;
+                }
+                Field field = null;
+                for (Field f : table.getTable().fields()) {
+                    if (f.getName().equalsIgnoreCase(columnName)) {
+                        field = f;
+                        break;
+                    }
+                }
+                blackhole.consume(field == null ? null : field.getDataType().convert(entry.getValue()));
+            }
+        }
+    }
+
+    @Benchmark
+    public void plan(Blackhole blackhole) {
+        for (Map<String, Object> event : events) {
+            for (Map.Entry<String, Object> entry : event.entrySet()) {
+                Field field = table.getAliasField(entry.getKey());
+                blackhole.consume(field == null ? null : field.getDataType().convert(entry.getValue()));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ColumnResolveBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,55 @@
+package com.ilivoo.flume.jdbc;
+
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestStatementCache {
+
+    private final DSLContext dslContext = DSL.using(SQLDialect.MYSQL);
+
+    @Test
+    public void testPutKeepsFormer() {
+        StatementCache cache = new StatementCache();
+        SqlTemplate template = SqlTemplate.compile(dslContext.selectOne());
+        assertSame(template, cache.put("t1:select", template));
+        assertSame(template, cache.put("t1:select", SqlTemplate.compile(dslContext.selectOne())));
+        assertSame(template, cache.get("t1:select"));
+        assertNull(cache.get("t2:select"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        StatementCache cache = new StatementCache(2);
+        cache.put("t1:a", SqlTemplate.compile(dslContext.selectOne()));
+        cache.put("t1:b", SqlTemplate.compile(dslContext.selectOne()));
+        assertNotNull(cache.get("t1:a"));
+        //a shape more than the max size, the least recently used is evicted
+        cache.put("t1:c", SqlTemplate.compile(dslContext.selectOne()));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.get("t1:a"));
+        assertNull(cache.get("t1:b"));
+        assertNotNull(cache.get("t1:c"));
+    }
+
+    @Test
+    public void testInvalidatePrefix() {
+        StatementCache cache = new StatementCache();
+        cache.put("t1:select", SqlTemplate.compile(dslContext.selectOne()));
+        cache.put("t10:select", SqlTemplate.compile(dslContext.selectOne()));
+        cache.invalidate("t1:");
+        assertNull(cache.get("t1:select"));
+        assertNotNull(cache.get("t10:select"));
+        //invalidated is not evicted
+        assertEquals(0, cache.getEvictionCount());
+    }
+}
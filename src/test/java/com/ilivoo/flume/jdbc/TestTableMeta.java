@@ -0,0 +1,225 @@
+package com.ilivoo.flume.jdbc;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.jooq.tools.jdbc.DefaultConnection;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockDataProvider;
+import org.jooq.tools.jdbc.MockExecuteContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestTableMeta {
+
+    private static final String[] COLUMN_LABELS = {"TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME", "COLUMN_NAME",
+            "TYPE_NAME", "COLUMN_SIZE", "DECIMAL_DIGITS", "NULLABLE"};
+    private static final String[] PRIMARY_KEY_LABELS = {"PK_NAME", "KEY_SEQ", "COLUMN_NAME"};
+    private static final String[] INDEX_LABELS = {"INDEX_NAME", "TYPE", "NON_UNIQUE", "ORDINAL_POSITION",
+            "COLUMN_NAME"};
+
+    /**
+     * database meta of the table t1 in the catalog db like mysql, the columns can be changed.
+     */
+    private static class MetaHandler implements InvocationHandler {
+        volatile List<Object[]> columns = new ArrayList<>(Arrays.asList(
+                column("t1", "id", "INT", 10, 0, false),
+                column("t1", "name", "VARCHAR", 20, 0, true),
+                //matched by the table name pattern t_, not the same table
+                column("t10", "other", "INT", 10, 0, true)));
+
+        static Object[] column(String table, String name, String type, int size, int digits, boolean nullable) {
+            return new Object[]{"db", null, table, name, type, size, digits,
+                    nullable ? DatabaseMetaData.columnNullable : DatabaseMetaData.columnNoNulls};
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            boolean table = args != null && args.length > 2 && "db".equals(args[0]) && "t1".equals(args[2]);
+            if ("getColumns".equals(name)) {
+                return resultSet(COLUMN_LABELS, table ? columns : Collections.<Object[]>emptyList());
+            } else if ("getPrimaryKeys".equals(name)) {
+                return resultSet(PRIMARY_KEY_LABELS, table ? Collections.singletonList(
+                        new Object[]{"PRIMARY", 1, "id"}) : Collections.<Object[]>emptyList());
+            } else if ("getIndexInfo".equals(name)) {
+                return resultSet(INDEX_LABELS, table ? Arrays.asList(
+                        new Object[]{null, DatabaseMetaData.tableIndexStatistic, false, 0, null},
+                        new Object[]{"PRIMARY", DatabaseMetaData.tableIndexOther, false, 1, "id"},
+                        new Object[]{"uk_name", DatabaseMetaData.tableIndexOther, false, 1, "name"},
+                        new Object[]{"idx_other", DatabaseMetaData.tableIndexOther, true, 1, "name"})
+                        : Collections.<Object[]>emptyList());
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        DatabaseMetaData metaData() {
+            return (DatabaseMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[]{DatabaseMetaData.class}, this);
+        }
+    }
+
+    /**
+     * result set of the rows read by label.
+     */
+    private static ResultSet resultSet(final String[] labels, final List<Object[]> rows) {
+        return (ResultSet) Proxy.newProxyInstance(TestTableMeta.class.getClassLoader(),
+                new Class[]{ResultSet.class}, new InvocationHandler() {
+                    private int row = -1;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("next".equals(name)) {
+                            return ++row < rows.size();
+                        } else if ("close".equals(name)) {
+                            return null;
+                        }
+                        Object value = rows.get(row)[Arrays.asList(labels).indexOf(args[0])];
+                        if ("getString".equals(name)) {
+                            return (String) value;
+                        } else if ("getInt".equals(name)) {
+                            return ((Number) value).intValue();
+                        } else if ("getShort".equals(name)) {
+                            return ((Number) value).shortValue();
+                        } else if ("getBoolean".equals(name)) {
+                            return value;
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        TableMeta meta = TableMeta.load(new MetaHandler().metaData(), "db", "T1");
+        assertNotNull(meta);
+        assertEquals("db", meta.catalog);
+        assertNull(meta.schema);
+        assertEquals("t1", meta.name);
+        assertEquals(2, meta.columns.size());
+        assertEquals("id", meta.columns.get(0).name);
+        assertFalse(meta.columns.get(0).nullable);
+        assertEquals("VARCHAR", meta.columns.get(1).typeName);
+        assertEquals(20, meta.columns.get(1).precision);
+        assertEquals("PRIMARY", meta.primaryKeyName);
+        assertEquals(Collections.singletonList("id"), meta.primaryKey);
+        //the primary key index, the statistic and the non unique index are not unique keys
+        assertEquals(Collections.singletonMap("uk_name", Collections.singletonList("name")), meta.uniqueKeys);
+        assertTrue(meta.loadTime > 0);
+    }
+
+    @Test
+    public void testNoTable() throws Exception {
+        assertNull(TableMeta.load(new MetaHandler().metaData(), "db", "t2"));
+        assertNull(TableMeta.load(new MetaHandler().metaData(), "other", "t1"));
+    }
+
+    @Test
+    public void testSameSchema() throws Exception {
+        MetaHandler handler = new MetaHandler();
+        TableMeta meta = TableMeta.load(handler.metaData(), "db", "t1");
+        Thread.sleep(2);
+        TableMeta same = TableMeta.load(handler.metaData(), "db", "t1");
+        assertTrue(meta.sameSchema(same));
+
+        List<Object[]> columns = new ArrayList<>(handler.columns);
+        columns.set(1, MetaHandler.column("t1", "name", "VARCHAR", 40, 0, true));
+        handler.columns = columns;
+        assertFalse(meta.sameSchema(TableMeta.load(handler.metaData(), "db", "t1")));
+    }
+
+    @Test
+    public void testToTable() throws Exception {
+        TableMeta meta = TableMeta.load(new MetaHandler().metaData(), "db", "t1");
+        Table table = meta.toTable(SQLDialect.MYSQL);
+        assertEquals("t1", table.getName());
+        assertEquals("db", table.getSchema().getName());
+        assertEquals(2, table.fields().length);
+        Field id = table.field("id");
+        assertEquals(SQLDataType.INTEGER.getSQLDataType(), id.getDataType().getSQLDataType());
+        assertFalse(id.getDataType().nullable());
+        Field name = table.field("name");
+        assertEquals(20, name.getDataType().length());
+        assertTrue(name.getDataType().nullable());
+        assertEquals(Collections.singletonList(id), table.getPrimaryKey().getFields());
+        assertEquals(2, table.getKeys().size());
+    }
+
+    /**
+     * returns the database meta of the handler.
+     */
+    private static class MetaConnection extends DefaultConnection {
+        private final MetaHandler handler;
+
+        MetaConnection(MetaHandler handler) {
+            super(new MockConnection(new MockDataProvider() {
+                @Override
+                public MockResult[] execute(MockExecuteContext ctx) throws SQLException {
+                    return new MockResult[0];
+                }
+            }));
+            this.handler = handler;
+        }
+
+        @Override
+        public DatabaseMetaData getMetaData() {
+            return handler.metaData();
+        }
+    }
+
+    @Test
+    public void testRefreshListener() throws Exception {
+        MetaHandler handler = new MetaHandler();
+        DSLContext dslContext = DSL.using(new MetaConnection(handler), SQLDialect.MYSQL);
+        JDBCTable t1 = new JDBCTable();
+        t1.setName("t1");
+        DBContext<JDBCTable> dbContext = new DBContext<>(dslContext, "db",
+                Collections.singletonList(t1), null);
+        dbContext.setMetaSnapshot(false);
+        dbContext.setMetaRefresh(1);
+        dbContext.init();
+        Table table = t1.getTable();
+        assertEquals(2, table.fields().length);
+        StatementCache statementCache = dbContext.getStatementCache();
+        statementCache.put("t1:select", SqlTemplate.compile(dslContext.selectOne()));
+        statementCache.put("t10:select", SqlTemplate.compile(dslContext.selectOne()));
+
+        List<Object[]> columns = new ArrayList<>(handler.columns);
+        columns.add(MetaHandler.column("t1", "age", "INT", 10, 0, true));
+        handler.columns = columns;
+        Thread.sleep(5);
+        //the former table is returned while the meta is read again in the background
+        assertEquals(table, dbContext.getDBTable("t1"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (statementCache.size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, t1.getTable().fields().length);
+        assertNotNull(t1.getTable().field("age"));
+        //only the statements of the changed table are invalidated
+        assertEquals(1, statementCache.size());
+        assertNotNull(statementCache.get("t10:select"));
+        assertEquals(3, dbContext.getDBTable("t1").fields().length);
+    }
+}
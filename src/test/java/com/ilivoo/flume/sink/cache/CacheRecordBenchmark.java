@@ -0,0 +1,101 @@
+package com.ilivoo.flume.sink.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * copy the device value of a cache into the payload and headers of an event, as the mqtt cache interceptor,
+ * from the json map stored before against {@link CacheRecord}. run with main from the test classpath,
+ * gc.alloc.rate.norm is the allocation of one event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheRecordBenchmark {
+
+    private static final int COLUMNS = 20;
+
+    private static final String[] INCLUDES = {"column1", "column5", "column9"};
+
+    private Map<String, String> map;
+
+    private CacheRecord record;
+
+    private Map<String, String> payload;
+
+    @Setup
+    public void setup() {
+        map = new HashMap<>();
+        for (int i = 0; i < COLUMNS; i++) {
+            map.put("column" + i, "value" + i);
+        }
+        record = CacheRecord.of(map);
+        payload = new HashMap<>();
+        payload.put("time", "2020-01-01 00:00:00");
+        payload.put("value", "1.0");
+    }
+
+    @Benchmark
+    public Map<String, String> map() {
+        Map<String, String> eventPayload = new HashMap<>(payload);
+        eventPayload.putAll(map);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("key", "client");
+        headers.putAll(map);
+        return headers.size() > eventPayload.size() ? headers : eventPayload;
+    }
+
+    @Benchmark
+    public Map<String, String> record() {
+        Map<String, String> eventPayload = new HashMap<>(payload);
+        record.copyTo(eventPayload);
+        Map<String, String> headers = new HashMap<>((record.size() + 1) * 4 / 3 + 1);
+        headers.put("key", "client");
+        record.copyTo(headers);
+        return headers.size() > eventPayload.size() ? headers : eventPayload;
+    }
+
+    @Benchmark
+    public Map<String, String> mapIncludes() {
+        Map<String, String> eventPayload = new HashMap<>(payload);
+        for (String key : INCLUDES) {
+            String value = map.get(key);
+            if (value != null && !value.isEmpty()) {
+                eventPayload.put(key, value);
+            }
+        }
+        return eventPayload;
+    }
+
+    @Benchmark
+    public Map<String, String> recordIncludes() {
+        Map<String, String> eventPayload = new HashMap<>(payload);
+        record.copyTo(eventPayload, INCLUDES);
+        return eventPayload;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CacheRecordBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,118 @@
+package com.ilivoo.flume.sink.cache;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestBoundedCache {
+
+    private static final Map<String, String> VALUE = Collections.singletonMap("code", "d1");
+
+    private static BoundedCache.Segment segment(CachePolicy policy) {
+        return new BoundedCache.Segment(policy, new CacheCounter("test"));
+    }
+
+    @Test
+    public void testFrequencySketch() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("hot");
+        }
+        sketch.increment("cold");
+        assertEquals(5, sketch.frequency("hot"));
+        assertEquals(1, sketch.frequency("cold"));
+        assertEquals(0, sketch.frequency("none"));
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("hot");
+        }
+        assertEquals(15, sketch.frequency("hot"));
+    }
+
+    @Test
+    public void testMaxEntries() {
+        BoundedCache.Segment segment = segment(new CachePolicy(100, 0, 0, 0));
+        for (int i = 0; i < 1000; i++) {
+            segment.put("key" + i, VALUE);
+        }
+        assertEquals(100, segment.size());
+    }
+
+    @Test
+    public void testFrequentKeysAdmitted() {
+        BoundedCache.Segment segment = segment(new CachePolicy(100, 0, 0, 0));
+        for (int i = 0; i < 100; i++) {
+            segment.put("hot" + i, VALUE);
+            segment.get("hot" + i);
+            segment.get("hot" + i);
+        }
+        //a scan of new keys accessed once does not evict the keys accessed often
+        for (int i = 0; i < 1000; i++) {
+            segment.put("scan" + i, VALUE);
+        }
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (segment.contains("hot" + i)) {
+                hot++;
+            }
+        }
+        assertTrue("hot keys kept " + hot, hot >= 90);
+    }
+
+    @Test
+    public void testMaxWeight() {
+        BoundedCache.Segment segment = segment(new CachePolicy(0, 1000, 0, 0));
+        for (int i = 0; i < 1000; i++) {
+            segment.put("key" + i, VALUE);
+        }
+        //about 10 chars every entry
+        assertTrue(segment.size() <= 100);
+    }
+
+    @Test
+    public void testExpireAfterWrite() throws Exception {
+        BoundedCache.Segment segment = segment(new CachePolicy(0, 0, 50, 0));
+        segment.put("key", VALUE);
+        assertEquals(VALUE, segment.get("key"));
+        Thread.sleep(60);
+        assertNull(segment.get("key"));
+        assertFalse(segment.contains("key"));
+    }
+
+    @Test
+    public void testExpireAfterAccess() throws Exception {
+        BoundedCache.Segment segment = segment(new CachePolicy(0, 0, 0, 200));
+        segment.put("old", VALUE);
+        segment.put("read", VALUE);
+        Thread.sleep(120);
+        assertEquals(VALUE, segment.get("read"));
+        Thread.sleep(120);
+        //old expired at the head of the access order, read is accessed later
+        segment.put("new", VALUE);
+        assertFalse(segment.contains("old"));
+        assertTrue(segment.contains("read"));
+        assertTrue(segment.contains("new"));
+    }
+
+    @Test
+    public void testExpireIncrementally() throws Exception {
+        BoundedCache.Segment segment = segment(new CachePolicy(0, 0, 50, 0));
+        int expiring = BoundedCache.CLEAN_UP_MAX * 3;
+        for (int i = 0; i < expiring; i++) {
+            segment.put("key" + i, VALUE);
+        }
+        Thread.sleep(60);
+        //every put removes a limited number of the expired entries
+        segment.put("new0", VALUE);
+        assertEquals(expiring - BoundedCache.CLEAN_UP_MAX + 1, segment.size());
+        segment.put("new1", VALUE);
+        segment.put("new2", VALUE);
+        assertEquals(3, segment.size());
+        assertTrue(segment.contains("new0"));
+    }
+}
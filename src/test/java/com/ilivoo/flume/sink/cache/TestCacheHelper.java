@@ -0,0 +1,115 @@
+package com.ilivoo.flume.sink.cache;
+
+import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TestCacheHelper {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("cache-helper").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        //release the file of the mapped cache
+        CacheHelper.configure(new Context(Collections.singletonMap(CacheHelper.CACHE_TYPE,
+                CacheHelper.CACHE_TYPE_MEMORY)));
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private Context mapped(File cacheDir) {
+        Context context = new Context();
+        context.put(CacheHelper.CACHE_TYPE, CacheHelper.CACHE_TYPE_MAPPED);
+        context.put(CacheHelper.CACHE_DIR, cacheDir.getPath());
+        return context;
+    }
+
+    private static Map<String, String> device(String code) {
+        return Collections.singletonMap("code", code);
+    }
+
+    @Test
+    public void testSameFileReplaced() {
+        CacheHelper.configure(mapped(dir));
+        CacheHelper.put("device", "c1", device("d1"));
+        Context context = mapped(dir);
+        context.put(CacheHelper.CACHE_LOADERS, "");
+        CacheHelper.configure(context);
+        //opened again by the new cache
+        assertEquals(device("d1"), CacheHelper.get("device", "c1"));
+        CacheHelper.put("device", "c2", device("d2"));
+        assertEquals(device("d2"), CacheHelper.get("device", "c2"));
+    }
+
+    @Test
+    public void testFailureKeepsFormer() {
+        CacheHelper.configure(mapped(dir));
+        CacheHelper.put("device", "c1", device("d1"));
+        Context context = mapped(dir);
+        context.put(CacheHelper.CACHE_LOADERS, "device");
+        context.put(CacheHelper.CACHE_LOADERS + ".device." + CacheHelper.LOADER_REFRESH_AFTER_WRITE, "-1");
+        try {
+            CacheHelper.configure(context);
+            fail("negative refreshAfterWrite");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        //the former cache opened the file again
+        assertEquals(device("d1"), CacheHelper.get("device", "c1"));
+        CacheHelper.put("device", "c2", device("d2"));
+        assertEquals(device("d2"), CacheHelper.get("device", "c2"));
+    }
+
+    @Test
+    public void testOtherFileNotClosedEarly() throws Exception {
+        CacheHelper.configure(mapped(dir));
+        CacheHelper.put("device", "c1", device("d1"));
+        File other = new File(dir, "other");
+        //the directory can not be created, the former cache is not touched
+        Files.createFile(other.toPath());
+        try {
+            CacheHelper.configure(mapped(other));
+            fail("cache directory is a file");
+        } catch (FlumeException e) {
+            //expected
+        }
+        CacheHelper.put("device", "c2", device("d2"));
+        assertEquals(device("d2"), CacheHelper.get("device", "c2"));
+        assertNull(CacheHelper.get("device", "c3"));
+    }
+
+    @Test
+    public void testClosedFileRejectsPut() {
+        MappedCache cache = new MappedCache(dir.getPath());
+        cache.put("device", "c1", device("d1"));
+        cache.closeFile();
+        try {
+            cache.put("device", "c2", device("d2"));
+            fail("file closed");
+        } catch (FlumeException e) {
+            //expected
+        }
+        cache.reopen();
+        assertEquals(device("d1"), cache.get("device", "c1"));
+        cache.put("device", "c2", device("d2"));
+        cache.close();
+    }
+}
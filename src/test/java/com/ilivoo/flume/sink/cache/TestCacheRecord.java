@@ -0,0 +1,63 @@
+package com.ilivoo.flume.sink.cache;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCacheRecord {
+
+    private static Map<String, String> device(String code) {
+        Map<String, String> value = new LinkedHashMap<>();
+        value.put("code", code);
+        value.put("app", "a");
+        value.put("none", null);
+        return value;
+    }
+
+    @Test
+    public void testMap() {
+        Map<String, String> value = device("d1");
+        CacheRecord record = CacheRecord.of(value);
+        assertEquals(value, record);
+        assertEquals(record, value);
+        assertEquals(value.hashCode(), record.hashCode());
+        assertEquals("d1", record.get("code"));
+        assertTrue(record.containsKey("none"));
+        assertNull(record.get("none"));
+        assertFalse(record.containsKey("other"));
+        assertSame(record, CacheRecord.of(record));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        CacheRecord.of(device("d1")).put("code", "d2");
+    }
+
+    @Test
+    public void testVersion() {
+        CacheRecord first = CacheRecord.of(device("d1"));
+        CacheRecord second = CacheRecord.of(device("d2"));
+        assertTrue(second.version() > first.version());
+    }
+
+    @Test
+    public void testCopyTo() {
+        CacheRecord record = CacheRecord.of(device("d1"));
+        Map<String, String> all = new HashMap<>();
+        record.copyTo(all);
+        assertEquals(device("d1"), all);
+
+        Map<String, String> included = new HashMap<>();
+        record.copyTo(included, new String[]{"code", "none", "other"});
+        assertEquals(1, included.size());
+        assertEquals("d1", included.get("code"));
+    }
+}
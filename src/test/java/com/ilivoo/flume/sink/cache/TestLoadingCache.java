@@ -0,0 +1,195 @@
+package com.ilivoo.flume.sink.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLoadingCache {
+
+    /**
+     * a table of the keys starting with c, every load waits the gate.
+     */
+    private static class TableLoader implements CacheLoader {
+        final List<Collection<String>> loads = Collections.synchronizedList(new ArrayList<Collection<String>>());
+        final AtomicInteger version = new AtomicInteger();
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        volatile boolean down;
+        volatile boolean closed;
+
+        @Override
+        public Map<String, Map<String, String>> loadAll(Collection<String> keys) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            loads.add(new ArrayList<>(keys));
+            if (down) {
+                throw new RuntimeException("database down");
+            }
+            Map<String, Map<String, String>> result = new HashMap<>();
+            for (String key : keys) {
+                if (key.startsWith("c")) {
+                    result.put(key, Collections.singletonMap("version", String.valueOf(version.get())));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int batchSize() {
+            return 100;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void testReadThrough() {
+        TableLoader loader = new TableLoader();
+        LoadingCache cache = new LoadingCache(new MemoryCache());
+        cache.addLoader("device", loader, 0, 60000);
+        final List<String> puts = new ArrayList<>();
+        cache.addListener(new CacheListener() {
+            @Override
+            public void cachePut(String name, String key, Map<String, String> value) {
+                puts.add(key);
+            }
+        });
+
+        assertEquals("0", cache.get("device", "c1").get("version"));
+        assertEquals("0", cache.get("device", "c1").get("version"));
+        assertNull(cache.get("device", "x1"));
+        //the miss is cached
+        assertNull(cache.get("device", "x1"));
+        assertNull(cache.get("user", "c1"));
+        assertEquals(2, loader.loads.size());
+        assertEquals(Collections.singletonList("c1"), puts);
+        cache.close();
+        assertTrue(loader.closed);
+    }
+
+    @Test
+    public void testMissExpire() throws Exception {
+        TableLoader loader = new TableLoader();
+        LoadingCache cache = new LoadingCache(new MemoryCache());
+        cache.addLoader("device", loader, 0, 50);
+        assertNull(cache.get("device", "x1"));
+        assertNull(cache.get("device", "x1"));
+        assertEquals(1, loader.loads.size());
+        Thread.sleep(60);
+        assertNull(cache.get("device", "x1"));
+        assertEquals(2, loader.loads.size());
+        //a put replaces the miss
+        cache.put("device", "x1", Collections.singletonMap("version", "9"));
+        assertEquals("9", cache.get("device", "x1").get("version"));
+        cache.close();
+    }
+
+    @Test
+    public void testBackoffAfterFailure() {
+        TableLoader loader = new TableLoader();
+        LoadingCache cache = new LoadingCache(new MemoryCache());
+        cache.addLoader("device", loader, 0, 60000);
+        loader.down = true;
+        assertNull(cache.get("device", "c1"));
+        //no load while backing off, the failed key is not cached as a miss
+        assertNull(cache.get("device", "c1"));
+        assertNull(cache.get("device", "c2"));
+        assertEquals(1, loader.loads.size());
+        cache.close();
+    }
+
+    @Test
+    public void testGetIfPresent() throws Exception {
+        TableLoader loader = new TableLoader();
+        LoadingCache cache = new LoadingCache(new MemoryCache());
+        cache.addLoader("device", loader, 0, 60000);
+        loader.gate = new CountDownLatch(1);
+        final CountDownLatch put = new CountDownLatch(1);
+        cache.addListener(new CacheListener() {
+            @Override
+            public void cachePut(String name, String key, Map<String, String> value) {
+                put.countDown();
+            }
+        });
+        //returns at once while the load waits
+        assertNull(cache.getIfPresent("device", "c1"));
+        loader.gate.countDown();
+        assertTrue(put.await(2, TimeUnit.SECONDS));
+        assertEquals("0", cache.getIfPresent("device", "c1").get("version"));
+        assertEquals(1, loader.loads.size());
+        cache.close();
+    }
+
+    @Test
+    public void testConcurrentMissesLoadedTogether() throws Exception {
+        final TableLoader loader = new TableLoader();
+        final LoadingCache cache = new LoadingCache(new MemoryCache());
+        cache.addLoader("device", loader, 0, 60000);
+        loader.gate = new CountDownLatch(1);
+        //the first miss holds the load, the misses meanwhile wait for the next one
+        List<Thread> threads = new ArrayList<>();
+        final AtomicInteger found = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            final String key = "c" + (i % 5);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (cache.get("device", key) != null) {
+                        found.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        Thread.sleep(200);
+        loader.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(20, found.get());
+        assertTrue("loads " + loader.loads, loader.loads.size() <= 2);
+        int keys = 0;
+        for (Collection<String> load : loader.loads) {
+            keys += load.size();
+        }
+        assertEquals(5, keys);
+        cache.close();
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        TableLoader loader = new TableLoader();
+        LoadingCache cache = new LoadingCache(new MemoryCache());
+        cache.addLoader("device", loader, 50, 60000);
+        assertEquals("0", cache.get("device", "c1").get("version"));
+        loader.version.set(1);
+        Thread.sleep(60);
+        //the former value is returned while reloading
+        assertEquals("0", cache.get("device", "c1").get("version"));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (loader.loads.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(20);
+        assertEquals("1", cache.get("device", "c1").get("version"));
+        cache.close();
+    }
+}
@@ -0,0 +1,147 @@
+package com.ilivoo.flume.sink.cache;
+
+import com.google.common.base.Strings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestMappedCache {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("mapped-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static Map<String, String> device(String code, String app) {
+        Map<String, String> value = new HashMap<>();
+        value.put("code", code);
+        value.put("app", app);
+        value.put("none", null);
+        return value;
+    }
+
+    @Test
+    public void testReopen() {
+        MappedCache cache = new MappedCache(dir.getPath());
+        cache.put("device", "c1", device("d1", "a"));
+        cache.put("device", "c2", device("d2", "a"));
+        cache.put("device", "c1", device("d1", "b"));
+        cache.put("user", "c1", Collections.<String, String>emptyMap());
+        cache.close();
+
+        cache = new MappedCache(dir.getPath());
+        assertEquals(3, cache.size());
+        assertEquals(device("d1", "b"), cache.get("device", "c1"));
+        assertEquals(device("d2", "a"), cache.get("device", "c2"));
+        assertEquals(Collections.<String, String>emptyMap(), cache.get("user", "c1"));
+        assertNull(cache.get("device", "c3"));
+        cache.close();
+    }
+
+    @Test
+    public void testBrokenRecord() throws Exception {
+        MappedCache cache = new MappedCache(dir.getPath());
+        cache.put("device", "c1", device("d1", "a"));
+        cache.close();
+        //a record broken by crash after the valid one
+        File file = new File(dir, MappedCache.FILE_NAME);
+        long end = 16 + 8 + MappedCache.encode("device", "c1", device("d1", "a")).length;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(end);
+        raf.writeInt(20);
+        raf.writeInt(12345);
+        raf.write(new byte[]{1, 2, 3});
+        raf.close();
+
+        cache = new MappedCache(dir.getPath());
+        assertEquals(1, cache.size());
+        cache.put("device", "c2", device("d2", "a"));
+        cache.close();
+        cache = new MappedCache(dir.getPath());
+        assertEquals(device("d1", "a"), cache.get("device", "c1"));
+        assertEquals(device("d2", "a"), cache.get("device", "c2"));
+        cache.close();
+    }
+
+    @Test
+    public void testCompact() {
+        MappedCache cache = new MappedCache(dir.getPath());
+        //about 20m of records, the file is compacted when replaced records are the most
+        for (int i = 0; i < 400000; i++) {
+            cache.put("device", "c" + (i % 100), device("d" + i, "a"));
+        }
+        assertEquals(100, cache.size());
+        assertEquals(device("d399999", "a"), cache.get("device", "c99"));
+        cache.close();
+        assertTrue(new File(dir, MappedCache.FILE_NAME).length() <= 16 << 20);
+        cache = new MappedCache(dir.getPath());
+        assertEquals(100, cache.size());
+        assertEquals(device("d399900", "a"), cache.get("device", "c0"));
+        cache.close();
+    }
+
+    @Test
+    public void testCompactFailureKeepsCache() throws Exception {
+        MappedCache cache = new MappedCache(dir.getPath());
+        //the compact file can not be created
+        assertTrue(new File(dir, MappedCache.FILE_NAME + ".compact").mkdir());
+        for (int i = 0; i < 400000; i++) {
+            cache.put("device", "c" + (i % 100), device("d" + i, "a"));
+        }
+        assertEquals(100, cache.size());
+        assertEquals(device("d399999", "a"), cache.get("device", "c99"));
+        cache.close();
+        cache = new MappedCache(dir.getPath());
+        assertEquals(device("d399900", "a"), cache.get("device", "c0"));
+        cache.close();
+    }
+
+    @Test
+    public void testFullCompacts() {
+        MappedCache cache = new MappedCache(dir.getPath(), 1 << 20);
+        //the replaced records make room
+        for (int i = 0; i < 100000; i++) {
+            cache.put("device", "c" + (i % 100), device("d" + i, "a"));
+        }
+        assertEquals(device("d99999", "a"), cache.get("device", "c99"));
+        cache.close();
+        assertTrue(new File(dir, MappedCache.FILE_NAME).length() <= 1 << 20);
+    }
+
+    @Test
+    public void testFullRejectsPuts() {
+        MappedCache cache = new MappedCache(dir.getPath(), 1 << 20);
+        for (int i = 0; i < 50000; i++) {
+            cache.put("device", "c" + i, device("d" + i, "a"));
+        }
+        int size = cache.size();
+        assertTrue(size > 0 && size < 50000);
+        assertEquals(device("d0", "a"), cache.get("device", "c0"));
+        assertNull(cache.get("device", "c49999"));
+        //the former value is kept
+        cache.put("device", "c0", device("d0", Strings.repeat("b", 1000)));
+        assertEquals(device("d0", "a"), cache.get("device", "c0"));
+        cache.close();
+    }
+}
@@ -0,0 +1,109 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import com.ilivoo.flume.utils.JsonUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bind 10 parameters from json bodies of 30 keys, a batch of 1000 events,
+ * gson map with a linear scan per parameter against {@link JsonFieldDecoder}.
+ * run with main from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonFieldDecoderBenchmark {
+
+    private static final int KEYS = 30;
+
+    private static final int PARAMETERS = 10;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private List<String> parameters;
+
+    private List<byte[]> bodies;
+
+    private JsonFieldDecoder decoder;
+
+    @Setup
+    public void setup() throws Exception {
+        parameters = new ArrayList<>();
+        for (int i = 0; i < PARAMETERS; i++) {
+            parameters.add("key" + i * 3);
+        }
+        bodies = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            StringBuilder body = new StringBuilder("{");
+            for (int j = 0; j < KEYS; j++) {
+                if (j > 0) {
+                    body.append(',');
+                }
+                body.append("\"key").append(j).append("\":");
+                if (j % 3 == 0) {
+                    body.append(i * j);
+                } else {
+                    body.append("\"value ").append(i).append(' ').append(j).append('"');
+                }
+            }
+            bodies.add(body.append('}').toString().getBytes("UTF-8"));
+        }
+        decoder = new JsonFieldDecoder(PARAMETERS, new JsonFieldDecoder.SlotResolver() {
+            @Override
+            public int slot(String key) {
+                return parameters.indexOf(key);
+            }
+        });
+    }
+
+    @Benchmark
+    public void gson(Blackhole blackhole) throws Exception {
+        for (byte[] body : bodies) {
+            Map<String, Object> values = JsonUtil.jsonToObjectMap(new String(body, "UTF-8"));
+            for (String parameter : parameters) {
+                for (Map.Entry<String, Object> entry : values.entrySet()) {
+                    if (entry.getKey().equals(parameter)) {
+                        blackhole.consume(entry.getValue());
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void decoder(Blackhole blackhole) {
+        Object[] values = new Object[PARAMETERS];
+        for (byte[] body : bodies) {
+            decoder.decode(body, values);
+            for (Object value : values) {
+                blackhole.consume(value);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(JsonFieldDecoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,157 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockDataProvider;
+import org.jooq.tools.jdbc.MockExecuteContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestBulkLoader {
+
+    private static final Table TABLE = DSL.table(DSL.name("t"));
+    private static final Field ID = DSL.field(DSL.name("id"));
+    private static final Field NAME = DSL.field(DSL.name("name"));
+    private static final List<Field> FIELDS = Arrays.asList(ID, NAME);
+    private static final int[] KEY = {0};
+
+    @Test
+    public void testLastRowWins() {
+        List<Object[]> rows = Arrays.asList(
+                new Object[]{1, "a"}, new Object[]{2, "b"}, new Object[]{1, "c"}, new Object[]{3, "d"});
+        List<Object[]> result = BulkLoader.lastRows(KEY, rows);
+        //the last row of a key at the position of its last occurrence
+        assertEquals(3, result.size());
+        assertArrayEquals(new Object[]{2, "b"}, result.get(0));
+        assertArrayEquals(new Object[]{1, "c"}, result.get(1));
+        assertArrayEquals(new Object[]{3, "d"}, result.get(2));
+    }
+
+    @Test
+    public void testLastRowWinsCompositeKey() {
+        List<Object[]> rows = Arrays.asList(
+                new Object[]{1, "a", "x"}, new Object[]{1, "b", "y"}, new Object[]{1, "a", "z"});
+        List<Object[]> result = BulkLoader.lastRows(new int[]{0, 1}, rows);
+        assertEquals(2, result.size());
+        assertArrayEquals(new Object[]{1, "b", "y"}, result.get(0));
+        assertArrayEquals(new Object[]{1, "a", "z"}, result.get(1));
+    }
+
+    @Test
+    public void testMySQL() {
+        DSLContext context = DSL.using(SQLDialect.MYSQL);
+        BulkLoader loader = BulkLoader.create(SQLDialect.MYSQL);
+        assertEquals("drop temporary table if exists flume_stage", loader.dropStage(context));
+        assertEquals("create temporary table flume_stage select `id`, `name` from `t` where 1 = 0",
+                loader.createStage(context, TABLE, FIELDS));
+        assertEquals("insert into `t` (`id`, `name`) select `id`, `name` from flume_stage"
+                        + " on duplicate key update `id` = values(`id`), `name` = values(`name`)",
+                loader.merge(context, TABLE, FIELDS, KEY));
+    }
+
+    @Test
+    public void testPostgres() {
+        DSLContext context = DSL.using(SQLDialect.POSTGRES);
+        BulkLoader loader = BulkLoader.create(SQLDialect.POSTGRES);
+        assertEquals("drop table if exists pg_temp.flume_stage", loader.dropStage(context));
+        assertEquals("create temporary table flume_stage as select \"id\", \"name\" from \"t\" with no data",
+                loader.createStage(context, TABLE, FIELDS));
+        assertEquals("insert into \"t\" (\"id\", \"name\") select \"id\", \"name\" from flume_stage"
+                        + " on conflict (\"id\") do update set \"name\" = excluded.\"name\"",
+                loader.merge(context, TABLE, FIELDS, KEY));
+        //only key columns, nothing to update
+        assertEquals("insert into \"t\" (\"id\") select \"id\" from flume_stage on conflict (\"id\") do nothing",
+                loader.merge(context, TABLE, Collections.singletonList(ID), KEY));
+    }
+
+    @Test
+    public void testSQLServer() {
+        DSLContext context = DSL.using(SQLDialect.SQLSERVER);
+        BulkLoader loader = BulkLoader.create(SQLDialect.SQLSERVER);
+        assertEquals("if object_id('tempdb..#flume_stage') is not null drop table #flume_stage",
+                loader.dropStage(context));
+        assertEquals("select [id], [name] into #flume_stage from [t] where 1 = 0",
+                loader.createStage(context, TABLE, FIELDS));
+        assertEquals("merge into [t] as t using #flume_stage as s on t.[id] = s.[id]"
+                        + " when matched then update set t.[name] = s.[name]"
+                        + " when not matched then insert ([id], [name]) values (s.[id], s.[name]);",
+                loader.merge(context, TABLE, FIELDS, KEY));
+    }
+
+    @Test
+    public void testNoBulkLoad() {
+        assertNull(BulkLoader.create(SQLDialect.H2));
+    }
+
+    /**
+     * records the statements and the copy, the copy fails.
+     */
+    private static class FailingLoader extends BulkLoader {
+        final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+        final Exception copyFailure = new Exception("copy failed");
+
+        @Override
+        protected String dropStage(DSLContext context) {
+            return "drop";
+        }
+
+        @Override
+        protected String createStage(DSLContext context, Table table, List<Field> fields) {
+            return "create";
+        }
+
+        @Override
+        protected void copy(DSLContext context, Connection connection, List<Field> fields,
+                            List<Object[]> rows) throws Exception {
+            executed.add("copy");
+            throw copyFailure;
+        }
+
+        @Override
+        protected String merge(DSLContext context, Table table, List<Field> fields, int[] keyIndexes) {
+            return "merge";
+        }
+    }
+
+    @Test
+    public void testDropFailureKeepsCopyFailure() throws Exception {
+        final FailingLoader loader = new FailingLoader();
+        //the drop after the failed copy fails like in an aborted transaction
+        Connection connection = new MockConnection(new MockDataProvider() {
+            @Override
+            public MockResult[] execute(MockExecuteContext ctx) throws SQLException {
+                if (loader.executed.contains("copy")) {
+                    throw new SQLException("current transaction is aborted", "25P02");
+                }
+                loader.executed.add(ctx.sql());
+                return new MockResult[]{new MockResult(0, null)};
+            }
+        });
+        try {
+            loader.load(DSL.using(SQLDialect.POSTGRES), connection, TABLE, FIELDS, KEY,
+                    Collections.singletonList(new Object[]{1, "a"}));
+            fail("the copy failure is thrown");
+        } catch (Exception e) {
+            assertSame(loader.copyFailure, e);
+            assertEquals(1, e.getSuppressed().length);
+        }
+        assertEquals(Arrays.asList("drop", "create", "copy"), loader.executed);
+    }
+}
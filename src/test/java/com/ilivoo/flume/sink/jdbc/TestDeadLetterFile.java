@@ -0,0 +1,66 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import com.google.common.base.Charsets;
+import com.ilivoo.flume.utils.JsonUtil;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestDeadLetterFile {
+
+    private static Map<String, Object> parse(byte[] line) {
+        String json = new String(line, Charsets.UTF_8);
+        assertTrue(json.endsWith("\n"));
+        return JsonUtil.jsonToObjectMap(json.trim());
+    }
+
+    @Test
+    public void testTextBody() {
+        byte[] line = DeadLetterFile.line(EventBuilder.withBody("{\"id\":\"中\"}".getBytes(Charsets.UTF_8),
+                Collections.singletonMap("table", "tmq")), "tmq", new JDBCSinkException("Query failed"));
+        Map<String, Object> record = parse(line);
+        assertEquals("tmq", record.get("table"));
+        assertEquals("{\"id\":\"中\"}", record.get("body"));
+        //nested objects are kept as json text
+        assertEquals(Collections.singletonMap("table", "tmq"), JsonUtil.jsonToStringMap((String) record.get("headers")));
+        assertFalse(record.containsKey("bodyBase64"));
+    }
+
+    @Test
+    public void testBinaryBody() {
+        byte[] line = DeadLetterFile.line(EventBuilder.withBody(new byte[]{(byte) 0xff, 0x01}),
+                "tmq", new JDBCSinkException("Query failed"));
+        Map<String, Object> record = parse(line);
+        assertEquals("/wE=", record.get("bodyBase64"));
+        assertFalse(record.containsKey("body"));
+    }
+
+    @Test
+    public void testTransient() {
+        assertTrue(JDBCSink.isTransient(new JDBCSinkException(new SQLException("lost", "08S01"))));
+        assertTrue(JDBCSink.isTransient(new SQLException("deadlock", "40001")));
+        assertFalse(JDBCSink.isTransient(new JDBCSinkException(
+                new SQLIntegrityConstraintViolationException("duplicate", "23000"))));
+        assertEquals("SQLIntegrityConstraintViolationException", JDBCSink.errorClass(
+                new JDBCSinkException(new SQLIntegrityConstraintViolationException("duplicate", "23000"))));
+    }
+
+    @Test
+    public void testFailureCode() {
+        assertEquals("42S02:1146", JDBCSink.failureCode(new JDBCSinkException(
+                new SQLException("table doesn't exist", "42S02", 1146))));
+        //row failures are not compared
+        assertNull(JDBCSink.failureCode(new SQLIntegrityConstraintViolationException("duplicate", "23000", 1062)));
+        assertNull(JDBCSink.failureCode(new SQLException("out of range", "22003")));
+        assertNull(JDBCSink.failureCode(new JDBCSinkException("Query failed")));
+    }
+}
@@ -0,0 +1,67 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import com.ilivoo.flume.utils.JsonUtil;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestJsonFieldDecoder {
+
+    private static final List<String> KEYS = Arrays.asList("id", "name", "price", "flag", "tags", "a\"b", "中文", "");
+
+    private static JsonFieldDecoder decoder() {
+        return new JsonFieldDecoder(KEYS.size(), new JsonFieldDecoder.SlotResolver() {
+            @Override
+            public int slot(String key) {
+                return KEYS.indexOf(key);
+            }
+        });
+    }
+
+    private static void assertSameAsGson(JsonFieldDecoder decoder, String json) throws Exception {
+        Object[] values = new Object[KEYS.size()];
+        assertTrue(json, decoder.decode(json.getBytes("UTF-8"), values));
+        Map<String, Object> expects = JsonUtil.jsonToObjectMap(json);
+        for (int i = 0; i < KEYS.size(); i++) {
+            Object expect = expects.get(KEYS.get(i));
+            assertEquals(json, expect == null ? null : expect.getClass(), values[i] == null ? null : values[i].getClass());
+            assertEquals(json, expect == null ? null : expect.toString(), values[i] == null ? null : values[i].toString());
+        }
+    }
+
+    @Test
+    public void testSameAsGson() throws Exception {
+        JsonFieldDecoder decoder = decoder();
+        String[] bodies = {
+                "{}",
+                " { \"id\" : 1 , \"name\" : \"n\" } \n",
+                "{\"id\":-12,\"price\":0.5e-3,\"flag\":true,\"name\":null,\"other\":{\"x\":[1,\"}\"]}}",
+                "{\"id\":123456789012345678901234567890,\"price\":-0,\"flag\":false}",
+                "{\"name\":\"\\\" \\\\ \\/ \\b\\f\\n\\r\\t \\u00e9\\ud83d\\ude00 中 😀\",\"a\\\"b\":\"x\"}",
+                "{\"tags\":[1, 2, {\"k\" : \"v\\u0041\"}],\"中文\":\"值\",\"\":\"empty\"}",
+                "{\"id\":1,\"id\":2,\"name\":\"a\",\"name\":null}",
+                "{\"skip\":[{\"a\":\"]\"}],\"skip2\":\"\\\\\",\"id\":3}"
+        };
+        for (String body : bodies) {
+            assertSameAsGson(decoder, body);
+            //second time from the key cache
+            assertSameAsGson(decoder, body);
+        }
+    }
+
+    @Test
+    public void testNotStrictJson() throws Exception {
+        JsonFieldDecoder decoder = decoder();
+        String[] bodies = {"", "[]", "{\"id\":01}", "{\"id\":1,}", "{id:1}", "{\"id\":1} x", "{\"name\":'a'}",
+                "{\"id\":1", "{\"name\":\"\\x\"}", "{\"id\":1.}", "{\"id\":tru}"};
+        for (String body : bodies) {
+            assertFalse(body, decoder.decode(body.getBytes("UTF-8"), new Object[KEYS.size()]));
+        }
+    }
+}
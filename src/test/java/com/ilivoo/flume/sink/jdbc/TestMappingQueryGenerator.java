@@ -0,0 +1,49 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import org.jooq.Field;
+import org.jooq.impl.DSL;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMappingQueryGenerator {
+
+    private static final Field ID = DSL.field(DSL.name("id"));
+    private static final Field STATUS = DSL.field(DSL.name("status"));
+    private static final Field SEEN = DSL.field(DSL.name("seen"));
+
+    private static Map<Field, Object> row(Object id, Object status, Object seen) {
+        Map<Field, Object> row = new HashMap<>();
+        if (id != null) {
+            row.put(ID, id);
+        }
+        if (status != null) {
+            row.put(STATUS, status);
+        }
+        if (seen != null) {
+            row.put(SEEN, seen);
+        }
+        return row;
+    }
+
+    @Test
+    public void testCoalesceLastWins() {
+        List<Map<Field, Object>> rows = new ArrayList<>(Arrays.asList(
+                row(1, "on", 10), row(2, "on", 11), row(1, "off", null), row(null, "x", 12), row(1, null, 13)));
+        List<Map<Field, Object>> result = MappingQueryGenerator.coalesce(Collections.singletonList(ID), rows);
+        assertEquals(Arrays.asList(row(2, "on", 11), row(null, "x", 12), row(1, "off", 13)), result);
+    }
+
+    @Test
+    public void testCoalesceNoPrimaryKey() {
+        List<Map<Field, Object>> rows = Arrays.asList(row(1, "on", 10), row(1, "off", 11));
+        assertEquals(rows, MappingQueryGenerator.coalesce(Collections.<Field>emptyList(), rows));
+    }
+}
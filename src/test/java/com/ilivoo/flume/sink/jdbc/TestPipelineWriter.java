@@ -0,0 +1,209 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import org.apache.flume.CounterGroup;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.DefaultConnection;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockDataProvider;
+import org.jooq.tools.jdbc.MockExecuteContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestPipelineWriter {
+
+    private ExecutorService service;
+
+    private TransactionConnection connection;
+
+    private DSLContext dslContext;
+
+    /**
+     * records the commit and rollback of the writer transaction, the rollback takes rollbackMillis.
+     */
+    private static class TransactionConnection extends DefaultConnection {
+        volatile boolean committed;
+        volatile boolean rolledBack;
+        volatile long rollbackMillis;
+
+        TransactionConnection() {
+            super(new MockConnection(new MockDataProvider() {
+                @Override
+                public MockResult[] execute(MockExecuteContext ctx) throws SQLException {
+                    return new MockResult[0];
+                }
+            }));
+        }
+
+        @Override
+        public void commit() throws SQLException {
+            committed = true;
+        }
+
+        @Override
+        public void rollback() throws SQLException {
+            try {
+                Thread.sleep(rollbackMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            rolledBack = true;
+        }
+    }
+
+    /**
+     * records the chunks, fails the chunk number failChunk, and blocks every chunk until the gate opens.
+     */
+    private static class StubQueryGenerator implements QueryGenerator {
+        final List<List<Event>> chunks = Collections.synchronizedList(new ArrayList<List<Event>>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        volatile int failChunk = -1;
+
+        @Override
+        public boolean executeQuery(DSLContext context, List<Event> events) throws Exception {
+            entered.countDown();
+            gate.await();
+            if (chunks.size() == failChunk) {
+                throw new JDBCSinkException("chunk failed");
+            }
+            chunks.add(events);
+            return true;
+        }
+
+        @Override
+        public String partition(Event event) {
+            return "";
+        }
+
+        @Override
+        public String tableName(Event event) {
+            return "tmq";
+        }
+    }
+
+    private static List<Event> chunk(String body) {
+        return Collections.singletonList(EventBuilder.withBody(body, StandardCharsets.UTF_8));
+    }
+
+    @Before
+    public void setUp() {
+        service = Executors.newSingleThreadExecutor();
+        connection = new TransactionConnection();
+        dslContext = DSL.using(connection, SQLDialect.H2);
+    }
+
+    @After
+    public void tearDown() {
+        service.shutdownNow();
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        StubQueryGenerator generator = new StubQueryGenerator();
+        PipelineWriter writer = new PipelineWriter(service, dslContext, generator, 2, new CounterGroup());
+        writer.write(chunk("a"));
+        writer.write(chunk("b"));
+        writer.finish();
+        assertEquals(2, generator.chunks.size());
+        assertTrue(connection.committed);
+        assertFalse(connection.rolledBack);
+        assertTrue(writer.awaitStopped(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWriterFailure() throws Exception {
+        StubQueryGenerator generator = new StubQueryGenerator();
+        generator.failChunk = 1;
+        PipelineWriter writer = new PipelineWriter(service, dslContext, generator, 2, new CounterGroup());
+        writer.write(chunk("a"));
+        writer.write(chunk("b"));
+        try {
+            writer.finish();
+            fail("the failure of the writer is thrown");
+        } catch (JDBCSinkException e) {
+            assertEquals("chunk failed", e.getMessage());
+        }
+        assertFalse(connection.committed);
+        assertTrue(connection.rolledBack);
+    }
+
+    @Test
+    public void testFailureWhileTaking() throws Exception {
+        StubQueryGenerator generator = new StubQueryGenerator();
+        generator.failChunk = 0;
+        PipelineWriter writer = new PipelineWriter(service, dslContext, generator, 1, new CounterGroup());
+        writer.write(chunk("a"));
+        //the sink keeps taking, a later write sees the failure instead of waiting for the full queue
+        try {
+            for (int i = 0; i < 100; i++) {
+                writer.write(chunk("b" + i));
+            }
+            fail("the failure of the writer is thrown by write");
+        } catch (JDBCSinkException e) {
+            assertEquals("chunk failed", e.getMessage());
+        }
+        assertTrue(writer.awaitStopped(1, TimeUnit.SECONDS));
+        assertTrue(connection.rolledBack);
+        assertFalse(connection.committed);
+    }
+
+    @Test
+    public void testCancelWaitsForRollback() throws Exception {
+        StubQueryGenerator generator = new StubQueryGenerator();
+        generator.gate = new CountDownLatch(1);
+        connection.rollbackMillis = 200;
+        PipelineWriter writer = new PipelineWriter(service, dslContext, generator, 2, new CounterGroup());
+        writer.write(chunk("a"));
+        assertTrue(generator.entered.await(1, TimeUnit.SECONDS));
+        //the writer is interrupted while writing, the rollback is still running when cancel returns
+        writer.cancel();
+        assertTrue(writer.awaitStopped(2, TimeUnit.SECONDS));
+        assertTrue(connection.rolledBack);
+        assertFalse(connection.committed);
+        assertTrue(generator.chunks.isEmpty());
+    }
+
+    @Test
+    public void testCancelBeforeStart() throws Exception {
+        //the only writer thread is busy, the writer has not started when it is cancelled
+        final CountDownLatch busy = new CountDownLatch(1);
+        service.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        StubQueryGenerator generator = new StubQueryGenerator();
+        PipelineWriter writer = new PipelineWriter(service, dslContext, generator, 2, new CounterGroup());
+        writer.cancel();
+        assertTrue(writer.awaitStopped(0, TimeUnit.SECONDS));
+        busy.countDown();
+        assertTrue(generator.chunks.isEmpty());
+        assertFalse(connection.rolledBack);
+    }
+}
@@ -0,0 +1,48 @@
+package com.ilivoo.flume.sink.jdbc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestTemplateQueryGenerator {
+
+    @Test
+    public void testCompile() {
+        TemplateQueryGenerator.Template template = TemplateQueryGenerator.Template.compile(
+                "INSERT INTO $${tmq} (${myInteger}, ${myString}) VALUES (#{header.myInteger}, #{body})");
+        assertEquals("tmq", template.tableName);
+        assertEquals("INSERT INTO tmq (myInteger, myString) VALUES (?, ?)", template.sql);
+        assertEquals(Arrays.asList("myInteger", "myString"), template.fields);
+        assertEquals("myInteger", template.parameters.get(0).header);
+        assertNull(template.parameters.get(1).header);
+        assertEquals(1, template.bodyDecoder.slots());
+    }
+
+    @Test
+    public void testCompileFieldPrefix() {
+        //a field name prefix of another field is replaced at its own position only
+        TemplateQueryGenerator.Template template = TemplateQueryGenerator.Template.compile(
+                "UPDATE $${t} SET ${ab} = #{header.ab}, ${a} = #{header.a}");
+        assertEquals("UPDATE t SET ab = ?, a = ?", template.sql);
+        assertEquals(Arrays.asList("ab", "a"), template.fields);
+        assertEquals(2, template.bodyDecoder.slots());
+    }
+
+    @Test(expected = JDBCSinkException.class)
+    public void testCompileNoTable() {
+        TemplateQueryGenerator.Template.compile("INSERT INTO t (${a}) VALUES (#{body})");
+    }
+
+    @Test(expected = JDBCSinkException.class)
+    public void testCompileBodyHeader() {
+        TemplateQueryGenerator.Template.compile("INSERT INTO $${t} (${a}) VALUES (#{body.a})");
+    }
+
+    @Test(expected = JDBCSinkException.class)
+    public void testCompileFieldsNotMatch() {
+        TemplateQueryGenerator.Template.compile("INSERT INTO $${t} (${a}, ${b}) VALUES (#{body})");
+    }
+}
@@ -0,0 +1,142 @@
+package com.ilivoo.flume.source.Interceptor;
+
+import com.ilivoo.flume.sink.cache.CacheHelper;
+import com.ilivoo.flume.utils.JsonUtil;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestMqttCacheInterceptor {
+
+    private static final List<Event> NONE = Collections.emptyList();
+
+    /**
+     * the payload text as the column v.
+     */
+    public static class TextConverter extends PayloadConverter {
+        @Override
+        public void configure(Context context) {
+        }
+
+        @Override
+        public List<Map<String, String>> convert(byte[] payload) {
+            Map<String, String> row = new HashMap<>();
+            row.put("v", new String(payload, StandardCharsets.UTF_8));
+            return Collections.singletonList(row);
+        }
+    }
+
+    private String cacheName;
+
+    private File parkFile;
+
+    private List<MqttCacheInterceptor> interceptors = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        //the cache is shared by the tests, every test has its own cache name
+        cacheName = "device" + System.nanoTime();
+        parkFile = new File(Files.createTempDirectory("parked").toFile(), "parked");
+    }
+
+    @After
+    public void tearDown() {
+        for (MqttCacheInterceptor interceptor : interceptors) {
+            interceptor.close();
+        }
+    }
+
+    private MqttCacheInterceptor interceptor() {
+        Context context = new Context();
+        context.put("converters", "text");
+        context.put("converters.text.type", TextConverter.class.getName());
+        context.put("cacheName", cacheName);
+        context.put("converterKey", "converter");
+        context.put("cacheMissMode", "park");
+        context.put("parkTimeout", "0");
+        context.put("parkFile", parkFile.getPath());
+        MqttCacheInterceptor interceptor = new MqttCacheInterceptor();
+        interceptor.configure(context);
+        interceptor.initialize();
+        interceptors.add(interceptor);
+        return interceptor;
+    }
+
+    private static Event kafkaEvent(String clientId, String payload) {
+        Map<String, Object> publish = new HashMap<>();
+        publish.put("clientId", clientId);
+        publish.put("topic", "device/" + clientId);
+        publish.put("payload", Base64.encodeBase64String(payload.getBytes(StandardCharsets.UTF_8)));
+        Map<String, String> headers = new HashMap<>();
+        headers.put("key", clientId);
+        return EventBuilder.withBody(JsonUtil.toJson(publish), StandardCharsets.UTF_8, headers);
+    }
+
+    private void cache(String clientId) {
+        Map<String, String> device = new HashMap<>();
+        device.put("converter", "text");
+        device.put("code", clientId);
+        CacheHelper.put(cacheName, clientId, device);
+    }
+
+    private static List<String> values(List<Event> events) {
+        List<String> result = new ArrayList<>();
+        for (Event event : events) {
+            result.add(JsonUtil.jsonToStringMap(new String(event.getBody(), StandardCharsets.UTF_8)).get("v"));
+        }
+        return result;
+    }
+
+    @Test
+    public void testReleaseInOrder() {
+        MqttCacheInterceptor interceptor = interceptor();
+        assertTrue(interceptor.intercept(Arrays.asList(kafkaEvent("c1", "a1"), kafkaEvent("c2", "b1"))).isEmpty());
+        //not cached yet, parked behind the former event of the client
+        assertTrue(interceptor.intercept(Collections.singletonList(kafkaEvent("c1", "a2"))).isEmpty());
+
+        //the put releases c1, its events are emitted by the next batch before the batch
+        cache("c1");
+        List<Event> events = interceptor.intercept(Arrays.asList(kafkaEvent("c1", "a3"), kafkaEvent("c2", "b2")));
+        assertEquals(Arrays.asList("a1", "a2", "a3"), values(events));
+        assertEquals("c1", events.get(0).getHeaders().get("code"));
+
+        cache("c2");
+        assertEquals(Arrays.asList("b1", "b2"), values(interceptor.intercept(NONE)));
+        assertTrue(interceptor.intercept(NONE).isEmpty());
+    }
+
+    @Test
+    public void testCloseKeepsParked() {
+        MqttCacheInterceptor interceptor = interceptor();
+        assertTrue(interceptor.intercept(Arrays.asList(kafkaEvent("c1", "a1"), kafkaEvent("c2", "b1"))).isEmpty());
+        interceptor.close();
+        interceptors.remove(interceptor);
+        assertTrue(parkFile.exists());
+
+        //cached while stopped, released when started
+        cache("c2");
+        MqttCacheInterceptor restarted = interceptor();
+        assertFalse(parkFile.exists());
+        assertEquals(Arrays.asList("b1"), values(restarted.intercept(NONE)));
+        cache("c1");
+        assertEquals(Arrays.asList("a1"), values(restarted.intercept(NONE)));
+    }
+}
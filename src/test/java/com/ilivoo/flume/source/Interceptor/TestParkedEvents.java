@@ -0,0 +1,109 @@
+package com.ilivoo.flume.source.Interceptor;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestParkedEvents {
+
+    private static Event event(String body) {
+        return EventBuilder.withBody(body, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> bodies(List<Event> events) {
+        List<String> result = new ArrayList<>();
+        for (Event event : events) {
+            result.add(new String(event.getBody(), StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    @Test
+    public void testReleaseInOrder() {
+        ParkedEvents parked = new ParkedEvents(10, 0);
+        parked.park("c1", event("a1"), 0);
+        parked.park("c2", event("b1"), 0);
+        parked.park("c1", event("a2"), 0);
+        parked.release("c1");
+        //released clients stay parked until drained, later events wait behind them
+        assertTrue(parked.contains("c1"));
+
+        List<Event> released = new ArrayList<>();
+        List<Event> expired = new ArrayList<>();
+        parked.drain(0, released, expired);
+        assertEquals(Arrays.asList("a1", "a2"), bodies(released));
+        assertTrue(expired.isEmpty());
+        assertFalse(parked.contains("c1"));
+        assertEquals(1, parked.size());
+    }
+
+    @Test
+    public void testCapacity() {
+        ParkedEvents parked = new ParkedEvents(2, 0);
+        assertTrue(parked.park("c1", event("a1"), 0));
+        assertTrue(parked.park("c2", event("b1"), 0));
+        assertFalse(parked.park("c1", event("a2"), 0));
+        parked.release("c2");
+        parked.drain(0, new ArrayList<Event>(), new ArrayList<Event>());
+        assertTrue(parked.park("c1", event("a2"), 0));
+    }
+
+    @Test
+    public void testTimeout() {
+        ParkedEvents parked = new ParkedEvents(10, 100);
+        parked.park("c1", event("a1"), 0);
+        parked.park("c2", event("b1"), 50);
+        parked.park("c1", event("a2"), 80);
+
+        List<Event> released = new ArrayList<>();
+        List<Event> expired = new ArrayList<>();
+        parked.drain(120, released, expired);
+        assertEquals(Arrays.asList("a1", "a2"), bodies(expired));
+        assertTrue(parked.contains("c2"));
+        parked.drain(150, released, expired);
+        assertEquals(Arrays.asList("a1", "a2", "b1"), bodies(expired));
+        assertEquals(0, parked.size());
+    }
+
+    @Test
+    public void testDrainAllWriteRestore() throws Exception {
+        ParkedEvents parked = new ParkedEvents(2, 0);
+        parked.park("c1", event("a1"), 0);
+        parked.park("c2", event("b1"), 0);
+        Map<String, List<Event>> clientEvents = parked.drainAll();
+        assertEquals(0, parked.size());
+        assertFalse(parked.contains("c1"));
+
+        clientEvents.get("c1").get(0).getHeaders().put("key", "c1");
+        File file = new File(Files.createTempDirectory("parked").toFile(), "dir/parked");
+        ParkedEvents.write(file, clientEvents);
+        Map<String, List<Event>> read = ParkedEvents.read(file);
+        assertEquals(Arrays.asList("c1", "c2"), new ArrayList<>(read.keySet()));
+        assertEquals(Arrays.asList("a1"), bodies(read.get("c1")));
+        assertEquals("c1", read.get("c1").get(0).getHeaders().get("key"));
+
+        //restored beyond the capacity, new events overflow until drained
+        ParkedEvents restored = new ParkedEvents(1, 0);
+        for (Map.Entry<String, List<Event>> entry : read.entrySet()) {
+            restored.restore(entry.getKey(), entry.getValue(), 0);
+        }
+        assertEquals(2, restored.size());
+        assertFalse(restored.park("c3", event("c1"), 0));
+        restored.release("c2");
+        List<Event> released = new ArrayList<>();
+        restored.drain(0, released, new ArrayList<Event>());
+        assertEquals(Arrays.asList("b1"), bodies(released));
+    }
+}
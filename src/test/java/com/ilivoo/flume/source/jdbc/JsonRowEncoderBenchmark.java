@@ -0,0 +1,70 @@
+package com.ilivoo.flume.source.jdbc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * encode a page of rows to event bodies, gson JsonObject path against {@link JsonRowEncoder}.
+ * run with main from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonRowEncoderBenchmark {
+
+    private static final int PAGE_SIZE = 1000;
+
+    private RowResultSet rowResultSet;
+
+    private ResultSet rs;
+
+    @Setup
+    public void setup() {
+        rowResultSet = RowResultSet.sample(PAGE_SIZE);
+        rs = rowResultSet.resultSet();
+    }
+
+    @Benchmark
+    public void gson(Blackhole blackhole) throws Exception {
+        rowResultSet.reset();
+        ResultSetMetaData metaData = rs.getMetaData();
+        BitSet skipColumns = new BitSet();
+        while (rs.next()) {
+            blackhole.consume(RowResultSet.gsonRow(rs, metaData, skipColumns));
+        }
+    }
+
+    @Benchmark
+    public void encoder(Blackhole blackhole) throws Exception {
+        rowResultSet.reset();
+        JsonRowEncoder encoder = new JsonRowEncoder(rs.getMetaData(), new BitSet());
+        while (rs.next()) {
+            blackhole.consume(encoder.encode(rs));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(JsonRowEncoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
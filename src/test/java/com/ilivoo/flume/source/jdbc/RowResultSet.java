@@ -0,0 +1,112 @@
+package com.ilivoo.flume.source.jdbc;
+
+import com.google.common.base.Strings;
+import com.google.gson.JsonObject;
+import com.ilivoo.flume.utils.JsonUtil;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.BitSet;
+
+/**
+ * in memory result set of fixed rows for row encoding tests, the rows can be read again after {@link #reset()}.
+ */
+class RowResultSet implements InvocationHandler {
+
+    private final String[] labels;
+    private final int[] types;
+    private final Object[][] rows;
+    private int row = -1;
+    private boolean wasNull;
+
+    RowResultSet(String[] labels, int[] types, Object[][] rows) {
+        this.labels = labels;
+        this.types = types;
+        this.rows = rows;
+    }
+
+    ResultSet resultSet() {
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{ResultSet.class}, this);
+    }
+
+    ResultSetMetaData metaData() {
+        return (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{ResultSetMetaData.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("getColumnCount".equals(name)) {
+                            return labels.length;
+                        } else if ("getColumnLabel".equals(name)) {
+                            return labels[(Integer) args[0] - 1];
+                        } else if ("getColumnType".equals(name)) {
+                            return types[(Integer) args[0] - 1];
+                        } else if ("isSigned".equals(name)) {
+                            return true;
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+    void reset() {
+        row = -1;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+        String name = method.getName();
+        if ("next".equals(name)) {
+            return ++row < rows.length;
+        } else if ("getMetaData".equals(name)) {
+            return metaData();
+        } else if ("wasNull".equals(name)) {
+            return wasNull;
+        }
+        Object value = rows[row][(Integer) args[0] - 1];
+        wasNull = value == null;
+        if ("getString".equals(name)) {
+            return value == null ? null : value.toString();
+        } else if ("getLong".equals(name)) {
+            return value == null ? 0L : ((Number) value).longValue();
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    /**
+     * the row body built by gson, what the source sent before {@link JsonRowEncoder}.
+     */
+    static byte[] gsonRow(ResultSet rs, ResultSetMetaData metaData, BitSet skipColumns) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        JsonObject jsonObject = new JsonObject();
+        for (int i = 1; i <= columnCount; i++) {
+            if (skipColumns.get(i)) {
+                continue;
+            }
+            String cName = metaData.getColumnLabel(i);
+            String value = rs.getString(i);
+            if (!Strings.isNullOrEmpty(value)) {
+                jsonObject.addProperty(cName, value);
+            }
+        }
+        return JsonUtil.toJson(jsonObject).getBytes(Charset.forName("UTF-8"));
+    }
+
+    static RowResultSet sample(int rowCount) {
+        String[] labels = {"id", "station", "tm", "drp", "note", "flag"};
+        int[] types = {Types.BIGINT, Types.VARCHAR, Types.TIMESTAMP, Types.DECIMAL, Types.VARCHAR, Types.INTEGER};
+        Object[][] rows = new Object[rowCount][];
+        for (int i = 0; i < rowCount; i++) {
+            rows[i] = new Object[]{(long) i, "ST" + (i % 100), "2019-10-14 00:00:" + (10 + i % 50),
+                    i % 7 == 0 ? null : "12.5" + i % 10, i % 3 == 0 ? "" : "水位 <" + i + "> \"ok\"", i % 2};
+        }
+        return new RowResultSet(labels, types, rows);
+    }
+}
@@ -0,0 +1,37 @@
+package com.ilivoo.flume.source.jdbc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCDCSourceTable {
+
+    @Test
+    public void testPosition() {
+        byte[] lsn = {0x00, 0x00, 0x00, 0x2a, (byte) 0x80, 0x00, 0x01, (byte) 0xff, 0x00, 0x03};
+        byte[] seqval = {0x00, 0x00, 0x00, 0x2a, (byte) 0x80, 0x00, 0x01, (byte) 0xff, 0x00, 0x02};
+        String position = CDCSourceTable.toPosition(lsn, seqval, 2);
+        assertEquals("0000002a800001ff0003:0000002a800001ff0002:2", position);
+        String[] parts = position.split(":");
+        assertArrayEquals(lsn, CDCSourceTable.fromHex(parts[0]));
+        assertArrayEquals(seqval, CDCSourceTable.fromHex(parts[1]));
+    }
+
+    @Test
+    public void testCompareUnsigned() {
+        byte[] small = {0x00, 0x7f};
+        byte[] large = {0x00, (byte) 0x80};
+        assertTrue(CDCSourceTable.compare(small, large) < 0);
+        assertTrue(CDCSourceTable.compare(large, small) > 0);
+        assertEquals(0, CDCSourceTable.compare(large, new byte[]{0x00, (byte) 0x80}));
+    }
+
+    @Test
+    public void testOperationName() {
+        assertEquals("delete", CDCSourceTable.operationName(1));
+        assertEquals("insert", CDCSourceTable.operationName(2));
+        assertEquals("update", CDCSourceTable.operationName(4));
+    }
+}
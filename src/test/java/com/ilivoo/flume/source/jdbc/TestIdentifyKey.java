@@ -0,0 +1,31 @@
+package com.ilivoo.flume.source.jdbc;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestIdentifyKey {
+
+    @Test
+    public void testChar() {
+        //char columns are padded
+        assertEquals("a1", JDBCSourceTable.identifyKey("a1   ", false));
+        assertEquals(" a1", JDBCSourceTable.identifyKey(" a1", false));
+        assertEquals("01", JDBCSourceTable.identifyKey("01", false));
+        assertNull(JDBCSourceTable.identifyKey(null, false));
+    }
+
+    @Test
+    public void testNumber() {
+        assertEquals("1", JDBCSourceTable.identifyKey(1, true));
+        assertEquals("1", JDBCSourceTable.identifyKey(1L, true));
+        assertEquals("1", JDBCSourceTable.identifyKey(new BigDecimal("1.00"), true));
+        assertEquals("10", JDBCSourceTable.identifyKey(new BigDecimal("1E+1"), true));
+        //a number converted to text by a column convert
+        assertEquals("1", JDBCSourceTable.identifyKey("1.0", true));
+        assertEquals("x", JDBCSourceTable.identifyKey("x", true));
+    }
+}
@@ -0,0 +1,48 @@
+package com.ilivoo.flume.source.jdbc;
+
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class TestJsonRowEncoder {
+
+    private void assertSameAsGson(RowResultSet rowResultSet, BitSet skipColumns) throws Exception {
+        ResultSet rs = rowResultSet.resultSet();
+        JsonRowEncoder encoder = new JsonRowEncoder(rs.getMetaData(), skipColumns);
+        while (rs.next()) {
+            assertArrayEquals(RowResultSet.gsonRow(rs, rs.getMetaData(), skipColumns), encoder.encode(rs));
+        }
+    }
+
+    @Test
+    public void testSample() throws Exception {
+        assertSameAsGson(RowResultSet.sample(500), new BitSet());
+    }
+
+    @Test
+    public void testEscape() throws Exception {
+        String[] labels = {"a\"b", "c=d", "text", "num"};
+        int[] types = {Types.VARCHAR, Types.VARCHAR, Types.NVARCHAR, Types.BIGINT};
+        Object[][] rows = {
+                {"\\ \t\b\n\r\f \u0001 \u001f", "<a href='x'>&amp;</a>", "\u2028\u2029 é 中 😀", Long.MIN_VALUE},
+                {"\ud83d", "\ude00x", null, -12L},
+                {null, null, null, null},
+                {"", "", "", 0L}
+        };
+        assertSameAsGson(new RowResultSet(labels, types, rows), new BitSet());
+    }
+
+    @Test
+    public void testSkipAndDuplicateLabel() throws Exception {
+        String[] labels = {"id", "flume_rn", "id"};
+        int[] types = {Types.INTEGER, Types.BIGINT, Types.VARCHAR};
+        Object[][] rows = {{1, 1L, "x"}, {2, 2L, null}};
+        BitSet skipColumns = new BitSet();
+        skipColumns.set(2);
+        assertSameAsGson(new RowResultSet(labels, types, rows), skipColumns);
+    }
+}
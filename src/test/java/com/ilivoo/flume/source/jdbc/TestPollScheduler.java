@@ -0,0 +1,62 @@
+package com.ilivoo.flume.source.jdbc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPollScheduler {
+
+    @Test
+    public void testFullBatchPollAgain() {
+        PollScheduler scheduler = new PollScheduler(1000, 60000);
+        scheduler.add("a");
+        assertEquals(Collections.singletonList("a"), scheduler.takeDue(0));
+        assertEquals(Long.MAX_VALUE, scheduler.nextDeadline());
+        scheduler.record("a", 100, 100, 10);
+        assertEquals(10, scheduler.nextDeadline());
+    }
+
+    @Test
+    public void testEmptyBackoff() {
+        PollScheduler scheduler = new PollScheduler(1000, 3000);
+        scheduler.add("a");
+        long now = 0;
+        long[] expects = {1000, 2000, 3000, 3000};
+        for (long expect : expects) {
+            assertEquals(Collections.singletonList("a"), scheduler.takeDue(now));
+            scheduler.record("a", 0, 100, now);
+            assertEquals(now + expect, scheduler.nextDeadline());
+            now = scheduler.nextDeadline();
+        }
+    }
+
+    @Test
+    public void testPartBatchByRate() {
+        PollScheduler scheduler = new PollScheduler(10000, 60000);
+        scheduler.add("a");
+        scheduler.takeDue(1000);
+        scheduler.record("a", 100, 100, 1000);
+        scheduler.takeDue(1000);
+        //10 rows per millisecond, a batch of 100 need about 10 / 0.3 milliseconds
+        scheduler.record("a", 50, 100, 1005);
+        long wait = scheduler.nextDeadline() - 1005;
+        assertTrue(wait > 0 && wait < 10000);
+    }
+
+    @Test
+    public void testDueOrder() {
+        PollScheduler scheduler = new PollScheduler(1000, 60000);
+        scheduler.add("a");
+        scheduler.add("b");
+        scheduler.takeDue(0);
+        scheduler.record("a", 0, 100, 0);
+        scheduler.record("b", -1, 100, 500);
+        assertEquals(1000, scheduler.nextDeadline());
+        assertEquals(Collections.singletonList("a"), scheduler.takeDue(1200));
+        assertEquals(Arrays.asList("b"), scheduler.takeDue(1500));
+    }
+}
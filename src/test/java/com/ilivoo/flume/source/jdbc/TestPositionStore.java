@@ -0,0 +1,170 @@
+package com.ilivoo.flume.source.jdbc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestPositionStore {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFilePositionStore() throws Exception {
+        String path = folder.getRoot() + "/table";
+        FilePositionStore store = new FilePositionStore();
+        store.open(path);
+        assertTrue(store.read().isEmpty());
+        Map<String, String> position = new HashMap<>();
+        position.put(PositionStore.TABLE_KEY, "2019-10-15 00:00:00");
+        store.write(position);
+        store.close();
+
+        FilePositionStore reopen = new FilePositionStore();
+        reopen.open(path);
+        assertEquals(position, reopen.read());
+        assertTrue(!new File(path + ".json.tmp").exists());
+    }
+
+    @Test
+    public void testLogPositionStore() throws Exception {
+        String path = folder.getRoot() + "/table";
+        Map<String, String> position = new HashMap<>();
+        position.put("1", "10");
+        position.put("2", "20");
+        FilePositionStore fileStore = new FilePositionStore();
+        fileStore.open(path);
+        fileStore.write(position);
+
+        LogPositionStore store = new LogPositionStore();
+        store.open(path);
+        assertEquals(position, store.read());
+        for (int i = 0; i < 3000; i++) {
+            position.put("1", String.valueOf(i));
+            store.write(position);
+        }
+        store.close();
+
+        //broken line of crash
+        FileOutputStream out = new FileOutputStream(path + ".log", true);
+        out.write("1a2b {\"1\":\"99".getBytes("UTF-8"));
+        out.close();
+
+        LogPositionStore reopen = new LogPositionStore();
+        reopen.open(path);
+        assertEquals(position, reopen.read());
+        position.put("3", "30");
+        reopen.write(position);
+        reopen.close();
+
+        reopen = new LogPositionStore();
+        reopen.open(path);
+        assertEquals(position, reopen.read());
+        reopen.close();
+    }
+
+    @Test
+    public void testLogCompactFailure() throws Exception {
+        String path = folder.getRoot() + "/table";
+        LogPositionStore store = new LogPositionStore();
+        store.open(path);
+        Map<String, String> position = new HashMap<>();
+        position.put("1", "10");
+        position.put("2", "20");
+        store.write(position);
+
+        //the temp log can not be created, removing an identify compacts
+        File temp = new File(path + ".log.tmp");
+        assertTrue(new File(temp, "blocked").mkdirs());
+        Map<String, String> removed = new HashMap<>();
+        removed.put("1", "11");
+        try {
+            store.write(removed);
+            fail("the compact failure is thrown");
+        } catch (IOException e) {
+            //expected
+        }
+        assertEquals(position, store.read());
+        //the old log is still writable
+        position.put("2", "21");
+        store.write(position);
+        assertEquals(position, store.read());
+
+        assertTrue(new File(temp, "blocked").delete());
+        assertTrue(temp.delete());
+        store.write(removed);
+        assertEquals(removed, store.read());
+        removed.put("1", "12");
+        store.write(removed);
+        store.close();
+
+        LogPositionStore reopen = new LogPositionStore();
+        reopen.open(path);
+        assertEquals(removed, reopen.read());
+        reopen.close();
+        assertTrue(!temp.exists());
+    }
+
+    /**
+     * writes half of the next line and fails, like a full disk.
+     */
+    private static class TornLogPositionStore extends LogPositionStore {
+        boolean tear;
+
+        @Override
+        void append(FileChannel fileChannel, ByteBuffer buffer) throws IOException {
+            if (tear) {
+                tear = false;
+                buffer.limit(buffer.limit() / 2);
+                super.append(fileChannel, buffer);
+                throw new IOException("no space left on device");
+            }
+            super.append(fileChannel, buffer);
+        }
+    }
+
+    @Test
+    public void testLogTornAppend() throws Exception {
+        String path = folder.getRoot() + "/table";
+        TornLogPositionStore store = new TornLogPositionStore();
+        store.open(path);
+        Map<String, String> position = new HashMap<>();
+        position.put("1", "10");
+        position.put("2", "20");
+        store.write(position);
+
+        Map<String, String> torn = new HashMap<>(position);
+        torn.put("1", "11");
+        store.tear = true;
+        try {
+            store.write(torn);
+            fail("the append failure is thrown");
+        } catch (IOException e) {
+            //expected
+        }
+        assertEquals(position, store.read());
+        //the later checkpoints are not appended to the torn line
+        position.put("1", "12");
+        store.write(position);
+        position.put("2", "22");
+        store.write(position);
+        store.close();
+
+        LogPositionStore reopen = new LogPositionStore();
+        reopen.open(path);
+        assertEquals(position, reopen.read());
+        reopen.close();
+    }
+}
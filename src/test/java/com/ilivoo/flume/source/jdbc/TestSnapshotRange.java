@@ -0,0 +1,104 @@
+package com.ilivoo.flume.source.jdbc;
+
+import org.jooq.impl.SQLDataType;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSnapshotRange {
+
+    @Test
+    public void testSplitInteger() {
+        List<Object> bounds = JDBCSourceTable.splitRange(SQLDataType.BIGINT, 0L, 100L, 4);
+        assertEquals(Arrays.<Object>asList(25L, 50L, 75L), bounds);
+    }
+
+    @Test
+    public void testEmptyRange() {
+        assertTrue(JDBCSourceTable.splitRange(SQLDataType.INTEGER, 5, 5, 4).isEmpty());
+        assertTrue(JDBCSourceTable.splitRange(SQLDataType.TIMESTAMP,
+                Timestamp.valueOf("2020-01-01 00:00:00"), Timestamp.valueOf("2020-01-01 00:00:00"), 4).isEmpty());
+    }
+
+    @Test
+    public void testFewKeys() {
+        //fewer keys than chunks, the bounds stay distinct and inside the range
+        assertEquals(Arrays.<Object>asList(2), JDBCSourceTable.splitRange(SQLDataType.INTEGER, 1, 3, 10));
+        assertTrue(JDBCSourceTable.splitRange(SQLDataType.INTEGER, 1, 2, 10).isEmpty());
+    }
+
+    @Test
+    public void testSplitDecimal() {
+        List<Object> bounds = JDBCSourceTable.splitRange(SQLDataType.DECIMAL,
+                new BigDecimal("0.0"), new BigDecimal("1.0"), 2);
+        assertEquals(1, bounds.size());
+        assertEquals(0, new BigDecimal("0.5").compareTo((BigDecimal) bounds.get(0)));
+    }
+
+    @Test
+    public void testSplitTimestamp() {
+        List<Object> bounds = JDBCSourceTable.splitRange(SQLDataType.TIMESTAMP,
+                Timestamp.valueOf("2020-01-01 00:00:00"), Timestamp.valueOf("2020-01-03 00:00:00"), 2);
+        assertEquals(Arrays.<Object>asList(Timestamp.valueOf("2020-01-02 00:00:00")), bounds);
+    }
+
+    @Test
+    public void testSplitLocalDateTime() {
+        //the java.time values are not split, the table is read without chunks
+        Object min = SQLDataType.LOCALDATETIME.convert(Timestamp.valueOf("2020-01-01 00:00:00"));
+        Object max = SQLDataType.LOCALDATETIME.convert(Timestamp.valueOf("2020-01-03 00:00:00"));
+        assertFalse(min instanceof java.util.Date);
+        assertTrue(JDBCSourceTable.splitRange(SQLDataType.LOCALDATETIME, min, max, 2).isEmpty());
+    }
+
+    @Test
+    public void testNonNumeric() {
+        assertTrue(JDBCSourceTable.splitRange(SQLDataType.VARCHAR, "a", "z", 4).isEmpty());
+    }
+
+    @Test
+    public void testResumePartlyFinished() {
+        Map<String, String> start = new HashMap<>();
+        Map<String, String> end = new HashMap<>();
+        start.put("snapshot.0", "0");
+        end.put("snapshot.0", "25");
+        start.put("snapshot.1", "25");
+        end.put("snapshot.1", "50");
+        start.put("snapshot.2", "50");
+        end.put("snapshot.2", "100");
+        //chunk 1 finished, chunk 2 read to 60
+        start.remove("snapshot.1");
+        end.remove("snapshot.1");
+        start.put("snapshot.2", "60");
+        Map<String, String> position = new HashMap<>();
+        position.put(PositionStore.TABLE_KEY, "0");
+        JDBCSourceTable.writeSnapshotPosition(position, "100", start, end);
+
+        Map<String, String> resumedStart = new HashMap<>();
+        Map<String, String> resumedEnd = new HashMap<>();
+        assertEquals("100", JDBCSourceTable.readSnapshotPosition(position, resumedStart, resumedEnd));
+        assertEquals(start, resumedStart);
+        assertEquals(end, resumedEnd);
+    }
+
+    @Test
+    public void testResumeFinished() {
+        Map<String, String> position = new HashMap<>();
+        position.put(PositionStore.TABLE_KEY, "0");
+        JDBCSourceTable.writeSnapshotPosition(position, "100",
+                new HashMap<String, String>(), new HashMap<String, String>());
+        Map<String, String> resumedStart = new HashMap<>();
+        Map<String, String> resumedEnd = new HashMap<>();
+        assertEquals("100", JDBCSourceTable.readSnapshotPosition(position, resumedStart, resumedEnd));
+        assertTrue(resumedEnd.isEmpty());
+    }
+}